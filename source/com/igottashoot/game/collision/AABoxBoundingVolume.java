@@ -24,21 +24,25 @@ public class AABoxBoundingVolume extends BaseObject implements BoundingVolume
         mOffset.set( positionX, positionY );
     }
     
+    @Override
     public float getMinimumX()
     {
         return mMin.getX() + mOffset.getX();
     }
     
+    @Override
     public float getMinimumY()
     {
         return mMin.getY() + mOffset.getY();
     }
     
+    @Override
     public float getMaximumX()
     {
         return mMax.getX() + mOffset.getX();
     }
     
+    @Override
     public float getMaximumY()
     {
         return mMax.getY() + mOffset.getY();
@@ -3,4 +3,10 @@ package com.igottashoot.game.collision;
 public interface BoundingVolume
 {
     void setOffset( float positionX, float positionY );
+    
+    // The world space box enclosing the volume, used by the broadphase
+    float getMinimumX();
+    float getMinimumY();
+    float getMaximumX();
+    float getMaximumY();
 }
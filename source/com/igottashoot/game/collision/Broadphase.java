@@ -0,0 +1,23 @@
+package com.igottashoot.game.collision;
+
+/**
+ * Cheaply narrows all possible pairs of bounding volumes down to the ones
+ * whose bounds overlap, so the (expensive) narrowphase only runs on those.
+ * Implementations must not allocate once they have grown to the number of
+ * volumes they're given.
+ */
+public interface Broadphase
+{
+    /** Forgets the volumes of the last frame. */
+    void clear();
+    
+    /**
+     * @param id
+     *            The index of the volume for this frame, volumes are added
+     *            with ids 0, 1, 2... and pairs are reported by id.
+     */
+    void add( int id, BoundingVolume volume );
+    
+    /** Adds every pair of volumes whose bounds overlap, each pair once. */
+    void findPairs( CollisionPairs pairs );
+}
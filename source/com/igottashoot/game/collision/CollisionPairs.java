@@ -0,0 +1,62 @@
+package com.igottashoot.game.collision;
+
+import java.util.Arrays;
+
+import com.igottashoot.game.primitives.BaseObject;
+
+/**
+ * The candidate pairs found by a {@link Broadphase}. A pair is packed into a
+ * single long, lowest id in the high bits, so sorting the pairs puts them in
+ * the order a nested loop over the ids would have visited them.
+ * 
+ * Grows when full, which stops happening once it has seen the busiest frame.
+ */
+public class CollisionPairs extends BaseObject
+{
+    private long[] mPairs;
+    private int mCount;
+    
+    public CollisionPairs( int initialCapacity )
+    {
+        mPairs = new long[ Math.max( 1, initialCapacity ) ];
+        mCount = 0;
+    }
+    
+    @Override
+    public void reset()
+    {
+        mCount = 0;
+    }
+    
+    public void add( int id1, int id2 )
+    {
+        if ( mCount == mPairs.length )
+            mPairs = Arrays.copyOf( mPairs, mPairs.length * 2 );
+        
+        final long first = Math.min( id1, id2 );
+        final long second = Math.max( id1, id2 );
+        mPairs[ mCount++ ] = ( first << 32 ) | second;
+    }
+    
+    public void sort()
+    {
+        Arrays.sort( mPairs, 0, mCount );
+    }
+    
+    public int getCount()
+    {
+        return mCount;
+    }
+    
+    /** The lower id of the pair. */
+    public int getFirst( int index )
+    {
+        return (int) ( mPairs[index] >>> 32 );
+    }
+    
+    /** The higher id of the pair. */
+    public int getSecond( int index )
+    {
+        return (int) mPairs[index];
+    }
+}
@@ -0,0 +1,192 @@
+package com.igottashoot.game.collision;
+
+import java.util.Arrays;
+
+import com.igottashoot.game.primitives.BaseObject;
+
+/**
+ * A uniform grid of square cells, hashed into a fixed number of buckets so
+ * the world doesn't need bounds. Every volume is entered into each cell it
+ * covers, and only volumes sharing a cell are compared. Suits lots of small
+ * things (bullets) spread over both axes; the cell size should be around the
+ * size of the common object.
+ * 
+ * A pair sharing several cells is only reported from the first cell of their
+ * overlap, so no set is needed to drop duplicates. Buckets are cleared by
+ * bumping a frame stamp rather than touching the whole table.
+ */
+public class SpatialHash extends BaseObject implements Broadphase
+{
+    private static final int NO_ENTRY = -1;
+    
+    private final float mInverseCellSize;
+    private final int mBucketMask;
+    private final int[] mBucketHeads;
+    private final int[] mBucketStamps;
+    
+    // per volume
+    private float[] mMinX;
+    private float[] mMinY;
+    private float[] mMaxX;
+    private float[] mMaxY;
+    private int[] mCellMinX;
+    private int[] mCellMinY;
+    private int mCount;
+    
+    // per (volume, cell), chained per bucket
+    private int[] mEntryIds;
+    private int[] mEntryCellX;
+    private int[] mEntryCellY;
+    private int[] mEntryNext;
+    private int mEntryCount;
+    
+    private int mStamp;
+    
+    /**
+     * @param bucketCount
+     *            Rounded up to the next power of two.
+     */
+    public SpatialHash( float cellSize, int bucketCount, int initialCapacity )
+    {
+        if ( cellSize <= 0f )
+            throw new IllegalArgumentException( "cellSize must be positive" );
+        
+        int buckets = 1;
+        while ( buckets < bucketCount )
+            buckets <<= 1;
+        
+        mInverseCellSize = 1.0f / cellSize;
+        mBucketMask = buckets - 1;
+        mBucketHeads = new int[ buckets ];
+        mBucketStamps = new int[ buckets ];
+        
+        final int capacity = Math.max( 1, initialCapacity );
+        mMinX = new float[ capacity ];
+        mMinY = new float[ capacity ];
+        mMaxX = new float[ capacity ];
+        mMaxY = new float[ capacity ];
+        mCellMinX = new int[ capacity ];
+        mCellMinY = new int[ capacity ];
+        
+        mEntryIds = new int[ capacity * 4 ];
+        mEntryCellX = new int[ capacity * 4 ];
+        mEntryCellY = new int[ capacity * 4 ];
+        mEntryNext = new int[ capacity * 4 ];
+        
+        mStamp = 0;
+        clear();
+    }
+    
+    @Override
+    public void clear()
+    {
+        mCount = 0;
+        mEntryCount = 0;
+        mStamp++;
+    }
+    
+    @Override
+    public void add( int id, BoundingVolume volume )
+    {
+        if ( id != mCount )
+            throw new IllegalArgumentException( "Volumes must be added in id order" );
+        
+        if ( mCount == mMinX.length )
+            growVolumes( mCount * 2 );
+        
+        final float minX = volume.getMinimumX();
+        final float minY = volume.getMinimumY();
+        final float maxX = volume.getMaximumX();
+        final float maxY = volume.getMaximumY();
+        mMinX[id] = minX;
+        mMinY[id] = minY;
+        mMaxX[id] = maxX;
+        mMaxY[id] = maxY;
+        mCount++;
+        
+        final int cellMinX = getCell( minX );
+        final int cellMinY = getCell( minY );
+        final int cellMaxX = getCell( maxX );
+        final int cellMaxY = getCell( maxY );
+        mCellMinX[id] = cellMinX;
+        mCellMinY[id] = cellMinY;
+        
+        for ( int cellY = cellMinY; cellY <= cellMaxY; cellY++ )
+        {
+            for ( int cellX = cellMinX; cellX <= cellMaxX; cellX++ )
+                addEntry( id, cellX, cellY );
+        }
+    }
+    
+    @Override
+    public void findPairs( CollisionPairs pairs )
+    {
+        for ( int entry = 0; entry < mEntryCount; entry++ )
+        {
+            final int id = mEntryIds[entry];
+            final int cellX = mEntryCellX[entry];
+            final int cellY = mEntryCellY[entry];
+            
+            for ( int other = mEntryNext[entry]; other != NO_ENTRY; other = mEntryNext[other] )
+            {
+                // another cell that happens to hash to the same bucket
+                if ( mEntryCellX[other] != cellX || mEntryCellY[other] != cellY )
+                    continue;
+                
+                final int otherId = mEntryIds[other];
+                
+                // report the pair from the first cell they share only
+                if ( cellX != Math.max( mCellMinX[id], mCellMinX[otherId] ) ||
+                     cellY != Math.max( mCellMinY[id], mCellMinY[otherId] ) )
+                    continue;
+                
+                if ( mMinX[otherId] <= mMaxX[id] && mMinX[id] <= mMaxX[otherId] &&
+                     mMinY[otherId] <= mMaxY[id] && mMinY[id] <= mMaxY[otherId] )
+                    pairs.add( id, otherId );
+            }
+        }
+    }
+    
+    private int getCell( float position )
+    {
+        return (int) Math.floor( position * mInverseCellSize );
+    }
+    
+    private void addEntry( int id, int cellX, int cellY )
+    {
+        if ( mEntryCount == mEntryIds.length )
+            growEntries( mEntryCount * 2 );
+        
+        final int bucket = ( ( cellX * 73856093 ) ^ ( cellY * 19349663 ) ) & mBucketMask;
+        if ( mBucketStamps[bucket] != mStamp )
+        {
+            mBucketStamps[bucket] = mStamp;
+            mBucketHeads[bucket] = NO_ENTRY;
+        }
+        
+        final int entry = mEntryCount++;
+        mEntryIds[entry] = id;
+        mEntryCellX[entry] = cellX;
+        mEntryCellY[entry] = cellY;
+        mEntryNext[entry] = mBucketHeads[bucket];
+        mBucketHeads[bucket] = entry;
+    }
+    
+    private void growVolumes( int capacity )
+    {
+        mMinX = Arrays.copyOf( mMinX, capacity );
+        mMinY = Arrays.copyOf( mMinY, capacity );
+        mMaxX = Arrays.copyOf( mMaxX, capacity );
+        mMaxY = Arrays.copyOf( mMaxY, capacity );
+        mCellMinX = Arrays.copyOf( mCellMinX, capacity );
+        mCellMinY = Arrays.copyOf( mCellMinY, capacity );
+    }
+    
+    private void growEntries( int capacity )
+    {
+        mEntryIds = Arrays.copyOf( mEntryIds, capacity );
+        mEntryCellX = Arrays.copyOf( mEntryCellX, capacity );
+        mEntryCellY = Arrays.copyOf( mEntryCellY, capacity );
+        mEntryNext = Arrays.copyOf( mEntryNext, capacity );
+    }
+}
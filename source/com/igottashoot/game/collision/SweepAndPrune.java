@@ -0,0 +1,127 @@
+package com.igottashoot.game.collision;
+
+import java.util.Arrays;
+
+import com.igottashoot.game.primitives.BaseObject;
+
+/**
+ * Sorts the volumes by their left edge and sweeps along the X axis: a volume
+ * can only overlap the ones that start before it ends. Suits a side-scroller,
+ * where things are spread out horizontally.
+ * 
+ * The order of the last frame is kept and fixed up with an insertion sort,
+ * which is close to linear since things don't move much between frames.
+ */
+public class SweepAndPrune extends BaseObject implements Broadphase
+{
+    private float[] mMinX;
+    private float[] mMinY;
+    private float[] mMaxX;
+    private float[] mMaxY;
+    private int[] mOrder;
+    private int mCount;
+    private int mOrderCount;
+    
+    public SweepAndPrune( int initialCapacity )
+    {
+        final int capacity = Math.max( 1, initialCapacity );
+        mMinX = new float[ capacity ];
+        mMinY = new float[ capacity ];
+        mMaxX = new float[ capacity ];
+        mMaxY = new float[ capacity ];
+        mOrder = new int[ capacity ];
+        mCount = 0;
+        mOrderCount = 0;
+    }
+    
+    @Override
+    public void clear()
+    {
+        mCount = 0;
+    }
+    
+    @Override
+    public void add( int id, BoundingVolume volume )
+    {
+        if ( id != mCount )
+            throw new IllegalArgumentException( "Volumes must be added in id order" );
+        
+        if ( mCount == mMinX.length )
+            grow( mCount * 2 );
+        
+        mMinX[id] = volume.getMinimumX();
+        mMinY[id] = volume.getMinimumY();
+        mMaxX[id] = volume.getMaximumX();
+        mMaxY[id] = volume.getMaximumY();
+        mCount++;
+    }
+    
+    @Override
+    public void findPairs( CollisionPairs pairs )
+    {
+        updateOrder();
+        
+        final int count = mCount;
+        for ( int index = 0; index < count; index++ )
+        {
+            final int id = mOrder[index];
+            final float maxX = mMaxX[id];
+            final float minY = mMinY[id];
+            final float maxY = mMaxY[id];
+            
+            for ( int other = index + 1; other < count; other++ )
+            {
+                final int otherId = mOrder[other];
+                
+                // everything further along starts even later
+                if ( mMinX[otherId] > maxX )
+                    break;
+                
+                if ( mMinY[otherId] <= maxY && minY <= mMaxY[otherId] )
+                    pairs.add( id, otherId );
+            }
+        }
+    }
+    
+    /**
+     * Keeps the ids still in use in last frame's order, appends the new ones
+     * and insertion sorts the lot by left edge.
+     */
+    private void updateOrder()
+    {
+        int orderCount = 0;
+        for ( int index = 0; index < mOrderCount; index++ )
+        {
+            if ( mOrder[index] < mCount )
+                mOrder[ orderCount++ ] = mOrder[index];
+        }
+        
+        for ( int id = mOrderCount; id < mCount; id++ )
+            mOrder[ orderCount++ ] = id;
+        
+        mOrderCount = orderCount;
+        
+        for ( int index = 1; index < orderCount; index++ )
+        {
+            final int id = mOrder[index];
+            final float minX = mMinX[id];
+            
+            int position = index - 1;
+            while ( position >= 0 && mMinX[ mOrder[position] ] > minX )
+            {
+                mOrder[ position + 1 ] = mOrder[position];
+                position--;
+            }
+            mOrder[ position + 1 ] = id;
+        }
+    }
+    
+    private void grow( int capacity )
+    {
+        mMinX = Arrays.copyOf( mMinX, capacity );
+        mMinY = Arrays.copyOf( mMinY, capacity );
+        mMaxX = Arrays.copyOf( mMaxX, capacity );
+        mMaxY = Arrays.copyOf( mMaxY, capacity );
+        mOrder = Arrays.copyOf( mOrder, capacity );
+    }
+}
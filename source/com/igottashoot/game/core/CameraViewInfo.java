@@ -34,6 +34,21 @@ public class CameraViewInfo extends BaseObject
         mCameraWorldBottom = cameraViewInfo.mCameraWorldBottom;
     }
 
+    /**
+     * Blends two views the way sprite positions are blended between steps, so
+     * the view moves as smoothly as they do. The size is the current one's.
+     */
+    public void interpolate( CameraViewInfo previous, CameraViewInfo current, float alpha )
+    {
+        final int width = current.getWidth();
+        final int height = current.getHeight();
+        
+        mCameraWorldLeft = (int) ( previous.mCameraWorldLeft + ( current.mCameraWorldLeft - previous.mCameraWorldLeft ) * alpha );
+        mCameraWorldBottom = (int) ( previous.mCameraWorldBottom + ( current.mCameraWorldBottom - previous.mCameraWorldBottom ) * alpha );
+        mCameraWorldRight = mCameraWorldLeft + width;
+        mCameraWorldTop = mCameraWorldBottom + height;
+    }
+
     public int getWidth()
     {
         return ( mCameraWorldRight - mCameraWorldLeft );
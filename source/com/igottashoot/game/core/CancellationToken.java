@@ -0,0 +1,28 @@
+package com.igottashoot.game.core;
+
+import com.igottashoot.game.primitives.BaseObject;
+
+/**
+ * Shared between whoever schedules work and the thread doing it. Cancelling
+ * is only a request, long running work is expected to check
+ * {@link #isCancelled()} every so often and bail out.
+ */
+public class CancellationToken extends BaseObject
+{
+    private volatile boolean mIsCancelled;
+    
+    public CancellationToken()
+    {
+        mIsCancelled = false;
+    }
+    
+    public void cancel()
+    {
+        mIsCancelled = true;
+    }
+    
+    public boolean isCancelled()
+    {
+        return mIsCancelled;
+    }
+}
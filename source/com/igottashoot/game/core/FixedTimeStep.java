@@ -0,0 +1,113 @@
+package com.igottashoot.game.core;
+
+import com.igottashoot.game.primitives.BaseObject;
+
+/**
+ * Turns the variable amount of real time that passes between two game frames
+ * into a whole number of fixed size simulation steps. Whatever is left over is
+ * kept in an accumulator and carried into the next frame, and its fraction of
+ * a step is the interpolation alpha handed to the renderer.
+ *
+ * If the game falls too far behind (a slow frame, a debugger break, a level
+ * load) only {@link #getMaxCatchUpSteps()} steps are run and the rest of the
+ * backlog is dropped, so a slow frame can't make the next one even slower.
+ */
+public class FixedTimeStep extends BaseObject
+{
+    private final int mTicksPerSecond;
+    private final int mMaxCatchUpSteps;
+    private final float mStepDelta;
+
+    private float mAccumulator;
+    private float mInterpolationAlpha;
+    private long mDroppedStepCount;
+
+    public FixedTimeStep( int ticksPerSecond, int maxCatchUpSteps )
+    {
+        if ( ticksPerSecond <= 0 )
+            throw new IllegalArgumentException( "ticksPerSecond must be positive" );
+
+        if ( maxCatchUpSteps <= 0 )
+            throw new IllegalArgumentException( "maxCatchUpSteps must be positive" );
+
+        mTicksPerSecond = ticksPerSecond;
+        mMaxCatchUpSteps = maxCatchUpSteps;
+        mStepDelta = 1.0f / ticksPerSecond;
+
+        reset();
+    }
+
+    @Override
+    public void reset()
+    {
+        mAccumulator = 0f;
+        mInterpolationAlpha = 0f;
+        mDroppedStepCount = 0;
+    }
+
+    /**
+     * Adds the elapsed real time to the accumulator.
+     *
+     * @param elapsedSeconds
+     *            The real time since the last call (in seconds).
+     * @return the number of simulation steps of {@link #getStepDelta()} that
+     *         should be run this frame.
+     */
+    public int advance( float elapsedSeconds )
+    {
+        if ( elapsedSeconds > 0f )
+            mAccumulator += elapsedSeconds;
+
+        int steps = (int) ( mAccumulator / mStepDelta );
+        mAccumulator -= steps * mStepDelta;
+
+        // Guard against the float subtraction landing a hair outside [0, step)
+        if ( mAccumulator < 0f )
+            mAccumulator = 0f;
+        else if ( mAccumulator >= mStepDelta )
+        {
+            mAccumulator -= mStepDelta;
+            steps++;
+        }
+
+        if ( steps > mMaxCatchUpSteps )
+        {
+            mDroppedStepCount += steps - mMaxCatchUpSteps;
+            steps = mMaxCatchUpSteps;
+        }
+
+        mInterpolationAlpha = mAccumulator / mStepDelta;
+        return steps;
+    }
+
+    /** The duration of a single simulation step (in seconds). */
+    public float getStepDelta()
+    {
+        return mStepDelta;
+    }
+
+    public int getTicksPerSecond()
+    {
+        return mTicksPerSecond;
+    }
+
+    public int getMaxCatchUpSteps()
+    {
+        return mMaxCatchUpSteps;
+    }
+
+    /**
+     * How far (0 <= alpha < 1) real time has moved past the last simulated
+     * step, towards the next one.
+     */
+    public float getInterpolationAlpha()
+    {
+        return mInterpolationAlpha;
+    }
+
+    /** The number of steps thrown away by the max-catch-up-steps policy. */
+    public long getDroppedStepCount()
+    {
+        return mDroppedStepCount;
+    }
+}
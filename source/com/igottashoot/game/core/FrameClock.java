@@ -0,0 +1,51 @@
+package com.igottashoot.game.core;
+
+import com.igottashoot.game.primitives.BaseObject;
+import com.igottashoot.game.utilities.GameUtilities;
+
+/**
+ * The single source of frame deadlines for every thread that wants to run once
+ * per frame. Deadlines are fixed points on the {@link System#nanoTime()}
+ * time line ( origin + n * period ), so two threads that pace themselves off
+ * the same clock wake up for the same frames and can't drift apart.
+ * 
+ * Each thread gets its own {@link FramePacer} through {@link #newPacer()}.
+ */
+public class FrameClock extends BaseObject
+{
+    private final long mOriginInNanos;
+    private final long mFramePeriodInNanos;
+    
+    public FrameClock( int framesPerSecond )
+    {
+        if ( framesPerSecond <= 0 )
+            throw new IllegalArgumentException( "framesPerSecond must be positive" );
+        
+        mOriginInNanos = GameUtilities.getCurrentTimeInNanos();
+        mFramePeriodInNanos = 1000000000L / framesPerSecond;
+    }
+    
+    public FramePacer newPacer()
+    {
+        return new FramePacer( this );
+    }
+    
+    public long getFramePeriodInNanos()
+    {
+        return mFramePeriodInNanos;
+    }
+    
+    /**
+     * @return the index of the latest frame deadline at or before the given
+     *         time.
+     */
+    public long getFrameIndex( long timeInNanos )
+    {
+        return ( timeInNanos - mOriginInNanos ) / mFramePeriodInNanos;
+    }
+    
+    public long getDeadline( long frameIndex )
+    {
+        return mOriginInNanos + frameIndex * mFramePeriodInNanos;
+    }
+}
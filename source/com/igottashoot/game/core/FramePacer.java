@@ -0,0 +1,95 @@
+package com.igottashoot.game.core;
+
+import java.util.concurrent.locks.LockSupport;
+
+import com.igottashoot.game.primitives.BaseObject;
+import com.igottashoot.game.utilities.GameUtilities;
+
+/**
+ * Blocks a single thread until the next deadline of a {@link FrameClock}.
+ * 
+ * Thread.sleep() only has millisecond granularity and usually oversleeps by a
+ * millisecond or two, which is a big chunk of a 16ms frame. Instead we park for
+ * most of the wait and spin (yielding) for the last {@link #SPIN_THRESHOLD_IN_NANOS}
+ * so we wake up right on the deadline.
+ * 
+ * Not thread safe, every thread should have its own pacer. The counts can be
+ * read from any thread.
+ */
+public class FramePacer extends BaseObject
+{
+    private static final long SPIN_THRESHOLD_IN_NANOS = 1500000L;
+    
+    private final FrameClock mClock;
+    
+    private long mFrameIndex;
+    private volatile long mFrameCount;
+    private volatile long mMissedDeadlineCount;
+    
+    FramePacer( FrameClock clock )
+    {
+        mClock = clock;
+        reset();
+    }
+    
+    @Override
+    public void reset()
+    {
+        mFrameIndex = mClock.getFrameIndex( GameUtilities.getCurrentTimeInNanos() );
+        mFrameCount = 0;
+        mMissedDeadlineCount = 0;
+    }
+    
+    /**
+     * Waits for the deadline following the last frame. If that deadline has
+     * already passed, the frame is late: we don't wait at all, count every
+     * deadline we slipped past as missed, and line up with the clock again.
+     * 
+     * @return the deadline of the frame that is about to start.
+     */
+    public long awaitNextFrame()
+    {
+        final long nextFrameIndex = mFrameIndex + 1;
+        final long deadline = mClock.getDeadline( nextFrameIndex );
+        long now = GameUtilities.getCurrentTimeInNanos();
+        
+        mFrameCount++;
+        
+        if ( now >= deadline )
+        {
+            final long currentFrameIndex = mClock.getFrameIndex( now );
+            mMissedDeadlineCount += currentFrameIndex - mFrameIndex;
+            mFrameIndex = currentFrameIndex;
+            return mClock.getDeadline( currentFrameIndex );
+        }
+        
+        long remaining = deadline - now;
+        while ( remaining > SPIN_THRESHOLD_IN_NANOS )
+        {
+            LockSupport.parkNanos( remaining - SPIN_THRESHOLD_IN_NANOS );
+            remaining = deadline - GameUtilities.getCurrentTimeInNanos();
+        }
+        
+        while ( GameUtilities.getCurrentTimeInNanos() < deadline )
+            Thread.yield();
+        
+        mFrameIndex = nextFrameIndex;
+        return deadline;
+    }
+    
+    public FrameClock getClock()
+    {
+        return mClock;
+    }
+    
+    public long getFrameCount()
+    {
+        return mFrameCount;
+    }
+    
+    /** The number of frame deadlines this thread did not make. */
+    public long getMissedDeadlineCount()
+    {
+        return mMissedDeadlineCount;
+    }
+}
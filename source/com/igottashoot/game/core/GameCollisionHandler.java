@@ -1,9 +1,12 @@
 package com.igottashoot.game.core;
 
 import com.igottashoot.game.collision.BoundingVolume;
+import com.igottashoot.game.collision.Broadphase;
 import com.igottashoot.game.collision.CollisionData;
 import com.igottashoot.game.collision.CollisionDetection;
 import com.igottashoot.game.collision.CollisionHandler;
+import com.igottashoot.game.collision.CollisionPairs;
+import com.igottashoot.game.collision.SweepAndPrune;
 import com.igottashoot.game.core.MainLoop.MainLoopOrder;
 import com.igottashoot.game.managers.GameObject;
 import com.igottashoot.game.primitives.BaseObject;
@@ -15,11 +18,20 @@ public class GameCollisionHandler extends BaseObject implements OrderedUpdateabl
 {
     private final CollisionVolumeRecordPool mRecordPool;
     private final FixedSizeArray<CollisionVolumeRecord> mSortedRecordObjects;
+    private final Broadphase mBroadphase;
+    private final CollisionPairs mCandidatePairs;
     
     public GameCollisionHandler( int maxSize )
+    {
+        this( maxSize, new SweepAndPrune( maxSize ) );
+    }
+    
+    public GameCollisionHandler( int maxSize, Broadphase broadphase )
     {
         mRecordPool = new CollisionVolumeRecordPool( maxSize );
         mSortedRecordObjects = FixedSizeArray.newArray( maxSize );
+        mBroadphase = broadphase;
+        mCandidatePairs = new CollisionPairs( maxSize * 2 );
     }
     
     @Override
@@ -51,30 +63,40 @@ public class GameCollisionHandler extends BaseObject implements OrderedUpdateabl
         mSortedRecordObjects.add( record );
     }
     
+    /**
+     * The broadphase finds the pairs whose bounds overlap; they're sorted so
+     * the handlers run in the same order the old nested loop called them,
+     * and only then is the narrowphase run on them.
+     */
     @Override
     public void update( float timeDelta, SystemRegistry parent )
     {
-//        mSortedRecordObjects.sort( false );
+        final int count = mSortedRecordObjects.getCount();
         
-        for ( int index = 0; index < mSortedRecordObjects.getCount(); index++ )
+        mBroadphase.clear();
+        for ( int index = 0; index < count; index++ )
+            mBroadphase.add( index, mSortedRecordObjects.get( index ).getBoundingVolume() );
+        
+        mCandidatePairs.reset();
+        mBroadphase.findPairs( mCandidatePairs );
+        mCandidatePairs.sort();
+        
+        final int pairCount = mCandidatePairs.getCount();
+        for ( int pair = 0; pair < pairCount; pair++ )
         {
-            CollisionVolumeRecord collisionRecord = mSortedRecordObjects.get( index );
+            CollisionVolumeRecord collisionRecord = mSortedRecordObjects.get( mCandidatePairs.getFirst( pair ) );
+            CollisionVolumeRecord compareRecord = mSortedRecordObjects.get( mCandidatePairs.getSecond( pair ) );
+            
+            CollisionData collision = CollisionDetection.intersection( collisionRecord.getBoundingVolume(),
+                                                                       compareRecord.getBoundingVolume() );
+            
+            if ( collision == null )
+                continue;
             
-            for ( int secondIndex = index + 1; secondIndex < mSortedRecordObjects.getCount(); secondIndex++ )
-            {
-                CollisionVolumeRecord compareRecord = mSortedRecordObjects.get( secondIndex );
-                
-                CollisionData collision = CollisionDetection.intersection( collisionRecord.getBoundingVolume(),
-                                                                           compareRecord.getBoundingVolume() );
-                
-                if ( collision == null )
-                    continue;
-                
-                if ( collisionRecord.getCollisionHandler() != null )
-                    collisionRecord.getCollisionHandler().handleCollisionWith( collisionRecord.getObject(), compareRecord.getObject(), collision );
-//                if ( compareRecord.getCollisionHandler() != null )
-//                    compareRecord.getCollisionHandler().handleCollisionFrom( compareRecord.getObject(), collisionRecord.getObject(), collision );
-            }
+            if ( collisionRecord.getCollisionHandler() != null )
+                collisionRecord.getCollisionHandler().handleCollisionWith( collisionRecord.getObject(), compareRecord.getObject(), collision );
+//            if ( compareRecord.getCollisionHandler() != null )
+//                compareRecord.getCollisionHandler().handleCollisionFrom( compareRecord.getObject(), collisionRecord.getObject(), collision );
         }
         
         reset();
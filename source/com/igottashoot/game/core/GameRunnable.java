@@ -1,107 +1,266 @@
 package com.igottashoot.game.core;
 
-import java.util.concurrent.ConcurrentLinkedQueue;
-
-import com.igottashoot.game.managers.OrderedObjectManager;
+import com.igottashoot.game.core.MessageBus.MessageHandler;
 import com.igottashoot.game.managers.RenderingBufferManager;
 import com.igottashoot.game.primitives.BaseObject;
-import com.igottashoot.game.primitives.RenderElement;
-import com.igottashoot.game.rendering.GameThreadInterface;
+import com.igottashoot.game.utilities.FrameProfiler;
 import com.igottashoot.game.utilities.GameUtilities;
+import com.igottashoot.game.utilities.ProfilerScope;
 
-public class GameRunnable extends BaseObject implements Runnable
+public class GameRunnable extends BaseObject implements Runnable, MessageQueue, MessageHandler
 {
+    private static final float NANOS_TO_SECONDS = 1.0e-9f;
+    private static final int MESSAGE_BUS_CAPACITY = 64;
+    private static final long DEFAULT_MESSAGE_BUDGET_IN_NANOS = 2000000L;
+    
     private final Object mPauseLock;
-    private final FpsTracker mFpsTracker;
-    private final GameThreadInterface mGameRenderer;
+    private final FrameProfiler mProfiler;
+    private final ProfilerScope mMessageScope;
+    private final ProfilerScope mMainLoopScope;
+    private final ProfilerScope mSubmitScope;
     private final MainLoop mLoop;
     private final GameCamera mCamera;
+    // the camera before the last step, for the renderer to blend with
+    private final CameraViewInfo mPreviousCameraViewInfo;
     private final SystemRegistry mRegistry;
     private final RenderingBufferManager mRenderingBufferManager;
-    private final ConcurrentLinkedQueue<Runnable> mMessages;
+    private final MessageBus mMessageBus;
+    private final FixedTimeStep mFixedTimeStep;
+    private final FramePacer mFramePacer;
     
     private boolean mPaused;
     private boolean mFinished;
     private long mLastTime;
+    private volatile long mTickCount;
+    private long mMessageBudgetInNanos;
+    private MessageHandler mMessageHandler;
     
-    public GameRunnable( GameThreadInterface renderer,
-                         MainLoop loop,
+    /**
+     * @param fixedTimeStep
+     *            When non-null, the main loop is always stepped by
+     *            {@link FixedTimeStep#getStepDelta()}. When null, the main
+     *            loop is stepped by the (clamped) real time between frames.
+     * @param frameClock
+     *            The clock the game thread (and the renderer) paces itself
+     *            against. When null the game thread runs uncapped: every
+     *            frame runs exactly one fixed step, as fast as it can, which
+     *            needs a fixedTimeStep.
+     */
+    public GameRunnable( MainLoop loop,
                          GameCamera camera,
                          SystemRegistry registry,
-                         RenderingBufferManager renderingBufferManager )
+                         RenderingBufferManager renderingBufferManager,
+                         FixedTimeStep fixedTimeStep,
+                         FrameClock frameClock )
     {
-        mGameRenderer = renderer;
         mLoop = loop;
         mCamera = camera;
+        mPreviousCameraViewInfo = new CameraViewInfo();
         mRegistry = registry;
         mRenderingBufferManager = renderingBufferManager;
+        mFixedTimeStep = fixedTimeStep;
+        if ( frameClock == null && fixedTimeStep == null )
+            throw new IllegalArgumentException( "Running uncapped needs a fixed time step" );
+        
+        mFramePacer = ( frameClock != null ) ? frameClock.newPacer() : null;
         
-        mMessages = new ConcurrentLinkedQueue<Runnable>();
+        mMessageBus = new MessageBus( MESSAGE_BUS_CAPACITY );
+        mMessageBudgetInNanos = DEFAULT_MESSAGE_BUDGET_IN_NANOS;
+        mMessageHandler = null;
         mPauseLock = new Object();
         mFinished = false;
         mPaused = false;
-        mLastTime = GameUtilities.getCurrentTimeInMillis();
-        mFpsTracker = new FpsTracker( 3000 );
+        mLastTime = GameUtilities.getCurrentTimeInNanos();
+        mTickCount = 0;
+        
+        mProfiler = new FrameProfiler( "Game Thread" );
+        mMessageScope = mProfiler.getRootScope().getChild( "messages" );
+        mMainLoopScope = mProfiler.getRootScope().getChild( "main loop" );
+        mSubmitScope = mProfiler.getRootScope().getChild( "render submit" );
     }
     
+    @Override
     public void addMessage( Runnable event )
     {
-        mMessages.add( event );
+        mMessageBus.post( MessageType.RUN, event );
+    }
+    
+    @Override
+    public boolean offerMessage( Runnable event )
+    {
+        return mMessageBus.offer( MessageType.RUN, event );
+    }
+    
+    /**
+     * Can be called from any thread, waits while the bus is full (unless
+     * called from the game thread).
+     */
+    public void postMessage( MessageType type, Object payload )
+    {
+        mMessageBus.post( type, payload );
+    }
+    
+    /**
+     * Handles every message other than {@link MessageType#RUN}. Must be set
+     * before the game thread is started.
+     */
+    public void setMessageHandler( MessageHandler messageHandler )
+    {
+        mMessageHandler = messageHandler;
+    }
+    
+    /**
+     * How much of each frame can be spent handling messages, 0 to always
+     * handle all of them. 2ms unless set.
+     */
+    public void setMessageBudgetInNanos( long messageBudgetInNanos )
+    {
+        mMessageBudgetInNanos = messageBudgetInNanos;
+    }
+    
+    @Override
+    public void handleMessage( MessageType type, Object payload )
+    {
+        if ( type == MessageType.RUN )
+        {
+            ( (Runnable) payload ).run();
+            return;
+        }
+        
+        if ( mMessageHandler == null )
+            throw new IllegalStateException( "No handler for message " + type );
+        
+        mMessageHandler.handleMessage( type, payload );
     }
     
     @Override
     public void run()
     {
-        mLastTime = GameUtilities.getCurrentTimeInMillis();
+        if ( mFramePacer != null )
+            mFramePacer.reset();
+        
+        mLastTime = GameUtilities.getCurrentTimeInNanos();
         mFinished = false;
 
         while ( ! mFinished )
         {
-            mGameRenderer.waitForDrawingToComplete();
-            
+            mProfiler.beginFrame();
             checkAndHandleMessages();
             
-            final long time = GameUtilities.getCurrentTimeInMillis();
-            final long timeDelta = time - mLastTime;
-            long finalDelta = timeDelta;
+            final long time = GameUtilities.getCurrentTimeInNanos();
             
-            if ( timeDelta > 12 )
-            {
-                float secondsDelta = ( time - mLastTime ) * 0.001f;
-                if ( secondsDelta > 0.1f )
-                    secondsDelta = 0.1f;
-                
-                mLastTime = time;
-                
-                mLoop.update( secondsDelta, mRegistry );
-
-                OrderedObjectManager<RenderElement> renderQueue = mRenderingBufferManager.getCurrentQueue();
-
-                // This code will block if the previous queue is still being executed.
-                mGameRenderer.setDrawQueue( renderQueue, mCamera.getCameraViewInfo() );
-                mRenderingBufferManager.goToNextQueue();
-                
-                final long endTime = GameUtilities.getCurrentTimeInMillis();
-                finalDelta = endTime - time;
-
-                mFpsTracker.printFps( finalDelta );
-            }
+            if ( mFramePacer == null )
+                updateUncappedStep();
+            else if ( mFixedTimeStep != null )
+                updateFixedStep( time );
+            else
+                updateVariableStep( time );
+            
+            mProfiler.endFrame();
+            
+            if ( mFramePacer != null )
+                mFramePacer.awaitNextFrame();
             
-            lockFrameRate( finalDelta );
             checkPauseState();
         }
         
-        mGameRenderer.setDrawQueue( null, null ); 
         mRenderingBufferManager.emptyQueues();
     }
 
-    private void checkAndHandleMessages()
+    private void updateVariableStep( final long time )
     {
-        Runnable event = mMessages.poll();
-        if ( event == null )
+        float secondsDelta = ( time - mLastTime ) * NANOS_TO_SECONDS;
+        if ( secondsDelta > 0.1f )
+            secondsDelta = 0.1f;
+        
+        mLastTime = time;
+        
+        updateMainLoop( secondsDelta );
+        submitDrawQueue( 1.0f );
+    }
+    
+    /**
+     * Runs as many fixed steps as the real time since the last frame allows.
+     * Only the draw commands of the final step are handed to the renderer; the
+     * ones scheduled by earlier steps in the same frame are already stale.
+     * A frame without a step still moves the last frame's alpha on, with
+     * fewer ticks than frames per second that's all the motion there is.
+     */
+    private void updateFixedStep( final long time )
+    {
+        final float secondsDelta = ( time - mLastTime ) * NANOS_TO_SECONDS;
+        mLastTime = time;
+        
+        final int steps = mFixedTimeStep.advance( secondsDelta );
+        if ( steps == 0 )
+        {
+            mRenderingBufferManager.updateInterpolationAlpha( mFixedTimeStep.getInterpolationAlpha() );
             return;
+        }
         
-        event.run();
+        final float stepDelta = mFixedTimeStep.getStepDelta();
+        for ( int step = 0; step < steps; step++ )
+        {
+            if ( step > 0 )
+                mRenderingBufferManager.discardCurrentQueue();
+            
+            updateMainLoop( stepDelta );
+        }
+        
+        submitDrawQueue( mFixedTimeStep.getInterpolationAlpha() );
+    }
+    
+    /**
+     * Simulated time is decoupled from real time, one frame is one step.
+     */
+    private void updateUncappedStep()
+    {
+        updateMainLoop( mFixedTimeStep.getStepDelta() );
+        submitDrawQueue( 1.0f );
+    }
+    
+    private void updateMainLoop( float timeDelta )
+    {
+        mProfiler.begin( mMainLoopScope );
+        mPreviousCameraViewInfo.updateInfo( mCamera.getCameraViewInfo() );
+        mLoop.update( timeDelta, mRegistry );
+        mProfiler.end( mMainLoopScope );
+        
+        mTickCount++;
+    }
+    
+    /** Timings of the game thread, can be queried from any thread. */
+    public FrameProfiler getFrameProfiler()
+    {
+        return mProfiler;
+    }
+    
+    /** The number of frames the game thread did not finish on time. */
+    public long getMissedDeadlineCount()
+    {
+        return ( mFramePacer != null ) ? mFramePacer.getMissedDeadlineCount() : 0;
+    }
+    
+    /** The number of main loop updates run so far. Can be read from any thread. */
+    public long getTickCount()
+    {
+        return mTickCount;
+    }
+    
+    private void submitDrawQueue( float interpolationAlpha )
+    {
+        // Never blocks, if the renderer is still busy with an older frame this
+        // one simply waits in the frame exchange (or replaces another waiting one).
+        mProfiler.begin( mSubmitScope );
+        mRenderingBufferManager.submitCurrentQueue( mCamera.getCameraViewInfo(), mPreviousCameraViewInfo, interpolationAlpha );
+        mProfiler.end( mSubmitScope );
+    }
+
+    private void checkAndHandleMessages()
+    {
+        mProfiler.begin( mMessageScope );
+        mMessageBus.drain( this, mMessageBudgetInNanos );
+        mProfiler.end( mMessageScope );
     }
 
     public void stopGame()
@@ -144,42 +303,4 @@ public class GameRunnable extends BaseObject implements Runnable
             }
         }
     }
-
-    private void lockFrameRate( long finalDelta )
-    {
-        if ( finalDelta < 16 )
-        {
-            try { Thread.sleep( 16 - finalDelta ); } catch ( InterruptedException e ) {}
-        }        
-    }
-    
-    private static final class FpsTracker extends BaseObject
-    {
-        private final int mReportDelayTimeInMillis;
-
-        private long mProfileTime;
-        private int mProfileFrames;
-        
-        public FpsTracker( int reportDelayTime )
-        {
-            mReportDelayTimeInMillis = reportDelayTime;
-            mProfileTime = 0;
-            mProfileFrames = 0;
-        }
-        
-        public void printFps( long finalDelta )
-        {
-            mProfileTime += finalDelta;
-            mProfileFrames++;
-            
-            if ( mProfileTime > mReportDelayTimeInMillis )
-            {
-                final long averageFrameTime = mProfileTime / mProfileFrames;
-                
-                GameUtilities.print( "FpsTracker", 0, "Average: " + averageFrameTime );
-                mProfileTime = 0;
-                mProfileFrames = 0;
-            }
-        }
-    }
 }
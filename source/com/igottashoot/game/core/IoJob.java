@@ -0,0 +1,105 @@
+package com.igottashoot.game.core;
+
+import com.igottashoot.game.primitives.BaseObject;
+
+/**
+ * A unit of work for the {@link IoThread}. {@link #execute(CancellationToken)}
+ * runs on one of the I/O workers, {@link #onComplete()} is then posted back to
+ * the game thread, unless the job was cancelled in the meantime.
+ */
+public abstract class IoJob extends BaseObject
+{
+    public enum IoJobPriority
+    {
+        URGENT( 0 ),        // the game is waiting on this
+        LEVEL_LOAD( 1 ),    // assets the next level can't start without
+        STREAMING( 2 ),     // assets that will be needed soon
+        BACKGROUND( 3 );    // anything else
+        
+        private final int mPriority;
+        IoJobPriority( int priority )
+        {
+            mPriority = priority;
+        }
+        
+        public int getPriority()
+        {
+            return mPriority;
+        }
+    }
+    
+    private final IoJobPriority mPriority;
+    private final CancellationToken mCancellationToken;
+    private final Runnable mCompletion;
+    
+    private long mSequence;
+    private long mSubmitTime;
+    
+    protected IoJob( IoJobPriority priority, CancellationToken cancellationToken )
+    {
+        if ( priority == null )
+            throw new IllegalArgumentException( "An I/O job needs a priority" );
+        
+        mPriority = priority;
+        mCancellationToken = ( cancellationToken == null ) ? new CancellationToken() : cancellationToken;
+        mCompletion = new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                if ( ! isCancelled() )
+                    onComplete();
+            }
+        };
+    }
+    
+    /** Executed on an I/O worker thread. */
+    protected abstract void execute( CancellationToken cancellationToken );
+    
+    /** Executed on the game thread once {@link #execute(CancellationToken)} is done. */
+    protected void onComplete()
+    {
+        
+    }
+    
+    public IoJobPriority getPriority()
+    {
+        return mPriority;
+    }
+    
+    public CancellationToken getCancellationToken()
+    {
+        return mCancellationToken;
+    }
+    
+    public void cancel()
+    {
+        mCancellationToken.cancel();
+    }
+    
+    public boolean isCancelled()
+    {
+        return mCancellationToken.isCancelled();
+    }
+    
+    Runnable getCompletion()
+    {
+        return mCompletion;
+    }
+    
+    long getSequence()
+    {
+        return mSequence;
+    }
+    
+    long getSubmitTime()
+    {
+        return mSubmitTime;
+    }
+    
+    void setSubmitted( long sequence, long submitTime )
+    {
+        mSequence = sequence;
+        mSubmitTime = submitTime;
+    }
+}
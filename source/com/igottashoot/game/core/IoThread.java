@@ -1,62 +1,235 @@
 package com.igottashoot.game.core;
 
-import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.Comparator;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
 
 import com.igottashoot.game.primitives.BaseObject;
+import com.igottashoot.game.utilities.GameUtilities;
 
+/**
+ * A small pool of asset I/O workers. Jobs are taken highest priority first
+ * (oldest first within a priority) and the workers block while there is
+ * nothing to do, so a job starts as soon as it is submitted.
+ */
 public class IoThread extends BaseObject
 {
-    private final ConcurrentLinkedQueue<Runnable> mMessages;
-    private final Thread mRunner;
+    private static final int INITIAL_QUEUE_CAPACITY = 16;
+    private static final long MIN_COMPLETION_BACKOFF_IN_MILLIS = 1;
+    private static final long MAX_COMPLETION_BACKOFF_IN_MILLIS = 16;
+    
+    private final PriorityBlockingQueue<IoJob> mJobs;
+    private final Thread[] mWorkers;
+    private final MessageQueue mCompletionQueue;
+    
+    private final AtomicLong mNextSequence;
+    private final AtomicLong mCompletedJobCount;
+    private final AtomicLong mCancelledJobCount;
+    private final AtomicLong mTotalLatency;
+    private final AtomicLong mMaxLatency;
+    
     private boolean mIsRunning;
     
-    public IoThread()
+    /**
+     * @param workerCount
+     *            The number of threads jobs are run on.
+     * @param completionQueue
+     *            Where {@link IoJob#onComplete()} is run, normally the game
+     *            thread.
+     */
+    public IoThread( int workerCount, MessageQueue completionQueue )
     {
-        mMessages = new ConcurrentLinkedQueue<Runnable>();
-        mRunner = new Thread( new Runner() );
-        mRunner.setName( "Asset I/O Thread" );
+        if ( workerCount <= 0 )
+            throw new IllegalArgumentException( "workerCount must be positive" );
+        
+        mCompletionQueue = completionQueue;
+        mJobs = new PriorityBlockingQueue<IoJob>( INITIAL_QUEUE_CAPACITY, new IoJobComparator() );
+        
+        // started, and created again after a stop, by the next submit
+        mWorkers = new Thread[ workerCount ];
+        
+        mNextSequence = new AtomicLong();
+        mCompletedJobCount = new AtomicLong();
+        mCancelledJobCount = new AtomicLong();
+        mTotalLatency = new AtomicLong();
+        mMaxLatency = new AtomicLong();
         mIsRunning = false;
     }
     
-    public void addMessage( Runnable runnable )
+    /** Can be called from any thread. */
+    public void submit( IoJob job )
     {
-        mMessages.add( runnable );
+        job.setSubmitted( mNextSequence.getAndIncrement(), GameUtilities.getCurrentTimeInNanos() );
+        mJobs.add( job );
         
-        if ( mIsRunning == false )
+        startWorkers();
+    }
+    
+    /**
+     * Lets the workers go once they finish their current job. Jobs still
+     * waiting stay queued: the next {@link #submit(IoJob)} starts a fresh set
+     * of workers, which picks them up.
+     */
+    public void stop()
+    {
+        synchronized ( this )
         {
-            mRunner.start();
-            mIsRunning = true;
+            if ( ! mIsRunning )
+                return;
+            
+            mIsRunning = false;
+            for ( Thread worker : mWorkers )
+                worker.interrupt();
         }
     }
     
-    private final class Runner extends BaseObject implements Runnable
+    public int getWorkerCount()
     {
-        @Override
-        public void run()
+        return mWorkers.length;
+    }
+    
+    /** The number of jobs waiting for a worker. */
+    public int getQueueDepth()
+    {
+        return mJobs.size();
+    }
+    
+    public long getCompletedJobCount()
+    {
+        return mCompletedJobCount.get();
+    }
+    
+    public long getCancelledJobCount()
+    {
+        return mCancelledJobCount.get();
+    }
+    
+    /** Average time from submission to the end of execution. */
+    public long getAverageJobLatencyInNanos()
+    {
+        final long completed = mCompletedJobCount.get();
+        return ( completed == 0 ) ? 0 : mTotalLatency.get() / completed;
+    }
+    
+    public long getMaxJobLatencyInNanos()
+    {
+        return mMaxLatency.get();
+    }
+    
+    private synchronized void startWorkers()
+    {
+        if ( mIsRunning )
+            return;
+        
+        for ( int index = 0; index < mWorkers.length; index++ )
         {
-            while ( true )
-            {
-                Runnable runnable = mMessages.poll();
-                while ( runnable == null)
-                {
-                    runnable = mMessages.poll();
-                    sleep( 1000 );
-                }
-
-                runnable.run();
-            }
+            mWorkers[index] = new Thread( new Runner() );
+            mWorkers[index].setName( "Asset I/O Thread " + index );
+            mWorkers[index].setDaemon( true );
+            mWorkers[index].start();
+        }
+        
+        mIsRunning = true;
+    }
+    
+    private void execute( IoJob job )
+    {
+        if ( job.isCancelled() )
+        {
+            mCancelledJobCount.incrementAndGet();
+            return;
+        }
+        
+        try
+        {
+            job.execute( job.getCancellationToken() );
+        }
+        catch ( RuntimeException e )
+        {
+            e.printStackTrace();
+            return;
+        }
+        
+        if ( job.isCancelled() )
+        {
+            mCancelledJobCount.incrementAndGet();
+            return;
         }
         
-        private void sleep( long millis )
+        recordLatency( GameUtilities.getCurrentTimeInNanos() - job.getSubmitTime() );
+        
+        if ( mCompletionQueue != null )
+            postCompletion( job );
+    }
+    
+    /**
+     * Waits for room while the completion queue is full, backing off a little
+     * more every time, rather than losing the completion or the worker.
+     */
+    private void postCompletion( IoJob job )
+    {
+        long backoff = MIN_COMPLETION_BACKOFF_IN_MILLIS;
+        while ( ! mCompletionQueue.offerMessage( job.getCompletion() ) )
         {
             try
             {
-                Thread.sleep( millis );
+                Thread.sleep( backoff );
             }
-            catch ( InterruptedException ignore )
+            catch ( InterruptedException e )
             {
+                GameUtilities.print( "IoThread", 0, "Stopped before a job's completion could be posted" );
+                Thread.currentThread().interrupt();
+                return;
+            }
+            
+            backoff = Math.min( backoff * 2, MAX_COMPLETION_BACKOFF_IN_MILLIS );
+        }
+    }
+    
+    private void recordLatency( long latency )
+    {
+        mCompletedJobCount.incrementAndGet();
+        mTotalLatency.addAndGet( latency );
+        
+        long max = mMaxLatency.get();
+        while ( latency > max && ! mMaxLatency.compareAndSet( max, latency ) )
+            max = mMaxLatency.get();
+    }
+    
+    private final class Runner extends BaseObject implements Runnable
+    {
+        @Override
+        public void run()
+        {
+            while ( ! Thread.currentThread().isInterrupted() )
+            {
+                final IoJob job;
+                try
+                {
+                    job = mJobs.take();
+                }
+                catch ( InterruptedException e )
+                {
+                    return;
+                }
                 
+                execute( job );
             }
         }
     }
+    
+    private static final class IoJobComparator implements Comparator<IoJob>
+    {
+        @Override
+        public int compare( IoJob job1, IoJob job2 )
+        {
+            final int result = job1.getPriority().getPriority() - job2.getPriority().getPriority();
+            if ( result != 0 )
+                return result;
+            
+            final long sequence1 = job1.getSequence();
+            final long sequence2 = job2.getSequence();
+            return ( sequence1 < sequence2 ) ? -1 : ( ( sequence1 == sequence2 ) ? 0 : 1 );
+        }
+    }
 }
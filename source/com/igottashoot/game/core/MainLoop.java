@@ -4,6 +4,9 @@ import com.igottashoot.game.managers.OrderedUpdateableObjectManager;
 import com.igottashoot.game.primitives.BaseObject;
 import com.igottashoot.game.primitives.OrderedUpdateableObject;
 import com.igottashoot.game.primitives.UpdateableObject;
+import com.igottashoot.game.utilities.FixedSizeArray;
+import com.igottashoot.game.utilities.FrameProfiler;
+import com.igottashoot.game.utilities.ProfilerScope;
 
 public class MainLoop extends BaseObject implements UpdateableObject<SystemRegistry>
 {
@@ -40,7 +43,43 @@ public class MainLoop extends BaseObject implements UpdateableObject<SystemRegis
     {
         mTimeSystem.update( timeDelta, parent );
         final float frameDelta = mTimeSystem.getGameFrameDelta();
-        mObjectManager.update( frameDelta, parent );
+        
+        final FrameProfiler profiler = parent.getFrameProfiler();
+        if ( profiler == null || ! profiler.isEnabled() )
+        {
+            mObjectManager.update( frameDelta, parent );
+            return;
+        }
+        
+        // Same as the manager's update, but every system is timed on its own
+        mObjectManager.commitUpdates();
+        final ProfilerScope loopScope = profiler.getCurrentScope();
+        final FixedSizeArray<OrderedUpdateableObject<SystemRegistry>> objects = mObjectManager.getObjects();
+        final int count = objects.getCount();
+        for ( int index = 0; index < count; index++ )
+        {
+            final OrderedUpdateableObject<SystemRegistry> object = objects.get( index );
+            final int priority = object.getPriority();
+            
+            ProfilerScope scope = loopScope.findChild( priority );
+            if ( scope == null )
+                scope = loopScope.addChild( priority, getSystemName( priority ) );
+            
+            profiler.begin( scope );
+            object.update( frameDelta, parent );
+            profiler.end( scope );
+        }
+    }
+    
+    private static String getSystemName( int priority )
+    {
+        for ( MainLoopOrder order : MainLoopOrder.values() )
+        {
+            if ( order.getPriority() == priority )
+                return order.name();
+        }
+        
+        return "priority " + priority;
     }
     
     public void addUpdateableObject( OrderedUpdateableObject<SystemRegistry> object )
@@ -0,0 +1,203 @@
+package com.igottashoot.game.core;
+
+import java.util.LinkedList;
+import java.util.Queue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import com.igottashoot.game.primitives.BaseObject;
+import com.igottashoot.game.utilities.GameUtilities;
+
+/**
+ * A bounded ring buffer of typed messages. Any number of threads can post, a
+ * single thread (the owner) drains. Nothing is allocated per message, the type
+ * and payload are written into preallocated slots.
+ * 
+ * Each slot carries a sequence number: a producer may only write a slot whose
+ * sequence equals the position it claimed, and the consumer may only read it
+ * once the producer has moved the sequence one past that position.
+ * 
+ * A full bus never fails a {@link #post(MessageType, Object)}: other threads
+ * wait for room, and the owner, which can't wait for itself, puts its message
+ * aside until the next drain.
+ */
+public class MessageBus extends BaseObject
+{
+    private static final long MIN_BACKOFF_IN_MILLIS = 1;
+    private static final long MAX_BACKOFF_IN_MILLIS = 16;
+    
+    public interface MessageHandler
+    {
+        /** Called on the thread draining the bus. */
+        void handleMessage( MessageType type, Object payload );
+    }
+    
+    private final int mCapacity;
+    private final int mMask;
+    private final MessageType[] mTypes;
+    private final Object[] mPayloads;
+    private final AtomicLongArray mSequences;
+    private final AtomicLong mTail;
+    
+    private long mHead;
+    
+    // the draining thread, and what it posted while the bus was full
+    private volatile Thread mOwner;
+    private final Queue<Object> mOverflow;
+    
+    /**
+     * @param capacity
+     *            Rounded up to the next power of two.
+     */
+    public MessageBus( int capacity )
+    {
+        if ( capacity <= 0 )
+            throw new IllegalArgumentException( "capacity must be positive" );
+        
+        int size = 1;
+        while ( size < capacity )
+            size <<= 1;
+        
+        mCapacity = size;
+        mMask = size - 1;
+        mTypes = new MessageType[ size ];
+        mPayloads = new Object[ size ];
+        mSequences = new AtomicLongArray( size );
+        for ( int index = 0; index < size; index++ )
+            mSequences.set( index, index );
+        
+        mTail = new AtomicLong();
+        mHead = 0;
+        mOwner = null;
+        mOverflow = new LinkedList<Object>();
+    }
+    
+    public int getCapacity()
+    {
+        return mCapacity;
+    }
+    
+    /**
+     * Can be called from any thread.
+     * 
+     * @return false if the bus is full
+     */
+    public boolean offer( MessageType type, Object payload )
+    {
+        if ( type == null )
+            throw new IllegalArgumentException( "Can't post a message without a type" );
+        
+        long position;
+        int index;
+        while ( true )
+        {
+            position = mTail.get();
+            index = (int) position & mMask;
+            
+            final long difference = mSequences.get( index ) - position;
+            if ( difference == 0 )
+            {
+                if ( mTail.compareAndSet( position, position + 1 ) )
+                    break;
+            }
+            else if ( difference < 0 )
+            {
+                // the consumer hasn't freed this slot yet
+                return false;
+            }
+        }
+        
+        mTypes[index] = type;
+        mPayloads[index] = payload;
+        mSequences.set( index, position + 1 );
+        return true;
+    }
+    
+    /**
+     * Same as {@link #offer(MessageType, Object)}, but while the bus is full
+     * it waits for room, backing off a little more every time. The owner
+     * doesn't wait, its message is handled after the ones on the bus at the
+     * next drain.
+     * 
+     * @return false if the thread was interrupted while waiting, the message
+     *         wasn't posted (and the thread is still interrupted).
+     */
+    public boolean post( MessageType type, Object payload )
+    {
+        long backoff = MIN_BACKOFF_IN_MILLIS;
+        while ( ! offer( type, payload ) )
+        {
+            if ( Thread.currentThread() == mOwner )
+            {
+                mOverflow.add( type );
+                mOverflow.add( payload );
+                return true;
+            }
+            
+            try
+            {
+                Thread.sleep( backoff );
+            }
+            catch ( InterruptedException e )
+            {
+                GameUtilities.print( "MessageBus", 0, "Interrupted while waiting to post " + type );
+                Thread.currentThread().interrupt();
+                return false;
+            }
+            
+            backoff = Math.min( backoff * 2, MAX_BACKOFF_IN_MILLIS );
+        }
+        
+        return true;
+    }
+    
+    /**
+     * Hands pending messages to the handler, in the order they were posted,
+     * until the bus is empty or the time budget is spent. At least one
+     * message is handled if any is pending. Must only be called from the
+     * owning thread.
+     * 
+     * @param budgetInNanos
+     *            How long to keep draining, 0 or less to drain everything.
+     * @return the number of messages handled
+     */
+    public int drain( MessageHandler handler, long budgetInNanos )
+    {
+        final long start = ( budgetInNanos > 0 ) ? GameUtilities.getCurrentTimeInNanos() : 0;
+        int count = 0;
+        mOwner = Thread.currentThread();
+        
+        while ( true )
+        {
+            final int index = (int) mHead & mMask;
+            MessageType type;
+            Object payload;
+            if ( mSequences.get( index ) == mHead + 1 )
+            {
+                type = mTypes[index];
+                payload = mPayloads[index];
+                mTypes[index] = null;
+                mPayloads[index] = null;
+                mSequences.set( index, mHead + mCapacity );
+                mHead++;
+            }
+            else if ( ! mOverflow.isEmpty() )
+            {
+                type = (MessageType) mOverflow.poll();
+                payload = mOverflow.poll();
+            }
+            else
+            {
+                break;
+            }
+            
+            handler.handleMessage( type, payload );
+            count++;
+            
+            if ( budgetInNanos > 0 && GameUtilities.getCurrentTimeInNanos() - start >= budgetInNanos )
+                break;
+        }
+        
+        return count;
+    }
+}
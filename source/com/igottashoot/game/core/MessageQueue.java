@@ -0,0 +1,20 @@
+package com.igottashoot.game.core;
+
+/**
+ * Something that runs messages on its own thread, e.g. the game thread.
+ */
+public interface MessageQueue
+{
+    /**
+     * Can be called from any thread, waits while the queue is full (unless
+     * called from the queue's own thread).
+     */
+    void addMessage( Runnable message );
+    
+    /**
+     * Can be called from any thread.
+     * 
+     * @return false if the queue is full, the message wasn't added
+     */
+    boolean offerMessage( Runnable message );
+}
@@ -0,0 +1,12 @@
+package com.igottashoot.game.core;
+
+/**
+ * The commands that can be sent through a {@link MessageBus}, and what their
+ * payload is expected to be.
+ */
+public enum MessageType
+{
+    RUN,            // payload: Runnable
+    LOAD_LEVEL,     // payload: GameEvent
+    LOAD_TEXTURES   // payload: TextureLoader
+}
@@ -1,16 +1,20 @@
 package com.igottashoot.game.core;
 
 import com.igottashoot.game.input.TouchScreenLocation;
-import com.igottashoot.game.primitives.RenderElement;
+import com.igottashoot.game.primitives.DrawableObject;
 import com.igottashoot.game.rendering.RendererInfo;
+import com.igottashoot.game.rendering.ViewCuller;
+import com.igottashoot.game.utilities.FrameProfiler;
 
 public interface SystemRegistry
 {
-    void scheduleForDraw( RenderElement element );
-    RenderElement allocateRenderElement();
+    void scheduleForDraw( DrawableObject drawable, long sortKey );
+    void markCachedLayersDirty();
     TimeSystem getTimeSystem();
     RendererInfo getRenderInfo();
+    ViewCuller getViewCuller();
     TouchScreenLocation getTouchScreenLocation();
     void load( GameEvent event );
     GameCollisionHandler getCollisionHandler();
+    FrameProfiler getFrameProfiler();
 }
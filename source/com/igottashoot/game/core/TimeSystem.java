@@ -5,8 +5,10 @@ import com.igottashoot.game.primitives.UpdateableObject;
 
 public class TimeSystem extends BaseObject  implements UpdateableObject<SystemRegistry>
 {
-    private float mGameTime;
-    private float mRealTime;
+    // Kept in double precision: summing thousands of small float deltas drifts
+    // away from the frame clock within minutes.
+    private double mGameTime;
+    private double mRealTime;
     private float mGameFrameDelta;
     
     public TimeSystem()
@@ -17,9 +19,9 @@ public class TimeSystem extends BaseObject  implements UpdateableObject<SystemRe
     @Override
     public void reset()
     {
-        mGameTime = 0f;
+        mGameTime = 0.0;
         mGameFrameDelta = 0f;
-        mRealTime = 0f;
+        mRealTime = 0.0;
     }
     
     @Override
@@ -39,6 +41,6 @@ public class TimeSystem extends BaseObject  implements UpdateableObject<SystemRe
     
     public float getGameTime()
     {
-        return mGameTime;
+        return (float) mGameTime;
     }
 }
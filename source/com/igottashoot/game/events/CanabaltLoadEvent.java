@@ -15,6 +15,7 @@ import com.igottashoot.game.properties.SpriteProperty;
 import com.igottashoot.game.properties.RenderingProperty.RenderPropertyPriority;
 import com.igottashoot.game.rendering.DrawableBitmapAnimationResolver;
 import com.igottashoot.game.rendering.DrawableTiledBitmap;
+import com.igottashoot.game.rendering.TileSheet;
 import com.opengl.test.core.LevelLoader;
 import com.opengl.test.core.Resources;
 
@@ -78,7 +79,8 @@ public class CanabaltLoadEvent extends BaseObject implements GameEvent
             stumbleAnimation.addAnimation( new AnimationFrame( frameIndex, 1f / 14f, playerCollisionVolume ) );
         stumbleAnimation.setAnimationToLoop( true );
         
-        DrawableBitmapAnimationResolver resolver = new DrawableTiledBitmap( 2, 19 ); 
+        TileSheet playerTiles = levelLoader.getTileSheet( Resources.PLAYER_KEYFRAMES.getId(), 2, 19 );
+        DrawableBitmapAnimationResolver resolver = new DrawableTiledBitmap( playerTiles );
         
         mPlayerSprite = new AnimatedSpriteProperty();
         mPlayerSprite.setRenderingProperty( mPlayerRenderProperty );
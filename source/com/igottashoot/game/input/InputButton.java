@@ -36,6 +36,16 @@ public class InputButton extends BaseObject
         return mXAxis.isPressed() && mYAxis.isPressed();
     }
     
+    public float getX()
+    {
+        return mXAxis.getValue();
+    }
+    
+    public float getY()
+    {
+        return mYAxis.getValue();
+    }
+    
     private static class Button extends BaseObject
     {
         private boolean mIsDown;
@@ -52,6 +62,11 @@ public class InputButton extends BaseObject
         {
             return mIsDown;
         }
+        
+        public float getValue()
+        {
+            return mValue;
+        }
 
         @Override
         public void reset()
@@ -15,9 +15,17 @@ public class InputInterface extends BaseObject implements OrderedUpdateableObjec
     private final InputButton[] mInputButton;
     private final Object mPendingInputLock;
     
+    private InputRecorder mRecorder;
+    
+    // set and cleared under the pending input lock, so a touch event sees
+    // either live input or the replay, never a bit of both
+    private InputReplayer mReplayer;
+    
     public InputInterface( TimeSystem timeSystem )
     {
         mTimeSystem = timeSystem;
+        mRecorder = null;
+        mReplayer = null;
         
         mPendingInputLock = new Object();
         
@@ -31,9 +39,55 @@ public class InputInterface extends BaseObject implements OrderedUpdateableObjec
         }
     }
 
+    public int getInputCount()
+    {
+        return MAX_NUMBER_OF_INPUTS;
+    }
+    
+    /**
+     * Executed on the game thread. Every update from the next one on is
+     * recorded, until the recorder is set to null.
+     */
+    public void setRecorder( InputRecorder recorder )
+    {
+        mRecorder = recorder;
+    }
+    
+    /**
+     * Executed on the game thread. From the next update on, the touch screen
+     * is replaced by the recorded log, until the log ends or the replayer is
+     * set to null.
+     */
+    public void setReplayer( InputReplayer replayer )
+    {
+        if ( replayer != null && replayer.getInputCount() > MAX_NUMBER_OF_INPUTS )
+            throw new IllegalArgumentException( "The log has more inputs than there are buttons" );
+        
+        synchronized ( mPendingInputLock )
+        {
+            mReplayer = replayer;
+        }
+    }
+    
     @Override
     public void update( float timeDelta, SystemRegistry parent )
     {
+        if ( mReplayer != null )
+        {
+            mReplayer.replayTick( this, timeDelta, mTimeSystem.getGameTime() );
+            
+            // the touch screen is back, with nothing left pressed by the log
+            if ( mReplayer.isFinished() )
+            {
+                synchronized ( mPendingInputLock )
+                {
+                    mReplayer = null;
+                    for ( int index = 0; index < MAX_NUMBER_OF_INPUTS; index++ )
+                        mPendingInputButton[index].release();
+                }
+            }
+        }
+        
         // TODO: There's a problem here. What if the game thread takes a long
         // time, and we get a press and release before we enter this code? This
         // means that the game will never have known about a button press. This
@@ -44,6 +98,9 @@ public class InputInterface extends BaseObject implements OrderedUpdateableObjec
             for ( int index = 0; index < MAX_NUMBER_OF_INPUTS; index++ )
                 mInputButton[index].copy( mPendingInputButton[index] );
         }
+        
+        if ( mRecorder != null )
+            mRecorder.recordTick( mInputButton, timeDelta, mTimeSystem.getGameTime() );
     }
 
     @Override
@@ -73,7 +130,8 @@ public class InputInterface extends BaseObject implements OrderedUpdateableObjec
         checkTouchId( id );
         synchronized ( mPendingInputLock )
         {
-            mPendingInputButton[id].press( mTimeSystem.getGameTime(), x, y );
+            if ( mReplayer == null )
+                mPendingInputButton[id].press( mTimeSystem.getGameTime(), x, y );
         }
     }
 
@@ -82,6 +140,25 @@ public class InputInterface extends BaseObject implements OrderedUpdateableObjec
      * to make sure its not being copied while an event is coming in.
      */    
     public void addTouchUpEvent( int id, float x, float y )
+    {
+        checkTouchId( id );
+        synchronized ( mPendingInputLock )
+        {
+            if ( mReplayer == null )
+                mPendingInputButton[id].release();
+        }
+    }
+    
+    void pressPending( int id, float x, float y )
+    {
+        checkTouchId( id );
+        synchronized ( mPendingInputLock )
+        {
+            mPendingInputButton[id].press( mTimeSystem.getGameTime(), x, y );
+        }
+    }
+    
+    void releasePending( int id )
     {
         checkTouchId( id );
         synchronized ( mPendingInputLock )
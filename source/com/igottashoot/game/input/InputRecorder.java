@@ -0,0 +1,166 @@
+package com.igottashoot.game.input;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+import com.igottashoot.game.primitives.BaseObject;
+
+/**
+ * Records what the game saw of the touch screen, one tick at a time, so that
+ * a play session can be fed back through an {@link InputReplayer}.
+ * 
+ * The log is kept in memory while playing (no I/O on the game thread) and
+ * written out with {@link #writeTo(OutputStream)}. Layout, big endian:
+ * 
+ * <pre>
+ * header:     int magic, short version, byte input count, float tick delta
+ * TOUCH_DOWN: byte 1, byte id, float time, float x, float y
+ * TOUCH_UP:   byte 2, byte id, float time
+ * TICK:       byte 3
+ * TICK:       byte 5, float time delta (when it differs from the last tick)
+ * END:        byte 4
+ * </pre>
+ * 
+ * Times are game time since the first recorded tick. A tick that saw no
+ * input change and ran with the same delta as the one before is therefore
+ * written as a single byte.
+ */
+public class InputRecorder extends BaseObject
+{
+    static final int MAGIC = 0x49475349; // IGSI
+    static final short VERSION = 1;
+    
+    static final byte TOUCH_DOWN = 1;
+    static final byte TOUCH_UP = 2;
+    static final byte TICK = 3;
+    static final byte END = 4;
+    static final byte TICK_WITH_DELTA = 5;
+    
+    private static final int INITIAL_BUFFER_SIZE = 64 * 1024;
+    
+    private final ByteArrayOutputStream mBuffer;
+    private final DataOutputStream mOutput;
+    private final InputButton[] mLastState;
+    
+    private float mLastTimeDelta;
+    private float mStartTime;
+    private long mTickCount;
+    private boolean mIsFinished;
+    
+    public InputRecorder( int inputCount, float initialTimeDelta )
+    {
+        mBuffer = new ByteArrayOutputStream( INITIAL_BUFFER_SIZE );
+        mOutput = new DataOutputStream( mBuffer );
+        
+        mLastState = new InputButton[ inputCount ];
+        for ( int index = 0; index < inputCount; index++ )
+            mLastState[index] = new InputButton();
+        
+        mLastTimeDelta = initialTimeDelta;
+        mStartTime = 0f;
+        mTickCount = 0;
+        mIsFinished = false;
+        
+        try
+        {
+            mOutput.writeInt( MAGIC );
+            mOutput.writeShort( VERSION );
+            mOutput.writeByte( inputCount );
+            mOutput.writeFloat( initialTimeDelta );
+        }
+        catch ( IOException e )
+        {
+            throw new IllegalStateException( e );
+        }
+    }
+    
+    /**
+     * Executed on the game thread, once the pending input has been copied
+     * into the state the game sees this tick.
+     */
+    void recordTick( InputButton[] inputs, float timeDelta, float gameTime )
+    {
+        if ( mIsFinished )
+            return;
+        
+        if ( mTickCount == 0 )
+            mStartTime = gameTime;
+        
+        final float time = gameTime - mStartTime;
+        try
+        {
+            for ( int index = 0; index < mLastState.length; index++ )
+            {
+                final InputButton input = inputs[index];
+                final InputButton last = mLastState[index];
+                
+                if ( input.isPressed() )
+                {
+                    if ( ! last.isPressed() || input.getX() != last.getX() || input.getY() != last.getY() )
+                    {
+                        mOutput.writeByte( TOUCH_DOWN );
+                        mOutput.writeByte( index );
+                        mOutput.writeFloat( time );
+                        mOutput.writeFloat( input.getX() );
+                        mOutput.writeFloat( input.getY() );
+                    }
+                }
+                else if ( last.isPressed() )
+                {
+                    mOutput.writeByte( TOUCH_UP );
+                    mOutput.writeByte( index );
+                    mOutput.writeFloat( time );
+                }
+                
+                last.copy( input );
+            }
+            
+            if ( timeDelta != mLastTimeDelta )
+            {
+                mOutput.writeByte( TICK_WITH_DELTA );
+                mOutput.writeFloat( timeDelta );
+                mLastTimeDelta = timeDelta;
+            }
+            else
+            {
+                mOutput.writeByte( TICK );
+            }
+        }
+        catch ( IOException e )
+        {
+            throw new IllegalStateException( e );
+        }
+        
+        mTickCount++;
+    }
+    
+    public long getTickCount()
+    {
+        return mTickCount;
+    }
+    
+    /** The size of the log so far (in bytes). */
+    public int getSize()
+    {
+        return mOutput.size();
+    }
+    
+    /**
+     * Ends the recording and writes the log. Must not be called while the
+     * game thread is still recording.
+     */
+    public void writeTo( OutputStream output ) throws IOException
+    {
+        if ( ! mIsFinished )
+        {
+            mOutput.writeByte( END );
+            mOutput.flush();
+            mIsFinished = true;
+        }
+        
+        mBuffer.writeTo( output );
+        output.flush();
+    }
+}
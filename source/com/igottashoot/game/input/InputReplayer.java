@@ -0,0 +1,160 @@
+package com.igottashoot.game.input;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import com.igottashoot.game.primitives.BaseObject;
+
+/**
+ * Feeds a log written by an {@link InputRecorder} back through the
+ * {@link InputInterface}, one recorded tick per game tick. Live touch events
+ * are ignored while replaying.
+ * 
+ * The whole log is read up front, nothing is read from disk on the game
+ * thread. Whenever the replay doesn't line up with the recording (a different
+ * time delta or time) it is counted as a desync: the run is no longer
+ * the one that was recorded.
+ */
+public class InputReplayer extends BaseObject
+{
+    private static final int READ_BUFFER_SIZE = 4096;
+    
+    // Game time drifts a little differently depending on when the level went
+    // live, anything below this is not a desync.
+    private static final float TIME_TOLERANCE = 0.001f;
+    
+    private final DataInputStream mInput;
+    private final int mInputCount;
+    
+    private float mTimeDelta;
+    private float mStartTime;
+    private long mTickCount;
+    private long mDesyncCount;
+    private volatile boolean mIsFinished;
+    
+    public InputReplayer( InputStream input ) throws IOException
+    {
+        mInput = new DataInputStream( new ByteArrayInputStream( readFully( input ) ) );
+        
+        if ( mInput.readInt() != InputRecorder.MAGIC )
+            throw new IllegalArgumentException( "Not an input log" );
+        
+        final short version = mInput.readShort();
+        if ( version != InputRecorder.VERSION )
+            throw new IllegalArgumentException( "Unsupported input log version " + version );
+        
+        mInputCount = mInput.readByte();
+        mTimeDelta = mInput.readFloat();
+        mStartTime = 0f;
+        mTickCount = 0;
+        mDesyncCount = 0;
+        mIsFinished = false;
+    }
+    
+    /**
+     * Executed on the game thread, before the pending input is copied into the
+     * state the game sees this tick.
+     */
+    void replayTick( InputInterface inputInterface, float timeDelta, float gameTime )
+    {
+        if ( mIsFinished )
+            return;
+        
+        if ( mTickCount == 0 )
+            mStartTime = gameTime;
+        
+        final float time = gameTime - mStartTime;
+        try
+        {
+            while ( true )
+            {
+                final byte record = mInput.readByte();
+                switch ( record )
+                {
+                    case InputRecorder.TOUCH_DOWN:
+                    {
+                        final int id = mInput.readByte();
+                        checkTime( mInput.readFloat(), time );
+                        final float x = mInput.readFloat();
+                        final float y = mInput.readFloat();
+                        inputInterface.pressPending( id, x, y );
+                        break;
+                    }
+                    case InputRecorder.TOUCH_UP:
+                    {
+                        final int id = mInput.readByte();
+                        checkTime( mInput.readFloat(), time );
+                        inputInterface.releasePending( id );
+                        break;
+                    }
+                    case InputRecorder.TICK_WITH_DELTA:
+                        mTimeDelta = mInput.readFloat();
+                        endTick( timeDelta );
+                        return;
+                    case InputRecorder.TICK:
+                        endTick( timeDelta );
+                        return;
+                    case InputRecorder.END:
+                        mIsFinished = true;
+                        return;
+                    default:
+                        throw new IllegalStateException( "Corrupt input log, unknown record " + record );
+                }
+            }
+        }
+        catch ( IOException e )
+        {
+            // a log cut short (the game was killed while recording) simply ends here
+            mIsFinished = true;
+        }
+    }
+    
+    public int getInputCount()
+    {
+        return mInputCount;
+    }
+    
+    public boolean isFinished()
+    {
+        return mIsFinished;
+    }
+    
+    public long getTickCount()
+    {
+        return mTickCount;
+    }
+    
+    public long getDesyncCount()
+    {
+        return mDesyncCount;
+    }
+    
+    private void endTick( float timeDelta )
+    {
+        if ( timeDelta != mTimeDelta )
+            mDesyncCount++;
+        
+        mTickCount++;
+    }
+    
+    private void checkTime( float recordedTime, float time )
+    {
+        if ( Math.abs( recordedTime - time ) > TIME_TOLERANCE )
+            mDesyncCount++;
+    }
+    
+    private static byte[] readFully( InputStream input ) throws IOException
+    {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        byte[] buffer = new byte[ READ_BUFFER_SIZE ];
+        
+        int read;
+        while ( ( read = input.read( buffer ) ) != -1 )
+            output.write( buffer, 0, read );
+        
+        return output.toByteArray();
+    }
+}
@@ -5,6 +5,10 @@ import com.igottashoot.game.math.Vector2D;
 import com.igottashoot.game.primitives.BaseObject;
 import com.igottashoot.game.primitives.OrderedUpdateableObject;
 import com.igottashoot.game.primitives.UpdateableObject;
+import com.igottashoot.game.properties.GameObjectProperty.PropertyExecutionPhase;
+import com.igottashoot.game.utilities.FixedSizeArray;
+import com.igottashoot.game.utilities.FrameProfiler;
+import com.igottashoot.game.utilities.ProfilerScope;
 
 public class GameObject extends BaseObject implements UpdateableObject<SystemRegistry>
 {
@@ -43,7 +47,66 @@ public class GameObject extends BaseObject implements UpdateableObject<SystemReg
     {
         mRegistry = parent;
         mGameObjectComponents.commitUpdates();
-        mGameObjectComponents.update( timeDelta, this );
+        
+        final FrameProfiler profiler = parent.getFrameProfiler();
+        if ( profiler == null || ! profiler.isEnabled() )
+            mGameObjectComponents.update( timeDelta, this );
+        else
+            updateProfiled( timeDelta, profiler );
+    }
+    
+    /**
+     * Properties are sorted by execution phase, so each run of properties in
+     * the same phase is timed as that phase, and each property by its class.
+     */
+    private void updateProfiled( float timeDelta, FrameProfiler profiler )
+    {
+        final ProfilerScope parentScope = profiler.getCurrentScope();
+        final FixedSizeArray<OrderedUpdateableObject<GameObject>> properties = mGameObjectComponents.getObjects();
+        final int count = properties.getCount();
+        
+        ProfilerScope phaseScope = null;
+        int currentPhase = 0;
+        for ( int index = 0; index < count; index++ )
+        {
+            final OrderedUpdateableObject<GameObject> property = properties.get( index );
+            final int phase = property.getPriority();
+            
+            if ( phaseScope == null || phase != currentPhase )
+            {
+                if ( phaseScope != null )
+                    profiler.end( phaseScope );
+                
+                phaseScope = parentScope.findChild( phase );
+                if ( phaseScope == null )
+                    phaseScope = parentScope.addChild( phase, getPhaseName( phase ) );
+                
+                profiler.begin( phaseScope );
+                currentPhase = phase;
+            }
+            
+            ProfilerScope propertyScope = phaseScope.findChild( property.getClass() );
+            if ( propertyScope == null )
+                propertyScope = phaseScope.addChild( property.getClass() );
+            
+            profiler.begin( propertyScope );
+            property.update( timeDelta, this );
+            profiler.end( propertyScope );
+        }
+        
+        if ( phaseScope != null )
+            profiler.end( phaseScope );
+    }
+    
+    private static String getPhaseName( int phase )
+    {
+        for ( PropertyExecutionPhase executionPhase : PropertyExecutionPhase.values() )
+        {
+            if ( executionPhase.getPhase() == phase )
+                return executionPhase.name();
+        }
+        
+        return "phase " + phase;
     }
 
     public void setMaximumNumberOfPropertyObjects( int size )
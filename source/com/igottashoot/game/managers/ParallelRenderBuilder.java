@@ -0,0 +1,279 @@
+package com.igottashoot.game.managers;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+import com.igottashoot.game.primitives.BaseObject;
+import com.igottashoot.game.primitives.DrawableObject;
+import com.igottashoot.game.primitives.RenderElement;
+import com.igottashoot.game.rendering.RenderCommandBuffer;
+import com.igottashoot.game.rendering.RenderFrame;
+import com.igottashoot.game.rendering.RenderSortKey;
+import com.igottashoot.game.rendering.ViewCuller;
+import com.igottashoot.game.utilities.RenderElementPool;
+
+/**
+ * Turns the drawables scheduled during a step into a frame's draw commands on
+ * several threads. The drawables are split into contiguous ranges, one per
+ * worker, and every worker gets a range of the frame's command buffer of the
+ * same size, reserved up front. A worker culls its drawables, writes their
+ * commands straight into its range and sorts their keys into a run, with the
+ * render queue's radix sort. The game
+ * thread waits for all of them (nothing is updating the drawables meanwhile)
+ * and then merges the runs into the frame's queue, which receives its
+ * elements already in order; the commands aren't touched again, the merge
+ * only hands out their indices. Commands that were culled leave gaps in the
+ * buffer, which are never drawn.
+ *
+ * Equal keys keep the order the drawables were scheduled in: the sequence
+ * bits hold the command index, which grows with the drawable's index across
+ * all ranges. Small frames are built on the calling thread, it isn't worth
+ * waking the workers for them.
+ */
+public class ParallelRenderBuilder extends BaseObject
+{
+    private static final int MIN_DRAWABLES_PER_WORKER = 256;
+
+    private final ExecutorService mExecutor;
+    private final BuildTask[] mTasks;
+    private final List<BuildTask> mRunningTasks;
+    private final int[] mHeads;
+
+    public ParallelRenderBuilder( int workerCount, int initialCapacity )
+    {
+        if ( workerCount < 1 )
+            throw new IllegalArgumentException( "Needs at least one worker" );
+
+        mTasks = new BuildTask[ workerCount ];
+        for ( int index = 0; index < workerCount; index++ )
+            mTasks[index] = new BuildTask( initialCapacity );
+
+        mRunningTasks = new ArrayList<BuildTask>( workerCount );
+        mHeads = new int[ workerCount ];
+        mExecutor = ( workerCount > 1 ) ? Executors.newFixedThreadPool( workerCount, new WorkerFactory() ) : null;
+    }
+
+    public int getWorkerCount()
+    {
+        return mTasks.length;
+    }
+
+    /**
+     * Executed on the game thread. Elements that can't be had from the pool,
+     * or that the frame's queue drops, are simply not drawn.
+     */
+    public void build( DrawableObject[] drawables,
+                       long[] sortKeys,
+                       int count,
+                       ViewCuller culler,
+                       RenderFrame frame,
+                       RenderElementPool pool )
+    {
+        final int workers = Math.max( 1, Math.min( mTasks.length, count / MIN_DRAWABLES_PER_WORKER ) );
+        final int rangeSize = ( count + workers - 1 ) / workers;
+
+        // at most one command per drawable
+        final RenderCommandBuffer commands = frame.getCommandBuffer();
+        final int firstCommand = commands.reserve( count );
+
+        for ( int worker = 0; worker < workers; worker++ )
+        {
+            final int start = Math.min( count, worker * rangeSize );
+            final int end = Math.min( count, start + rangeSize );
+            mTasks[worker].prepare( drawables, sortKeys, start, end, culler );
+            mTasks[worker].mCommands.writeInto( commands, firstCommand + start, end - start );
+        }
+
+        if ( workers == 1 )
+            mTasks[0].call();
+        else
+            runTasks( workers );
+
+        int culled = 0;
+        int drawn = 0;
+        for ( int worker = 0; worker < workers; worker++ )
+        {
+            culled += mTasks[worker].mCulledCount;
+            drawn += mTasks[worker].mDrawnCount;
+        }
+        culler.addCounts( culled, drawn );
+
+        merge( workers, frame.getRenderQueue(), pool );
+    }
+
+    /** The workers are daemons, but this lets them go right away. */
+    public void shutdown()
+    {
+        if ( mExecutor != null )
+            mExecutor.shutdown();
+    }
+
+    private void runTasks( int workers )
+    {
+        mRunningTasks.clear();
+        for ( int worker = 0; worker < workers; worker++ )
+            mRunningTasks.add( mTasks[worker] );
+
+        try
+        {
+            List<Future<Void>> results = mExecutor.invokeAll( mRunningTasks );
+            for ( Future<Void> result : results )
+                result.get();
+        }
+        catch ( InterruptedException e )
+        {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException( "Interrupted while building the draw queue", e );
+        }
+        catch ( ExecutionException e )
+        {
+            throw new IllegalStateException( "Building the draw queue failed", e.getCause() );
+        }
+    }
+
+    /**
+     * A k-way merge of the workers' runs. There are only ever a handful, so
+     * the smallest head is found by looking at each of them.
+     */
+    private void merge( int workers, RenderQueue queue, RenderElementPool pool )
+    {
+        Arrays.fill( mHeads, 0 );
+
+        while ( true )
+        {
+            int selected = -1;
+            long selectedKey = 0;
+            for ( int worker = 0; worker < workers; worker++ )
+            {
+                final BuildTask task = mTasks[worker];
+                if ( mHeads[worker] == task.mCount )
+                    continue;
+
+                // the keys compare as unsigned
+                final long key = task.mKeys[ mHeads[worker] ] ^ Long.MIN_VALUE;
+                if ( selected == -1 || key < selectedKey )
+                {
+                    selected = worker;
+                    selectedKey = key;
+                }
+            }
+
+            if ( selected == -1 )
+                return;
+
+            final BuildTask task = mTasks[selected];
+            final long key = task.mKeys[ mHeads[selected]++ ];
+
+            RenderElement element = pool.allocate();
+            if ( element == null )
+                continue;
+
+            element.setPriority( RenderSortKey.getLayer( key ) );
+            element.setSortKey( key & ~RenderSortKey.SEQUENCE_MASK );
+            element.setCommandIndex( (int) ( key & RenderSortKey.SEQUENCE_MASK ) );
+
+            RenderElement dropped = queue.add( element );
+            if ( dropped != null )
+                pool.release( dropped );
+        }
+    }
+
+    private static final class BuildTask implements Callable<Void>
+    {
+        private final RenderCommandBuffer mCommands;
+        private final int[] mHistograms;
+        private long[] mKeys;
+        private long[] mScratchKeys;
+        private int mCount;
+        private int mCulledCount;
+        private int mDrawnCount;
+
+        private DrawableObject[] mDrawables;
+        private long[] mSortKeys;
+        private int mStart;
+        private int mEnd;
+        private ViewCuller mCuller;
+
+        public BuildTask( int initialCapacity )
+        {
+            // only ever writes into a range of the frame's buffer
+            mCommands = new RenderCommandBuffer( 1 );
+            mHistograms = new int[ RenderQueue.HISTOGRAM_SIZE ];
+            mKeys = new long[ Math.max( 1, initialCapacity ) ];
+            mScratchKeys = new long[ mKeys.length ];
+        }
+
+        public void prepare( DrawableObject[] drawables, long[] sortKeys, int start, int end, ViewCuller culler )
+        {
+            mDrawables = drawables;
+            mSortKeys = sortKeys;
+            mStart = start;
+            mEnd = end;
+            mCuller = culler;
+        }
+
+        @Override
+        public Void call()
+        {
+            mCount = 0;
+            mCulledCount = 0;
+            mDrawnCount = 0;
+
+            if ( mEnd - mStart > mKeys.length )
+            {
+                mKeys = new long[ mEnd - mStart ];
+                mScratchKeys = new long[ mEnd - mStart ];
+            }
+
+            for ( int index = mStart; index < mEnd; index++ )
+            {
+                final DrawableObject drawable = mDrawables[index];
+                if ( mCuller.isCulled( drawable ) )
+                {
+                    mCulledCount++;
+                    continue;
+                }
+
+                mDrawnCount++;
+                final int command = drawable.writeCommand( mCommands, mSortKeys[index] );
+                if ( command == RenderCommandBuffer.NO_COMMAND )
+                    continue;
+
+                mKeys[ mCount++ ] = RenderSortKey.withSequence( mSortKeys[index], command );
+            }
+
+            final long[] sorted = RenderQueue.sortKeys( mKeys, mScratchKeys, mCount, mHistograms );
+            if ( sorted != mKeys )
+            {
+                mScratchKeys = mKeys;
+                mKeys = sorted;
+            }
+
+            // don't hold on to the drawables between frames
+            mDrawables = null;
+            mSortKeys = null;
+            return null;
+        }
+    }
+
+    private static final class WorkerFactory implements ThreadFactory
+    {
+        private int mCount = 0;
+
+        @Override
+        public Thread newThread( Runnable runnable )
+        {
+            Thread thread = new Thread( runnable );
+            thread.setName( "Render Builder Thread " + mCount++ );
+            thread.setDaemon( true );
+            return thread;
+        }
+    }
+}
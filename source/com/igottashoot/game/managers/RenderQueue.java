@@ -0,0 +1,407 @@
+package com.igottashoot.game.managers;
+
+import java.util.Arrays;
+
+import com.igottashoot.game.primitives.BaseObject;
+import com.igottashoot.game.primitives.RenderElement;
+import com.igottashoot.game.rendering.RenderSortKey;
+import com.igottashoot.game.utilities.OverflowPolicy;
+
+/**
+ * The draw queue of one frame. Elements are ordered by their
+ * {@link RenderSortKey}, with a least significant digit radix sort over the
+ * key bytes: linear in the number of elements and allocation free, as every
+ * buffer it needs is allocated up front. Passes over bytes every key shares
+ * (most of the layer and blend bits, usually) are skipped.
+ * 
+ * Storage is a list of fixed size chunks. What happens when they're all full
+ * depends on the {@link OverflowPolicy}: another chunk is added (nothing is
+ * copied), the element of the lowest layer is dropped, or it fails. The
+ * lowest layer is found with a min-heap over the elements' layers, built the
+ * first time the queue overflows and kept up to date by every drop after.
+ */
+public class RenderQueue extends BaseObject
+{
+    private static final int RADIX_BITS = 8;
+    private static final int RADIX = 1 << RADIX_BITS;
+    private static final int PASSES = 64 / RADIX_BITS;
+    
+    /** The size of the histograms {@link #sortKeys} needs. */
+    static final int HISTOGRAM_SIZE = PASSES * RADIX;
+    
+    private final int[] mHistograms;
+    private final int mChunkShift;
+    private final int mChunkMask;
+    
+    private RenderElement[][] mElements;
+    private RenderElement[][] mScratchElements;
+    private long[][] mKeys;
+    private long[][] mScratchKeys;
+    private int mChunkCount;
+    private int mCount;
+    private int mNextSequence;
+    private boolean mIsSorted;
+    private long[] mLayerHeap;
+    private boolean mIsLayerHeapValid;
+    private OverflowPolicy mOverflowPolicy;
+    private int mHighWaterMark;
+    private int mDroppedCount;
+    
+    /**
+     * @param chunkSize
+     *            Rounded up to the next power of two, the queue starts with one
+     *            chunk.
+     */
+    public RenderQueue( int chunkSize )
+    {
+        int shift = 0;
+        while ( ( 1 << shift ) < chunkSize )
+            shift++;
+        
+        mChunkShift = shift;
+        mChunkMask = ( 1 << shift ) - 1;
+        mHistograms = new int[ HISTOGRAM_SIZE ];
+        mElements = new RenderElement[ 1 ][];
+        mScratchElements = new RenderElement[ 1 ][];
+        mKeys = new long[ 1 ][];
+        mScratchKeys = new long[ 1 ][];
+        mChunkCount = 0;
+        mCount = 0;
+        mNextSequence = 0;
+        mIsSorted = true;
+        mLayerHeap = new long[ 0 ];
+        mIsLayerHeapValid = false;
+        mOverflowPolicy = OverflowPolicy.GROW;
+        mHighWaterMark = 0;
+        mDroppedCount = 0;
+        
+        addChunk();
+    }
+    
+    /**
+     * The element's sort key is read now, with its sequence replaced by the
+     * order it is added in.
+     * 
+     * @return the element that didn't make it in when the queue was full and
+     *         is dropping: either this one or one of a lower layer. It is up
+     *         to the caller to release it. Null when nothing was dropped.
+     */
+    public RenderElement add( RenderElement element )
+    {
+        if ( mCount == getCapacity() )
+        {
+            switch ( mOverflowPolicy )
+            {
+                case GROW:
+                    addChunk();
+                    break;
+                case DROP_LOWEST_LAYER:
+                    mDroppedCount++;
+                    return replaceLowest( element );
+                default:
+                    throw new IllegalStateException( "Render queue exhausted!" );
+            }
+        }
+        
+        final long key = RenderSortKey.withSequence( element.getSortKey(), mNextSequence++ );
+        
+        // elements added in order (a merge) never need sorting
+        if ( mCount > 0 && ( getKey( mCount - 1 ) ^ Long.MIN_VALUE ) > ( key ^ Long.MIN_VALUE ) )
+            mIsSorted = false;
+        
+        set( mCount, element, key );
+        mCount++;
+        mIsLayerHeapValid = false;
+        
+        if ( mCount > mHighWaterMark )
+            mHighWaterMark = mCount;
+        
+        return null;
+    }
+    
+    public RenderElement get( int index )
+    {
+        return mElements[ index >> mChunkShift ][ index & mChunkMask ];
+    }
+    
+    public long getKey( int index )
+    {
+        return mKeys[ index >> mChunkShift ][ index & mChunkMask ];
+    }
+    
+    public int getCount()
+    {
+        return mCount;
+    }
+    
+    public int getCapacity()
+    {
+        return mChunkCount << mChunkShift;
+    }
+    
+    /** The most elements this queue ever held. */
+    public int getHighWaterMark()
+    {
+        return mHighWaterMark;
+    }
+    
+    /** How many elements were dropped because the queue was full. */
+    public int getDroppedCount()
+    {
+        return mDroppedCount;
+    }
+    
+    public void setOverflowPolicy( OverflowPolicy overflowPolicy )
+    {
+        mOverflowPolicy = overflowPolicy;
+    }
+    
+    public RenderElement removeLast()
+    {
+        if ( mCount == 0 )
+            return null;
+        
+        mCount--;
+        mIsLayerHeapValid = false;
+        RenderElement element = get( mCount );
+        mElements[ mCount >> mChunkShift ][ mCount & mChunkMask ] = null;
+        return element;
+    }
+    
+    public void sort()
+    {
+        if ( mIsSorted )
+            return;
+        
+        mIsSorted = true;
+        if ( mCount < 2 )
+            return;
+        
+        mIsLayerHeapValid = false;
+        
+        buildHistograms();
+        
+        final int shiftToChunk = mChunkShift;
+        final int mask = mChunkMask;
+        for ( int pass = 0; pass < PASSES; pass++ )
+        {
+            final int histogram = pass * RADIX;
+            final int shift = pass * RADIX_BITS;
+            
+            // every key has the same byte here, nothing would move
+            if ( mHistograms[ histogram + (int) ( ( mKeys[0][0] >>> shift ) & ( RADIX - 1 ) ) ] == mCount )
+                continue;
+            
+            int offset = 0;
+            for ( int digit = 0; digit < RADIX; digit++ )
+            {
+                final int count = mHistograms[ histogram + digit ];
+                mHistograms[ histogram + digit ] = offset;
+                offset += count;
+            }
+            
+            for ( int index = 0; index < mCount; index++ )
+            {
+                final int chunk = index >> shiftToChunk;
+                final int slot = index & mask;
+                final long key = mKeys[ chunk ][ slot ];
+                final int digit = (int) ( ( key >>> shift ) & ( RADIX - 1 ) );
+                final int target = mHistograms[ histogram + digit ]++;
+                mScratchKeys[ target >> shiftToChunk ][ target & mask ] = key;
+                mScratchElements[ target >> shiftToChunk ][ target & mask ] = mElements[ chunk ][ slot ];
+            }
+            
+            swapBuffers();
+        }
+        
+        // don't keep elements alive from the scratch buffer
+        clearElements( mScratchElements, mCount );
+    }
+    
+    @Override
+    public void reset()
+    {
+        clearElements( mElements, mCount );
+        mCount = 0;
+        mNextSequence = 0;
+        mIsSorted = true;
+        mIsLayerHeapValid = false;
+    }
+    
+    /**
+     * The same sort for a plain array of unique keys (nothing travels with
+     * them), ordered unsigned.
+     * 
+     * @return the array that ends up holding the sorted keys, either keys or
+     *         scratch.
+     */
+    static long[] sortKeys( long[] keys, long[] scratch, int count, int[] histograms )
+    {
+        if ( count < 2 )
+            return keys;
+        
+        Arrays.fill( histograms, 0 );
+        for ( int index = 0; index < count; index++ )
+        {
+            final long key = keys[index];
+            for ( int pass = 0; pass < PASSES; pass++ )
+                histograms[ pass * RADIX + (int) ( ( key >>> ( pass * RADIX_BITS ) ) & ( RADIX - 1 ) ) ]++;
+        }
+        
+        for ( int pass = 0; pass < PASSES; pass++ )
+        {
+            final int histogram = pass * RADIX;
+            final int shift = pass * RADIX_BITS;
+            
+            if ( histograms[ histogram + (int) ( ( keys[0] >>> shift ) & ( RADIX - 1 ) ) ] == count )
+                continue;
+            
+            int offset = 0;
+            for ( int digit = 0; digit < RADIX; digit++ )
+            {
+                final int digitCount = histograms[ histogram + digit ];
+                histograms[ histogram + digit ] = offset;
+                offset += digitCount;
+            }
+            
+            for ( int index = 0; index < count; index++ )
+            {
+                final long key = keys[index];
+                scratch[ histograms[ histogram + (int) ( ( key >>> shift ) & ( RADIX - 1 ) ) ]++ ] = key;
+            }
+            
+            final long[] swap = keys;
+            keys = scratch;
+            scratch = swap;
+        }
+        
+        return keys;
+    }
+    
+    private void set( int index, RenderElement element, long key )
+    {
+        mElements[ index >> mChunkShift ][ index & mChunkMask ] = element;
+        mKeys[ index >> mChunkShift ][ index & mChunkMask ] = key;
+    }
+    
+    /**
+     * The lowest layer is the one drawn first, the furthest back. Ties go
+     * against the new element, what was scheduled first stays. The new
+     * element takes the dropped one's place but gets the next sequence, as
+     * if it was added.
+     */
+    private RenderElement replaceLowest( RenderElement element )
+    {
+        if ( ! mIsLayerHeapValid )
+            buildLayerHeap();
+        
+        final long lowest = mLayerHeap[ 0 ];
+        if ( RenderSortKey.getLayer( element.getSortKey() ) <= (int) ( lowest >> 32 ) )
+            return element;
+        
+        final int index = Integer.MAX_VALUE - (int) lowest;
+        final long key = RenderSortKey.withSequence( element.getSortKey(), mNextSequence++ );
+        RenderElement dropped = get( index );
+        set( index, element, key );
+        mIsSorted = false;
+        
+        mLayerHeap[ 0 ] = getLayerHeapEntry( index, key );
+        siftDown( 0 );
+        return dropped;
+    }
+    
+    /**
+     * An entry is the layer in the high half and the index in the low half,
+     * inverted so that within a layer the highest index, usually the element
+     * added last, comes out first.
+     */
+    private static long getLayerHeapEntry( int index, long key )
+    {
+        return ( (long) RenderSortKey.getLayer( key ) << 32 ) | ( Integer.MAX_VALUE - index );
+    }
+    
+    private void buildLayerHeap()
+    {
+        if ( mLayerHeap.length < mCount )
+            mLayerHeap = new long[ getCapacity() ];
+        
+        for ( int index = 0; index < mCount; index++ )
+            mLayerHeap[ index ] = getLayerHeapEntry( index, getKey( index ) );
+        
+        for ( int index = mCount / 2 - 1; index >= 0; index-- )
+            siftDown( index );
+        
+        mIsLayerHeapValid = true;
+    }
+    
+    private void siftDown( int index )
+    {
+        final long entry = mLayerHeap[ index ];
+        while ( true )
+        {
+            int child = index * 2 + 1;
+            if ( child >= mCount )
+                break;
+            
+            if ( child + 1 < mCount && mLayerHeap[ child + 1 ] < mLayerHeap[ child ] )
+                child++;
+            
+            if ( entry <= mLayerHeap[ child ] )
+                break;
+            
+            mLayerHeap[ index ] = mLayerHeap[ child ];
+            index = child;
+        }
+        
+        mLayerHeap[ index ] = entry;
+    }
+    
+    /** All byte histograms are counted in one pass over the keys. */
+    private void buildHistograms()
+    {
+        Arrays.fill( mHistograms, 0 );
+        for ( int index = 0; index < mCount; index++ )
+        {
+            final long key = getKey( index );
+            for ( int pass = 0; pass < PASSES; pass++ )
+                mHistograms[ pass * RADIX + (int) ( ( key >>> ( pass * RADIX_BITS ) ) & ( RADIX - 1 ) ) ]++;
+        }
+    }
+    
+    private void addChunk()
+    {
+        if ( mChunkCount == mElements.length )
+        {
+            final int chunks = mChunkCount * 2;
+            mElements = Arrays.copyOf( mElements, chunks );
+            mScratchElements = Arrays.copyOf( mScratchElements, chunks );
+            mKeys = Arrays.copyOf( mKeys, chunks );
+            mScratchKeys = Arrays.copyOf( mScratchKeys, chunks );
+        }
+        
+        final int chunkSize = mChunkMask + 1;
+        mElements[ mChunkCount ] = new RenderElement[ chunkSize ];
+        mScratchElements[ mChunkCount ] = new RenderElement[ chunkSize ];
+        mKeys[ mChunkCount ] = new long[ chunkSize ];
+        mScratchKeys[ mChunkCount ] = new long[ chunkSize ];
+        mChunkCount++;
+    }
+    
+    private void swapBuffers()
+    {
+        long[][] keys = mKeys;
+        mKeys = mScratchKeys;
+        mScratchKeys = keys;
+        
+        RenderElement[][] elements = mElements;
+        mElements = mScratchElements;
+        mScratchElements = elements;
+    }
+    
+    private void clearElements( RenderElement[][] elements, int count )
+    {
+        final int chunkSize = mChunkMask + 1;
+        for ( int chunk = 0; chunk * chunkSize < count; chunk++ )
+            Arrays.fill( elements[ chunk ], 0, Math.min( chunkSize, count - chunk * chunkSize ), null );
+    }
+}
@@ -1,72 +1,315 @@
 package com.igottashoot.game.managers;
 
+import java.util.Arrays;
+
+import com.igottashoot.game.core.CameraViewInfo;
 import com.igottashoot.game.primitives.BaseObject;
+import com.igottashoot.game.primitives.DrawableObject;
 import com.igottashoot.game.primitives.RenderElement;
-import com.igottashoot.game.utilities.FixedSizeArray;
+import com.igottashoot.game.rendering.RenderCommandBuffer;
+import com.igottashoot.game.rendering.RenderFrame;
+import com.igottashoot.game.rendering.RenderFrameExchange;
+import com.igottashoot.game.rendering.RenderSortKey;
+import com.igottashoot.game.rendering.ViewCuller;
+import com.igottashoot.game.utilities.OverflowPolicy;
 import com.igottashoot.game.utilities.RenderElementPool;
 
+/**
+ * Owns the draw queues and the {@link RenderFrameExchange} they're handed to
+ * the render thread through. All methods are called from the game thread.
+ */
 public class RenderingBufferManager extends BaseObject
 {
-    public static final int DRAW_QUEUE_COUNT = 2;
-    public static final int MAX_RENDER_OBJECTS_PER_FRAME = 256;
-    
+    /** Queues start with one chunk of this many elements, and grow by as many. */
+    public static final int RENDER_QUEUE_CHUNK_SIZE = 256;
+
     private final RenderElementPool mElementPool;
-    private final OrderedObjectManager<RenderElement>[] mRenderingQueues;
-    
-    private int mCurrentQueueIndex = 0;
-    
-    public RenderingBufferManager( RenderElementPool pool )
+    private final RenderFrameExchange mFrameExchange;
+    private final ViewCuller mViewCuller;
+    private final RenderQueue[] mRenderQueues;
+
+    private RenderFrame mCurrentFrame;
+    private ParallelRenderBuilder mBuilder;
+    private DrawableObject[] mPendingDrawables;
+    private long[] mPendingSortKeys;
+    private int mPendingCount;
+    private long mLayerVersion;
+
+    /**
+     * @return the number of draw queues that are allocated for the given
+     *         number of frames in flight, i.e. how many frames worth of render
+     *         elements can be alive at any time.
+     */
+    public static int getQueueCount( int framesInFlight )
+    {
+        return RenderFrameExchange.getFrameCount( framesInFlight );
+    }
+
+    public RenderingBufferManager( RenderElementPool pool, int framesInFlight )
     {
         mElementPool = pool;
-        mRenderingQueues = new OrderedObjectManager[ DRAW_QUEUE_COUNT ];
-        for ( int index = 0; index < DRAW_QUEUE_COUNT; index++ )
-            mRenderingQueues[index] = OrderedObjectManager.newManager( MAX_RENDER_OBJECTS_PER_FRAME );
-        
-        mCurrentQueueIndex = 0;
+        mViewCuller = new ViewCuller();
+        mBuilder = null;
+        mPendingDrawables = new DrawableObject[ RENDER_QUEUE_CHUNK_SIZE ];
+        mPendingSortKeys = new long[ RENDER_QUEUE_CHUNK_SIZE ];
+        mPendingCount = 0;
+        mLayerVersion = 0;
+
+        final int queueCount = getQueueCount( framesInFlight );
+        RenderFrame[] frames = new RenderFrame[ queueCount ];
+        mRenderQueues = new RenderQueue[ queueCount ];
+        for ( int index = 0; index < queueCount; index++ )
+        {
+            mRenderQueues[index] = new RenderQueue( RENDER_QUEUE_CHUNK_SIZE );
+            frames[index] = new RenderFrame( mRenderQueues[index], new RenderCommandBuffer( RENDER_QUEUE_CHUNK_SIZE ) );
+        }
+
+        setOverflowPolicy( OverflowPolicy.GROW );
+
+        mFrameExchange = new RenderFrameExchange( frames );
+        mCurrentFrame = acquireNextFrame();
+    }
+
+    /**
+     * With several workers, drawables are only collected here and turned into
+     * commands when the frame is submitted; otherwise right away. Must be
+     * set while the game thread isn't running.
+     */
+    public void setWorkerCount( int workerCount )
+    {
+        if ( mBuilder != null )
+            mBuilder.shutdown();
+
+        mBuilder = ( workerCount > 1 ) ? new ParallelRenderBuilder( workerCount, RENDER_QUEUE_CHUNK_SIZE ) : null;
     }
-    
-    public void scheduleForDraw( RenderElement element )
+
+    public void shutdown()
     {
+        if ( mBuilder != null )
+            mBuilder.shutdown();
+    }
+
+    public void scheduleForDraw( DrawableObject drawable, long sortKey )
+    {
+        if ( drawable == null )
+            throw new IllegalStateException( "Can't schedule a null drawable for drawing" );
+
+        if ( mBuilder != null )
+        {
+            if ( mPendingCount == mPendingDrawables.length )
+            {
+                mPendingDrawables = Arrays.copyOf( mPendingDrawables, mPendingCount * 2 );
+                mPendingSortKeys = Arrays.copyOf( mPendingSortKeys, mPendingCount * 2 );
+            }
+
+            mPendingDrawables[ mPendingCount ] = drawable;
+            mPendingSortKeys[ mPendingCount ] = sortKey;
+            mPendingCount++;
+            return;
+        }
+
+        // Off screen, don't even take an element from the pool
+        if ( mViewCuller.cull( drawable ) )
+            return;
+
+        RenderElement element = mElementPool.allocate();
         if ( element == null )
-            throw new IllegalStateException( "Can't schedule a null element for drawing" );
-        
-        mRenderingQueues[mCurrentQueueIndex].add( element );
+            return;
+
+        element.setPriority( RenderSortKey.getLayer( sortKey ) );
+        element.setSortKey( sortKey );
+        element.setDrawable( drawable );
+
+        // The draw data is copied now, the drawable is free to change before
+        // the frame is drawn.
+        if ( ! element.writeCommand( mCurrentFrame.getCommandBuffer() ) )
+        {
+            mElementPool.release( element );
+            return;
+        }
+
+        RenderElement dropped = mCurrentFrame.getRenderQueue().add( element );
+        if ( dropped != null )
+            mElementPool.release( dropped );
     }
 
-    public OrderedObjectManager<RenderElement> getCurrentQueue()
+    /**
+     * The render thread draws the images of its cached layers again, starting
+     * with the next submitted frame. Only needed for changes the draw commands
+     * don't show, like new pixels in a texture: moved, added or removed
+     * sprites are noticed on their own.
+     */
+    public void markCachedLayersDirty()
     {
-        mRenderingQueues[mCurrentQueueIndex].commitUpdates();
-        return mRenderingQueues[mCurrentQueueIndex];
+        mLayerVersion++;
     }
 
-    public void goToNextQueue()
+    /**
+     * Applies to the draw queues and the element pool. When dropping, a full
+     * pool hands out no more elements (they're simply not drawn) and a full
+     * queue gives up its lowest layer. Set before the game thread starts, or
+     * from it.
+     */
+    public void setOverflowPolicy( OverflowPolicy overflowPolicy )
     {
-        final int lastQueue = ( mCurrentQueueIndex == 0 ) ? DRAW_QUEUE_COUNT - 1 : mCurrentQueueIndex - 1;
-    
-        // Clear the old queue.
-        clearQueue( mRenderingQueues[ lastQueue ] );
-    
-        mCurrentQueueIndex = (mCurrentQueueIndex + 1) % DRAW_QUEUE_COUNT;
+        for ( int index = 0; index < mRenderQueues.length; index++ )
+            mRenderQueues[index].setOverflowPolicy( overflowPolicy );
+
+        mElementPool.setOverflowPolicy( overflowPolicy );
     }
 
-    public void emptyQueues()
+    /** The most elements any one frame held. */
+    public int getQueueHighWaterMark()
+    {
+        int highWaterMark = 0;
+        for ( int index = 0; index < mRenderQueues.length; index++ )
+            highWaterMark = Math.max( highWaterMark, mRenderQueues[index].getHighWaterMark() );
+
+        return highWaterMark;
+    }
+
+    /** The most elements that were alive at once, over all frames. */
+    public int getPoolHighWaterMark()
+    {
+        return mElementPool.getHighWaterMark();
+    }
+
+    public int getDroppedCount()
+    {
+        int dropped = 0;
+        for ( int index = 0; index < mRenderQueues.length; index++ )
+            dropped += mRenderQueues[index].getDroppedCount();
+
+        return dropped;
+    }
+
+    /** The current queue, sorted by the elements' sort keys. */
+    public RenderQueue getCurrentQueue()
+    {
+        mCurrentFrame.getRenderQueue().sort();
+        return mCurrentFrame.getRenderQueue();
+    }
+
+    /** Culls against the view of the last submitted frame. */
+    public ViewCuller getViewCuller()
+    {
+        return mViewCuller;
+    }
+
+    public RenderFrameExchange getFrameExchange()
+    {
+        return mFrameExchange;
+    }
+
+    /**
+     * Releases everything scheduled on the current queue so far. Used when
+     * several simulation steps run in one frame, where only the draw commands
+     * of the last step are worth handing to the renderer.
+     */
+    public void discardCurrentQueue()
     {
-        for ( int index = 0; index < DRAW_QUEUE_COUNT; index++ )
+        clearFrame( mCurrentFrame );
+        clearPending();
+        mViewCuller.discardFrame();
+    }
+
+    /**
+     * Same as {@link #submitCurrentQueue(CameraViewInfo, CameraViewInfo, float)}
+     * for a camera that didn't move during the step.
+     */
+    public void submitCurrentQueue( CameraViewInfo cameraViewInfo, float interpolationAlpha )
+    {
+        submitCurrentQueue( cameraViewInfo, cameraViewInfo, interpolationAlpha );
+    }
+
+    /**
+     * Publishes the current queue to the render thread and moves on to the
+     * next one. Never blocks.
+     *
+     * @param previousCameraViewInfo
+     *            The camera before the step, which the renderer blends with
+     *            the current one like it does sprite positions.
+     */
+    public void submitCurrentQueue( CameraViewInfo cameraViewInfo,
+                                    CameraViewInfo previousCameraViewInfo,
+                                    float interpolationAlpha )
+    {
+        if ( mPendingCount > 0 )
+        {
+            mBuilder.build( mPendingDrawables, mPendingSortKeys, mPendingCount, mViewCuller, mCurrentFrame, mElementPool );
+            clearPending();
+        }
+
+        getCurrentQueue();
+
+        if ( cameraViewInfo != null )
         {
-            mRenderingQueues[ index ].commitUpdates();
-            clearQueue( mRenderingQueues[ index ] );
-        }        
+            mCurrentFrame.getCameraViewInfo().updateInfo( cameraViewInfo );
+            mCurrentFrame.getPreviousCameraViewInfo().updateInfo( previousCameraViewInfo != null ? previousCameraViewInfo : cameraViewInfo );
+        }
+        mCurrentFrame.setInterpolationAlpha( interpolationAlpha );
+        mCurrentFrame.setLayerVersion( mLayerVersion );
+
+        mViewCuller.commitFrame( cameraViewInfo );
+        mFrameExchange.publish( mCurrentFrame );
+        mCurrentFrame = acquireNextFrame();
+    }
+
+    /**
+     * Moves the frame submitted last on to a new interpolation alpha, for a
+     * game frame that ran no step. Never blocks.
+     */
+    public void updateInterpolationAlpha( float interpolationAlpha )
+    {
+        mFrameExchange.publishInterpolationAlpha( interpolationAlpha );
     }
-    
-    private void clearQueue( OrderedObjectManager<RenderElement> orderedObjectManager )
+
+    /**
+     * Hands the render thread an empty frame. The queues the render thread may
+     * still hold are left alone, they're recycled the next time they are
+     * acquired.
+     */
+    public void emptyQueues()
+    {
+        // the culler keeps the counts of the last real frame
+        clearFrame( mCurrentFrame );
+        clearPending();
+        mCurrentFrame.setInterpolationAlpha( 1.0f );
+        mCurrentFrame.setLayerVersion( mLayerVersion );
+        mFrameExchange.publish( mCurrentFrame );
+        mCurrentFrame = acquireNextFrame();
+    }
+
+    private RenderFrame acquireNextFrame()
+    {
+        RenderFrame frame = mFrameExchange.acquireForWriting();
+
+        // The frame was either drawn already or dropped, either way its
+        // elements can go back to the pool.
+        clearFrame( frame );
+
+        return frame;
+    }
+
+    private void clearPending()
+    {
+        Arrays.fill( mPendingDrawables, 0, mPendingCount, null );
+        mPendingCount = 0;
+    }
+
+    private void clearFrame( RenderFrame frame )
+    {
+        frame.getCommandBuffer().reset();
+        clearQueue( frame.getRenderQueue() );
+    }
+
+    private void clearQueue( RenderQueue queue )
     {
-        FixedSizeArray<RenderElement> objects = orderedObjectManager.getObjects();
-        final int size = objects.getCount() - 1;
-        for ( int index = size; index >= 0 ; index-- )
+        RenderElement object = queue.removeLast();
+        while ( object != null )
         {
-            RenderElement object = objects.get( index );
             mElementPool.release( object );
-            objects.removeLast();
+            object = queue.removeLast();
         }
     }
 }
@@ -1,56 +1,244 @@
 package com.igottashoot.game.managers;
 
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
 import com.igottashoot.game.primitives.BaseObject;
 import com.igottashoot.game.primitives.Texture;
 import com.igottashoot.game.rendering.TextureLoadingHandler;
+import com.igottashoot.game.rendering.TileSheet;
 
+/**
+ * Hands out one {@link Texture} per resource, counting references to it.
+ * Textures that nobody references any more stay resident, so the next level
+ * that asks for the same resource gets it without a reload; they're only
+ * evicted, least recently released first, once the resident textures take up
+ * more than the budget. Referenced textures are never evicted, the budget can
+ * be exceeded by those alone.
+ *
+ * Residency is counted per allocation, i.e. per binding: textures packed into
+ * one atlas page share it and are only evicted together, once none of them is
+ * referenced, as the page is only freed then.
+ *
+ * The {@link TileSheet}s cut from the textures are kept here too, one per
+ * resource and grid, so every sprite using the same tiles shares one table.
+ *
+ * Sizes are estimated as width x height x 4 bytes of the whole allocation,
+ * padding and unused parts of a page included. Executed on the game
+ * thread, apart from the textures' loaded state which the render thread sets.
+ */
 public class TextureManager extends BaseObject
 {
-    private final Texture[] mTextures;
-    
-    public TextureManager( int maxSize )
+    private static final int BYTES_PER_PIXEL = 4;
+
+    // by resource id
+    private Texture[] mTextures;
+    private int[] mReferenceCounts;
+    private long[] mReleaseStamps;
+
+    // by resource id, row count and column count
+    private final Map<Long, TileSheet> mTileSheets;
+
+    private final long mBudgetInBytes;
+    private long mReleaseCount;
+    private int mHitCount;
+    private int mMissCount;
+    private int mEvictionCount;
+
+    // reused by evictTextures()
+    private long[] mAllocations;
+    private long[] mVictims;
+    private int[] mEvicted;
+
+    public TextureManager( int initialCapacity, long budgetInBytes )
     {
-        mTextures = new Texture[ maxSize ];
-        for ( int x = 0; x < mTextures.length; x++ )
-            mTextures[x] = new Texture();
+        if ( budgetInBytes < 0 )
+            throw new IllegalArgumentException( "The texture budget can't be negative" );
+
+        final int capacity = Math.max( 1, initialCapacity );
+        mTextures = new Texture[ capacity ];
+        mReferenceCounts = new int[ capacity ];
+        mReleaseStamps = new long[ capacity ];
+        mTileSheets = new HashMap<Long, TileSheet>();
+        mBudgetInBytes = budgetInBytes;
+        mAllocations = new long[ capacity ];
+        mVictims = new long[ capacity ];
+        mEvicted = new int[ capacity ];
+
+        reset();
+    }
+
+    @Override
+    public void reset()
+    {
+        mReleaseCount = 0;
+        mHitCount = 0;
+        mMissCount = 0;
+        mEvictionCount = 0;
     }
-    
+
+    /**
+     * Every call has to be matched by a {@link #releaseTexture(Texture)}.
+     * Counts as a hit when the texture was resident already.
+     */
     public Texture allocateTexture( int resourceID )
     {
-        int textureIndex = findTextureIndex( resourceID );
-        if ( textureIndex == -1 )
-            return null; // "There is no more room to add textures"
-        
-        Texture texture = mTextures[ textureIndex ];
-        if ( texture.getResourceId() == - 1 )
+        if ( resourceID < 0 )
+            throw new IllegalArgumentException( "Invalid resource id " + resourceID );
+
+        if ( resourceID >= mTextures.length )
+            grow( resourceID + 1 );
+
+        Texture texture = mTextures[ resourceID ];
+        if ( texture == null )
         {
+            texture = new Texture();
             texture.setResourceId( resourceID );
-            texture.setBindingName( -1 );
-            texture.setLoaded( false );
-            texture.setSize( 0, 0 );
+            mTextures[ resourceID ] = texture;
         }
-        
+
+        if ( texture.isLoaded() )
+            mHitCount++;
+        else if ( mReferenceCounts[ resourceID ] == 0 )
+            mMissCount++;
+
+        mReferenceCounts[ resourceID ]++;
         return texture;
     }
-    
+
+    public void releaseTexture( Texture texture )
+    {
+        if ( texture == null )
+            return;
+
+        final int resourceID = texture.getResourceId();
+        if ( resourceID < 0 || resourceID >= mTextures.length || mTextures[ resourceID ] != texture )
+            throw new IllegalArgumentException( "The texture wasn't allocated here" );
+
+        if ( mReferenceCounts[ resourceID ] == 0 )
+            throw new IllegalStateException( "Texture " + resourceID + " released too often" );
+
+        if ( --mReferenceCounts[ resourceID ] == 0 )
+            mReleaseStamps[ resourceID ] = ++mReleaseCount;
+    }
+
+    /**
+     * The sheet cutting the resource's texture into that grid, the same one
+     * for every caller. Sheets are kept for good, they're only a small table
+     * which is worked out again if the texture is reloaded.
+     */
+    public TileSheet getTileSheet( int resourceID, int rowCount, int columnCount )
+    {
+        if ( resourceID < 0 )
+            throw new IllegalArgumentException( "Invalid resource id " + resourceID );
+
+        if ( rowCount <= 0 || columnCount <= 0 || rowCount > 0xFFFF || columnCount > 0xFFFF )
+            throw new IllegalArgumentException( "Invalid tile grid " + rowCount + "x" + columnCount );
+
+        final Long key = Long.valueOf( ( (long) resourceID << 32 ) | ( (long) rowCount << 16 ) | columnCount );
+        TileSheet tileSheet = mTileSheets.get( key );
+        if ( tileSheet == null )
+        {
+            tileSheet = new TileSheet( rowCount, columnCount );
+            mTileSheets.put( key, tileSheet );
+        }
+
+        return tileSheet;
+    }
+
+    /**
+     * The referenced textures that aren't resident, as of now. The array can
+     * be handed to another thread.
+     */
+    public Texture[] getTexturesToLoad()
+    {
+        int count = 0;
+        for ( int index = 0; index < mTextures.length; index++ )
+        {
+            if ( mReferenceCounts[ index ] > 0 && ! mTextures[ index ].isLoaded() )
+                count++;
+        }
+
+        Texture[] textures = new Texture[ count ];
+        count = 0;
+        for ( int index = 0; index < mTextures.length; index++ )
+        {
+            if ( mReferenceCounts[ index ] > 0 && ! mTextures[ index ].isLoaded() )
+                textures[ count++ ] = mTextures[ index ];
+        }
+
+        return textures;
+    }
+
     public Object[] loadTextures( TextureLoadingHandler handler )
     {
-        return handler.loadTextures( mTextures );
-    }
-    
-//    public void flushTextures( DrawingCanvas canvas )
-//    {
-//        for ( int index = 0; index < mTextures.length; index++ )
-//        {
-//            final Texture texture = mTextures[ index ];
-//            if ( texture.isLoaded() )
-//                canvas.releaseTexture( texture );
-//        }
-//    }
-    
+        return handler.loadTextures( getTexturesToLoad() );
+    }
+
+    /**
+     * Evicts unreferenced allocations, least recently released first, until
+     * the resident ones fit the budget. An allocation is released when the
+     * last of its textures is. The evicted textures are marked as not loaded
+     * right away; releasing what the renderer holds for them is up to the
+     * caller.
+     *
+     * @return the resource ids of the evicted textures, may be empty.
+     */
+    public int[] evictTextures()
+    {
+        final int count = sortResidentByBinding();
+
+        // one victim per unreferenced allocation: when it was released, and
+        // where its textures start in the sorted list
+        long residentBytes = 0;
+        int victimCount = 0;
+        for ( int start = 0, end; start < count; start = end )
+        {
+            final int binding = getBinding( mAllocations[ start ] );
+            boolean isReferenced = false;
+            long releaseStamp = 0;
+            for ( end = start; end < count && getBinding( mAllocations[ end ] ) == binding; end++ )
+            {
+                final int resourceID = getResourceID( mAllocations[ end ] );
+                isReferenced |= mReferenceCounts[ resourceID ] > 0;
+                releaseStamp = Math.max( releaseStamp, mReleaseStamps[ resourceID ] );
+            }
+
+            residentBytes += getSizeInBytes( mTextures[ getResourceID( mAllocations[ start ] ) ] );
+            if ( ! isReferenced )
+                mVictims[ victimCount++ ] = ( releaseStamp << 32 ) | start;
+        }
+
+        Arrays.sort( mVictims, 0, victimCount );
+
+        int evictedCount = 0;
+        for ( int victim = 0; victim < victimCount && residentBytes > mBudgetInBytes; victim++ )
+        {
+            final int start = (int) mVictims[ victim ];
+            final int binding = getBinding( mAllocations[ start ] );
+            residentBytes -= getSizeInBytes( mTextures[ getResourceID( mAllocations[ start ] ) ] );
+
+            for ( int index = start; index < count && getBinding( mAllocations[ index ] ) == binding; index++ )
+            {
+                final int resourceID = getResourceID( mAllocations[ index ] );
+                final Texture texture = mTextures[ resourceID ];
+                texture.setLoaded( false );
+                texture.setBindingName( -1 );
+                texture.setSize( 0, 0 );
+                texture.setRegion( 0f, 0f, 1f, 1f );
+
+                mEvicted[ evictedCount++ ] = resourceID;
+                mEvictionCount++;
+            }
+        }
+
+        return Arrays.copyOf( mEvicted, evictedCount );
+    }
+
     /**
      * Returns the texture associated with the passed resource ID.
-     * 
+     *
      * @param resourceID
      *            The resource ID of a bitmap.
      * @return An associated Texture object, or null if there is no associated
@@ -58,30 +246,99 @@ public class TextureManager extends BaseObject
      */
     public Texture getTextureByResource( int resourceID )
     {
-        int realIndex = findTextureIndex( resourceID );
-        if ( realIndex == -1 )
+        if ( resourceID < 0 || resourceID >= mTextures.length )
             return null;
 
-        return ( ( mTextures[realIndex].getResourceId() != resourceID ) ? null : mTextures[ realIndex ] );
+        return mTextures[ resourceID ];
+    }
+
+    public int getReferenceCount( int resourceID )
+    {
+        if ( resourceID < 0 || resourceID >= mTextures.length )
+            return 0;
+
+        return mReferenceCounts[ resourceID ];
+    }
+
+    /** The estimated size of every loaded allocation, referenced or not. */
+    public long getResidentBytes()
+    {
+        final int count = sortResidentByBinding();
+
+        long bytes = 0;
+        for ( int index = 0; index < count; index++ )
+        {
+            if ( index == 0 || getBinding( mAllocations[ index ] ) != getBinding( mAllocations[ index - 1 ] ) )
+                bytes += getSizeInBytes( mTextures[ getResourceID( mAllocations[ index ] ) ] );
+        }
+
+        return bytes;
+    }
+
+    public long getBudgetInBytes()
+    {
+        return mBudgetInBytes;
+    }
+
+    /** Allocations of a texture that was resident already. */
+    public int getHitCount()
+    {
+        return mHitCount;
+    }
+
+    /** Allocations that needed the texture to be loaded. */
+    public int getMissCount()
+    {
+        return mMissCount;
+    }
+
+    public int getEvictionCount()
+    {
+        return mEvictionCount;
     }
 
     /**
-     * Returns the texture associated with the passed resource ID.
-     * 
-     * @return the expected index of this key or -1 if the cache is full.
-     */    
-    private int findTextureIndex( int key )
+     * Lists the loaded textures in mAllocations as binding and resource id,
+     * sorted so the textures of one allocation are next to each other.
+     *
+     * @return how many there are.
+     */
+    private int sortResidentByBinding()
     {
-        int startIndex = key % mTextures.length;
+        int count = 0;
         for ( int index = 0; index < mTextures.length; index++ )
         {
-            final int actualIndex = ( startIndex + index ) % mTextures.length;
-            Texture texture = mTextures[ actualIndex ];
-
-            if ( ( texture.getResourceId() == key ) || ( texture.getResourceId() == -1 ) )
-                return actualIndex;
+            if ( mTextures[ index ] != null && mTextures[ index ].isLoaded() )
+                mAllocations[ count++ ] = ( (long) mTextures[ index ].getBindingId() << 32 ) | index;
         }
 
-        return -1;
+        Arrays.sort( mAllocations, 0, count );
+        return count;
+    }
+
+    private static int getBinding( long allocation )
+    {
+        return (int) ( allocation >> 32 );
+    }
+
+    private static int getResourceID( long allocation )
+    {
+        return (int) allocation;
+    }
+
+    private void grow( int minimumCapacity )
+    {
+        final int capacity = Math.max( minimumCapacity, mTextures.length * 2 );
+        mTextures = Arrays.copyOf( mTextures, capacity );
+        mReferenceCounts = Arrays.copyOf( mReferenceCounts, capacity );
+        mReleaseStamps = Arrays.copyOf( mReleaseStamps, capacity );
+        mAllocations = new long[ capacity ];
+        mVictims = new long[ capacity ];
+        mEvicted = new int[ capacity ];
+    }
+
+    private static long getSizeInBytes( Texture texture )
+    {
+        return (long) texture.getBoundWidth() * texture.getBoundHeight() * BYTES_PER_PIXEL;
     }
 }
@@ -1,9 +1,29 @@
 package com.igottashoot.game.primitives;
 
+import com.igottashoot.game.core.CameraViewInfo;
 import com.igottashoot.game.rendering.DrawingCanvas;
+import com.igottashoot.game.rendering.RenderCommandBuffer;
 import com.igottashoot.game.rendering.RendererInfo;
 
 public interface DrawableObject
 {
     public void draw( DrawingCanvas canvas, RendererInfo rendererInfo );
+    
+    /** The texture this will be drawn with, or null. Used to sort draws. */
+    public Texture getTexture();
+    
+    /**
+     * Executed on the game thread, records how this should be drawn.
+     * 
+     * @return the index of the command, or
+     *         {@link RenderCommandBuffer#NO_COMMAND} when there is nothing to
+     *         draw.
+     */
+    public int writeCommand( RenderCommandBuffer buffer, long sortKey );
+    
+    /**
+     * @return true when nothing of this would be visible in the given world
+     *         rectangle, grown by margin on every side.
+     */
+    public boolean isCulled( CameraViewInfo view, float margin );
 }
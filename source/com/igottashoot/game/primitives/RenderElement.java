@@ -1,12 +1,13 @@
 package com.igottashoot.game.primitives;
 
-import com.igottashoot.game.rendering.DrawingCanvas;
-import com.igottashoot.game.rendering.RendererInfo;
+import com.igottashoot.game.rendering.RenderCommandBuffer;
 
 
 public class RenderElement extends BaseObject implements OrderedObject 
 {
     private int mPhase;
+    private long mSortKey;
+    private int mCommandIndex;
     private DrawableObject mDrawable;
     
 //    public float x;
@@ -16,6 +17,7 @@ public class RenderElement extends BaseObject implements OrderedObject
     public RenderElement()
     {
         mPhase = Integer.MAX_VALUE;
+        mCommandIndex = RenderCommandBuffer.NO_COMMAND;
     }
 
 //    private void set(DrawableObject drawable, Vector2 position, int priority, boolean isCameraRelative) {
@@ -58,16 +60,47 @@ public class RenderElement extends BaseObject implements OrderedObject
         mPhase = phase;
     }
 
+    /** See {@link com.igottashoot.game.rendering.RenderSortKey}. */
+    public long getSortKey()
+    {
+        return mSortKey;
+    }
+    
+    public void setSortKey( long sortKey )
+    {
+        mSortKey = sortKey;
+    }
+    
     public void setDrawable( DrawableObject drawable )
     {
         mDrawable = drawable;
     }
     
     /**
-     * TODO: This will eventually have to take camera information. 
+     * Copies what the drawable looks like right now into the frame's command
+     * buffer. The element lets go of the drawable, the render thread only
+     * ever sees the copy.
+     * 
+     * @return false if there is nothing to draw (e.g. the texture isn't
+     *         loaded yet).
      */
-    public void draw( DrawingCanvas canvas, RendererInfo rendererInfo )
+    public boolean writeCommand( RenderCommandBuffer buffer )
+    {
+        mCommandIndex = ( mDrawable != null ) ? mDrawable.writeCommand( buffer, mSortKey ) : RenderCommandBuffer.NO_COMMAND;
+        mDrawable = null;
+        
+        return mCommandIndex != RenderCommandBuffer.NO_COMMAND;
+    }
+    
+    public int getCommandIndex()
+    {
+        return mCommandIndex;
+    }
+    
+    /** For a command that was written on some other element's behalf. */
+    public void setCommandIndex( int commandIndex )
     {
-        mDrawable.draw( canvas, rendererInfo );       
+        mCommandIndex = commandIndex;
+        mDrawable = null;
     }
 }
\ No newline at end of file
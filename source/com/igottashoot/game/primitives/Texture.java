@@ -7,6 +7,13 @@ public class Texture extends BaseObject
     private int mWidth;
     private int mHeight;
     
+    // The part of the bound texture this one covers, the whole of it unless
+    // it was packed into an atlas page.
+    private float mRegionU1;
+    private float mRegionV1;
+    private float mRegionU2;
+    private float mRegionV2;
+    
     private volatile boolean mIsloaded;
 
     public Texture()
@@ -50,6 +57,40 @@ public class Texture extends BaseObject
         return mHeight;
     }
 
+    /** The width of what is bound, the whole atlas page for a region. */
+    public int getBoundWidth()
+    {
+        return Math.round( mWidth / ( mRegionU2 - mRegionU1 ) );
+    }
+    
+    public int getBoundHeight()
+    {
+        return Math.round( mHeight / ( mRegionV2 - mRegionV1 ) );
+    }
+    
+    /**
+     * Set when this texture shares its binding with others on an atlas page.
+     * Texture coordinates given for this texture (0 to 1) are mapped into the
+     * region by {@link #mapU(float)} and {@link #mapV(float)}.
+     */
+    public void setRegion( float u1, float v1, float u2, float v2 )
+    {
+        mRegionU1 = u1;
+        mRegionV1 = v1;
+        mRegionU2 = u2;
+        mRegionV2 = v2;
+    }
+    
+    public float mapU( float u )
+    {
+        return mRegionU1 + u * ( mRegionU2 - mRegionU1 );
+    }
+    
+    public float mapV( float v )
+    {
+        return mRegionV1 + v * ( mRegionV2 - mRegionV1 );
+    }
+    
     public boolean isLoaded()
     {
         return mIsloaded;
@@ -68,5 +109,6 @@ public class Texture extends BaseObject
         mIsloaded = false;
         mHeight = 0;
         mWidth = 0;
+        setRegion( 0f, 0f, 1f, 1f );
     }    
 }
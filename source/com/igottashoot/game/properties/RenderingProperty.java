@@ -3,7 +3,8 @@ package com.igottashoot.game.properties;
 import com.igottashoot.game.managers.GameObject;
 import com.igottashoot.game.primitives.BaseObject;
 import com.igottashoot.game.primitives.DrawableObject;
-import com.igottashoot.game.primitives.RenderElement;
+import com.igottashoot.game.primitives.Texture;
+import com.igottashoot.game.rendering.RenderSortKey;
 
 public class RenderingProperty extends BaseObject implements GameObjectProperty
 {
@@ -36,14 +37,14 @@ public class RenderingProperty extends BaseObject implements GameObjectProperty
         }
     }
     
-    private static final int TEXTURE_SORT_BUCKET_SIZE = 1000;
-    
     private DrawableObject mDrawable;
     private RenderPropertyPriority mDrawablePriority;
+    private boolean mIsDirty;
     
     public RenderingProperty()
     {
         mDrawablePriority = RenderPropertyPriority.BACKGROUND_START;
+        mIsDirty = false;
     }
     
     @Override
@@ -52,13 +53,13 @@ public class RenderingProperty extends BaseObject implements GameObjectProperty
         if ( mDrawable == null )
             return;
 
-        RenderElement renderElement = parent.getRegistry().allocateRenderElement();
-        if ( renderElement == null )
-            return;
-
-        renderElement.setPriority( calculateRenderElementPriority( mDrawablePriority ) );
-        renderElement.setDrawable( mDrawable );
-        parent.getRegistry().scheduleForDraw( renderElement );
+        if ( mIsDirty )
+        {
+            parent.getRegistry().markCachedLayersDirty();
+            mIsDirty = false;
+        }
+        
+        parent.getRegistry().scheduleForDraw( mDrawable, calculateSortKey( mDrawablePriority, mDrawable ) );
     }
 
     @Override
@@ -67,6 +68,16 @@ public class RenderingProperty extends BaseObject implements GameObjectProperty
         return PropertyExecutionPhase.DRAW.getPhase();
     }
     
+    /**
+     * For a drawable on a cached layer that changed in a way its position,
+     * size and texture coordinates don't show (the texture's pixels were
+     * replaced). The layer is redrawn from the next update on.
+     */
+    public void markDirty()
+    {
+        mIsDirty = true;
+    }
+    
     public void setDrawablePriority( RenderPropertyPriority priority )
     {
         mDrawablePriority = priority;
@@ -77,17 +88,15 @@ public class RenderingProperty extends BaseObject implements GameObjectProperty
         mDrawable = drawable;
     }
     
-    private static int calculateRenderElementPriority( RenderPropertyPriority priority )
+    /**
+     * Draws are grouped by texture within their layer, textures on the same
+     * atlas page share a binding and so group together too.
+     */
+    private static long calculateSortKey( RenderPropertyPriority priority, DrawableObject drawable )
     {
-        final int sortBucket = priority.getPriority() * TEXTURE_SORT_BUCKET_SIZE;
-        int sortOffset = 0;
-//        if (drawable != null) {
-//            Texture tex = drawable.getTexture();
-//            if (tex != null) {
-//                sortOffset = (tex.resource % TEXTURE_SORT_BUCKET_SIZE) * Utils.sign(priority);
-//            }
-//        }
+        final Texture texture = drawable.getTexture();
+        final int binding = ( texture != null && texture.isLoaded() ) ? texture.getBindingId() : -1;
         
-        return sortBucket + sortOffset;
+        return RenderSortKey.pack( priority.getPriority(), RenderSortKey.BLEND_PREMULTIPLIED_ALPHA, binding );
     }
 }
\ No newline at end of file
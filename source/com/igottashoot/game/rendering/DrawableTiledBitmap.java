@@ -5,56 +5,44 @@ import com.igottashoot.game.primitives.BaseObject;
 import com.igottashoot.game.primitives.Texture;
 import com.igottashoot.game.rendering.bitmap.DrawableBitmap;
 
+/**
+ * Shows the tile of a {@link TileSheet} the animation frame asks for. Take the
+ * sheet from the level loader, so sprites with the same tiles share it.
+ */
 public class DrawableTiledBitmap extends BaseObject implements DrawableBitmapAnimationResolver
 {
-    private int mNumberOfTileRows;
-    private int mNumberOfTileColumns;
-    private int mTileCount;
+    private final TileSheet mTileSheet;
 
-    public DrawableTiledBitmap( int rowTileSize, int columnTileSize )
+    public DrawableTiledBitmap( TileSheet tileSheet )
     {
-        mNumberOfTileRows = rowTileSize;
-        mNumberOfTileColumns = columnTileSize;
-        mTileCount = rowTileSize * columnTileSize;        
+        mTileSheet = tileSheet;
+    }
+
+    public TileSheet getTileSheet()
+    {
+        return mTileSheet;
     }
 
     @Override
     public void resolve( DrawableBitmap bitmap, Texture texture, AnimationFrame animationFrame )
     {
-        if ( texture == null || ! texture.isLoaded() )
-            throw new IllegalStateException(); 
+        final float[] textureVertices = mTileSheet.getTextureVertices( texture );
         
         int tileIndex = animationFrame.getTileIndex();
         
         if ( tileIndex == -1 )
             throw new IllegalStateException();
 
-        if( tileIndex >= mTileCount )
+        if( tileIndex >= mTileSheet.getTileCount() )
             throw new IllegalStateException();
         
-        setCurrentTileIndex( tileIndex % mNumberOfTileColumns, tileIndex / mNumberOfTileColumns, bitmap, texture );
-    }
-
-    private void setCurrentTileIndex( final int tileColumn, final int tileRow, final DrawableBitmap bitmap, Texture texture )
-    {
-        float tileWidth = texture.getWidth() / mNumberOfTileColumns;
-        float tileHeight = texture.getHeight() / mNumberOfTileRows;
-        
-        float tileX1 = tileWidth * tileColumn;
-        float tileY1 = tileHeight * tileRow;
-        
-        float tileX2 = tileX1 + tileHeight;
-        float tileY2 = tileY1 + tileWidth;
-        
-        tileX1 /= texture.getWidth();
-        tileX2 /= texture.getWidth();
-        tileY1 /= texture.getHeight();
-        tileY2 /= texture.getHeight();
-        
         // TODO: You can change these values based on the direction the sprite
-        // is facing. Moreover, we could cache these values (given that they
-        // shouldn't really change).
-       bitmap.setTextureVertex( tileX1, tileY1, tileX2, tileY2 );
-       bitmap.setTexture( texture );
+        // is facing.
+        final int offset = tileIndex * TileSheet.VERTEX_STRIDE;
+        bitmap.setTextureVertex( textureVertices[ offset ],
+                                 textureVertices[ offset + 1 ],
+                                 textureVertices[ offset + 2 ],
+                                 textureVertices[ offset + 3 ] );
+        bitmap.setTexture( texture );
     }
 }
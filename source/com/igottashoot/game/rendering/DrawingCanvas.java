@@ -9,5 +9,12 @@ public interface DrawingCanvas
     public void end();
     public void clear();
     public void draw( Texture texture, DrawableObjectInfo drawableObjectInfo );
+    public void draw( int textureResourceId, DrawableObjectInfo drawableObjectInfo );
     public void handleLoadedTextures( Object[] loadTextures );
+    
+    /**
+     * Frees whatever the canvas holds for the resource, the texture was
+     * evicted. Does nothing when it holds nothing.
+     */
+    public void releaseTexture( int textureResourceId );
 }
@@ -1,31 +1,42 @@
 package com.igottashoot.game.rendering;
 
+import java.util.Arrays;
+
 import com.igottashoot.game.core.CameraViewInfo;
-import com.igottashoot.game.managers.OrderedObjectManager;
+import com.igottashoot.game.core.MessageBus;
+import com.igottashoot.game.core.MessageBus.MessageHandler;
+import com.igottashoot.game.core.MessageType;
+import com.igottashoot.game.managers.RenderQueue;
 import com.igottashoot.game.primitives.BaseObject;
 import com.igottashoot.game.primitives.RenderElement;
-import com.igottashoot.game.utilities.GameUtilities;
+import com.igottashoot.game.utilities.FrameProfiler;
+import com.igottashoot.game.utilities.ProfilerScope;
 
 /**
  * This class is accessed by two threads, the drawing thread, and the game
  * thread, i.e. this is a shared resource.
  */
-public class GameRenderer extends BaseObject implements GameThreadInterface, DrawThreadInterface
+public class GameRenderer extends BaseObject implements GameThreadInterface, DrawThreadInterface, MessageHandler
 {
+    private static final int MESSAGE_BUS_CAPACITY = 64;
+    
     private final DefaultRendererInfo mRendererInfo;
-    private final Object mDrawQueueChangedLock;
-    private final Object mRenderQueueLock;
-    private final Object mTextureLoaderLock;
-    private final RendererFpsTracker mFpsTracker;
+    private final RenderFrameExchange mFrameExchange;
+    private final MessageBus mMessageBus;
+    private final TextureUploadScheduler mUploadScheduler;
+    private final FrameProfiler mProfiler;
+    private final ProfilerScope mWaitScope;
+    private final ProfilerScope mTextureLoadScope;
+    private final ProfilerScope mSubmitScope;
     
-    private volatile boolean mDrawQueueChanged;
-    private OrderedObjectManager<RenderElement> mRenderQueue;
-    private TextureLoader mTextureLoader;
+    private DrawingCanvas mCanvas;
+    private RenderLayerCache[] mLayerCaches;
 
     public GameRenderer( final int desiredWidth,
                          final int desiredHeight,
                          final int actualScreenWidth,
-                         final int actualScreenHeight ) 
+                         final int actualScreenHeight,
+                         final RenderFrameExchange frameExchange ) 
     {
         // Option 1
         // we're use the height given to us, but maintain the aspect ratio of
@@ -62,17 +73,19 @@ public class GameRenderer extends BaseObject implements GameThreadInterface, Dra
         
         mRendererInfo = new DefaultRendererInfo( renderWidth, renderHeight );
         
-        mDrawQueueChangedLock = new Object();
-        mRenderQueueLock = new Object();
-        mTextureLoaderLock = new Object();
+        mFrameExchange = frameExchange;
+        mMessageBus = new MessageBus( MESSAGE_BUS_CAPACITY );
+        mUploadScheduler = new TextureUploadScheduler();
         
-        mDrawQueueChanged = true;
-        mRenderQueue = null;
-        mTextureLoader = null;
+        mCanvas = null;
+        mLayerCaches = new RenderLayerCache[ 0 ];
 
         mRendererInfo.getCameraViewInfo().setWorldSize( 0, mRendererInfo.getRenderWidth(), 0, mRendererInfo.getRenderHeight() );
         
-        mFpsTracker = new RendererFpsTracker( 3000 );
+        mProfiler = new FrameProfiler( "Render Thread" );
+        mWaitScope = mProfiler.getRootScope().getChild( "frame wait" );
+        mTextureLoadScope = mProfiler.getRootScope().getChild( "texture loads" );
+        mSubmitScope = mProfiler.getRootScope().getChild( "draw submit" );
     }
     
     // GameThreadInterface related methods
@@ -81,39 +94,70 @@ public class GameRenderer extends BaseObject implements GameThreadInterface, Dra
     {
         return mRendererInfo;
     }
-
-    @Override
-    public void setDrawQueue( OrderedObjectManager<RenderElement> renderQueue, CameraViewInfo cameraViewInfo )
+    
+    /** Timings of the render thread, can be queried from any thread. */
+    public FrameProfiler getFrameProfiler()
     {
-        synchronized( mRenderQueueLock )
-        {
-            mRenderQueue = renderQueue;
-            mRendererInfo.getCameraViewInfo().updateInfo( cameraViewInfo );
-            
-            synchronized( mDrawQueueChangedLock )
-            {
-                mDrawQueueChanged = true;
-                mDrawQueueChangedLock.notify();
-            }
-        }
+        return mProfiler;
     }
 
-    @Override
-    public void waitForDrawingToComplete()
+    /**
+     * Limits the texture uploads done in a frame, see
+     * {@link TextureUploadScheduler#setBudget(long, long)}. Must be called
+     * before the render thread starts drawing.
+     */
+    public void setTextureUploadBudget( long bytesPerFrame, long nanosPerFrame )
     {
-        synchronized( mRenderQueueLock )
-        {
-            
-        }
+        mUploadScheduler.setBudget( bytesPerFrame, nanosPerFrame );
+    }
+    
+    /**
+     * How far the textures scheduled for loading are uploaded, from 0 to 1.
+     * Can be queried from any thread, e.g. by a loading screen.
+     */
+    public float getTextureUploadProgress()
+    {
+        return mUploadScheduler.getProgress();
+    }
+    
+    /**
+     * The elements of this layer (a render priority) are drawn into an image
+     * once and the image is drawn in their place until they change. Only has
+     * an effect on canvases that are {@link LayerCachingCanvas}es. Must be
+     * called before the render thread starts drawing.
+     */
+    public void addCachedLayer( int layer )
+    {
+        final int slot = mLayerCaches.length;
+        mLayerCaches = Arrays.copyOf( mLayerCaches, slot + 1 );
+        mLayerCaches[ slot ] = new RenderLayerCache( layer, slot );
+    }
+    
+    /** Times a cached layer was drawn from its image, over all layers. */
+    public int getLayerCacheHitCount()
+    {
+        int hits = 0;
+        for ( int index = 0; index < mLayerCaches.length; index++ )
+            hits += mLayerCaches[ index ].getHitCount();
+        
+        return hits;
+    }
+    
+    /** Times a cached layer's image was drawn again, over all layers. */
+    public int getLayerCacheCaptureCount()
+    {
+        int captures = 0;
+        for ( int index = 0; index < mLayerCaches.length; index++ )
+            captures += mLayerCaches[ index ].getCaptureCount();
+        
+        return captures;
     }
 
+    /** Waits while the bus is full, i.e. until the draw thread catches up. */
     @Override
     public void scheduleTextureLoad( TextureLoader textureLoader )
     {
-        synchronized ( mTextureLoaderLock )
-        {
-            mTextureLoader = textureLoader;
-        }
+        mMessageBus.post( MessageType.LOAD_TEXTURES, textureLoader );
     }
     
     // DrawingThreadInterface related methods
@@ -151,84 +195,127 @@ public class GameRenderer extends BaseObject implements GameThreadInterface, Dra
     @Override
     public void onDraw( DrawingCanvas canvas )
     {
-        int renderedCount = 0;
-        mFpsTracker.startRender();
+        mProfiler.beginFrame();
         
-        synchronized( mDrawQueueChangedLock )
-        {
-            waitForQueueToChange();
-        }
+        // Never waits for the game thread: we either get a newly published
+        // frame or draw the last one again.
+        mProfiler.begin( mWaitScope );
+        final RenderFrame frame = mFrameExchange.acquireForReading();
+        mProfiler.end( mWaitScope );
         
-        mFpsTracker.endWait();
+        // load textures here, as many as the frame's budget allows; a level
+        // is only told it was loaded once the last of its textures is
+        mProfiler.begin( mTextureLoadScope );
+        mCanvas = canvas;
+        mMessageBus.drain( this, 0 );
+        mCanvas = null;
+        mUploadScheduler.update( canvas );
+        mProfiler.end( mTextureLoadScope );
         
-        // load textures here
-        synchronized ( mTextureLoaderLock )
+        if ( frame != null )
         {
-            loadTextures( canvas );
+            // may have moved on since the frame was published, the game
+            // thread doesn't run a step every frame
+            final float interpolationAlpha = mFrameExchange.getInterpolationAlpha( frame );
+            
+            // the camera follows the interpolated sprites, a view that moved
+            // in whole steps would make them jitter against it
+            mRendererInfo.getCameraViewInfo().interpolate( frame.getPreviousCameraViewInfo(),
+                                                           frame.getCameraViewInfo(),
+                                                           interpolationAlpha );
+            mRendererInfo.setInterpolationAlpha( interpolationAlpha );
         }
         
         // prepare rendering
+        mProfiler.begin( mSubmitScope );
         canvas.start( mRendererInfo.getCameraViewInfo() );
+        canvas.clear();
         
-        synchronized ( mRenderQueueLock )
-        {
-            canvas.clear();
-            if ( mRenderQueue != null && mRenderQueue.getCount() > 0 )
-                renderedCount = draw( canvas, mRenderQueue, mRendererInfo );
-        }
+        if ( frame != null && frame.getRenderQueue().getCount() > 0 )
+            draw( canvas, frame, mRendererInfo, mLayerCaches );
         
         canvas.end();
+        mProfiler.end( mSubmitScope );
         
-        mFpsTracker.endRender( renderedCount );
+        mProfiler.endFrame();
     }
 
     /**
-     * Executed while holding the texture lock
+     * Executed on the render thread, while draining the message bus
      */
-    private void loadTextures( DrawingCanvas canvas )
+    @Override
+    public void handleMessage( MessageType type, Object payload )
     {
-        if ( mTextureLoader != null )
-            mTextureLoader.load( canvas );
-
-        mTextureLoader = null;
+        if ( type != MessageType.LOAD_TEXTURES )
+            throw new IllegalStateException( "The renderer can't handle message " + type );
+        
+        mUploadScheduler.add( (TextureLoader) payload, mCanvas );
     }
 
     /**
-     * Executed with the render queue lock 
+     * Executed on the render thread, which owns the frame's queue and commands
+     * until it acquires the next one. Nothing the game thread still changes is
+     * read here.
      * @param rendererInfo 
-     * @param renderQueue 
+     * @param frame 
+     * @param layerCaches 
      * @return the number of elements drawn
      */
     private static int draw( final DrawingCanvas canvas,
-                             final OrderedObjectManager<RenderElement> renderQueue,
-                             final DefaultRendererInfo rendererInfo )
+                             final RenderFrame frame,
+                             final DefaultRendererInfo rendererInfo,
+                             final RenderLayerCache[] layerCaches )
     {
+        final RenderQueue renderQueue = frame.getRenderQueue();
+        final RenderCommandBuffer commands = frame.getCommandBuffer();
         final int count = renderQueue.getCount();
+        final LayerCachingCanvas layerCanvas = 
+            ( layerCaches.length > 0 && canvas instanceof LayerCachingCanvas ) ? (LayerCachingCanvas) canvas : null;
         
-        for ( int index = 0; index < count; index++ )
+        int index = 0;
+        while ( index < count )
         {
+            if ( layerCanvas != null )
+            {
+                // the queue is sorted by layer first, a layer's elements are
+                // next to each other
+                final int layer = RenderSortKey.getLayer( renderQueue.getKey( index ) );
+                final RenderLayerCache layerCache = findLayerCache( layerCaches, layer );
+                
+                int end = index + 1;
+                while ( end < count && RenderSortKey.getLayer( renderQueue.getKey( end ) ) == layer )
+                    end++;
+                
+                if ( layerCache != null )
+                {
+                    layerCache.draw( layerCanvas, canvas, frame, index, end, rendererInfo );
+                    index = end;
+                    continue;
+                }
+                
+                for ( ; index < end; index++ )
+                    commands.draw( canvas, renderQueue.get( index ).getCommandIndex(), rendererInfo );
+                continue;
+            }
+            
             RenderElement renderElement = renderQueue.get( index );
-            renderElement.draw( canvas, rendererInfo );
+            commands.draw( canvas, renderElement.getCommandIndex(), rendererInfo );
+            index++;
         }
         return count;
     }
-
-    /**
-     * Executed with the draw queue changed lock
-     */
-    private void waitForQueueToChange()
+    
+    private static RenderLayerCache findLayerCache( RenderLayerCache[] layerCaches, int layer )
     {
-        if ( mDrawQueueChanged == false )
+        for ( int index = 0; index < layerCaches.length; index++ )
         {
-            while ( mDrawQueueChanged == false )
-            {
-                try { mDrawQueueChangedLock.wait(); } catch ( InterruptedException ignore ) {}
-            }
+            if ( layerCaches[ index ].getLayer() == layer )
+                return layerCaches[ index ];
         }
-
-        mDrawQueueChanged = false;
+        
+        return null;
     }
-    
+
     private static final class DefaultRendererInfo extends BaseObject implements RendererInfo
     {
         private final int mRenderHeight;
@@ -240,6 +327,7 @@ public class GameRenderer extends BaseObject implements GameThreadInterface, Dra
         private float mScaleY;
         private float mInverseScaleX;
         private float mInverseScaleY;
+        private float mInterpolationAlpha;
         
         public DefaultRendererInfo( int renderWidth, int renderHeight )
         {
@@ -253,6 +341,7 @@ public class GameRenderer extends BaseObject implements GameThreadInterface, Dra
             mScaleY = 1.0f;
             mInverseScaleX = 1.0f;
             mInverseScaleY = 1.0f;
+            mInterpolationAlpha = 1.0f;
         }
         
         @Override
@@ -320,85 +409,16 @@ public class GameRenderer extends BaseObject implements GameThreadInterface, Dra
         {
             return mCameraViewInfo;
         }
-    }
-    
-    private static final class RendererFpsTracker extends BaseObject
-    {
-        private final int mReportDelayTime;
-        private long mLastTime;
-        private long mCurrentTIme;
-        private long mCurrentTimeDelta;
-        private long mCurrentWaitTime;
-        private long mProfileFrameTime;
-        private long mProfileSubmitTime;
-        private long mProfileWaitTime;
-        private int mProfileFrames;
-        private int mProfileObjectCount;
-        
-        public RendererFpsTracker( int reportDelayTime )
-        {
-            mReportDelayTime = reportDelayTime;
-            
-            mLastTime = 0;
-            mCurrentTIme = 0;
-            mCurrentTimeDelta = 0;
-            mCurrentWaitTime = 0;
-            
-            reset();
-        }
         
         @Override
-        public void reset()
-        {
-            mProfileFrames = 0;
-            mProfileFrameTime = 0;
-            mProfileSubmitTime = 0;
-            mProfileWaitTime = 0;
-            mProfileObjectCount = 0;
-        }
-        
-        public void startRender()
-        {
-            mCurrentTIme = GameUtilities.getCurrentTimeInMillis();
-            mCurrentTimeDelta = mCurrentTIme - mLastTime;
-        }
-        
-        public void endWait()
+        public float getInterpolationAlpha()
         {
-            mCurrentWaitTime = GameUtilities.getCurrentTimeInMillis();
+            return mInterpolationAlpha;
         }
         
-        public void endRender( int renderedCount )
+        public void setInterpolationAlpha( float interpolationAlpha )
         {
-            long time = GameUtilities.getCurrentTimeInMillis();
-            mLastTime = time;
-            
-            mProfileObjectCount += renderedCount;
-            mProfileFrameTime += mCurrentTimeDelta;
-            mProfileSubmitTime += time - mCurrentTIme;
-            mProfileWaitTime += mCurrentWaitTime - mCurrentTIme;
-            mProfileFrames++;
-            
-            if ( mProfileFrameTime > mReportDelayTime )
-            {
-                final int validFrames = mProfileFrames;
-                final long averageFrameTime = mProfileFrameTime / validFrames;
-                final long averageSubmitTime = mProfileSubmitTime / validFrames;
-                final float averageObjectsPerFrame = (float)mProfileObjectCount / validFrames;
-                final long averageWaitTime = mProfileWaitTime / validFrames;
-
-                String message = "Average Submit: " + averageSubmitTime + "  Average Draw: "
-                                 + averageFrameTime + " Objects/Frame: " + averageObjectsPerFrame
-                                 + " Wait Time: " + averageWaitTime;
-                
-//                GameUtilities.print( "Render Profile", 0, message );
-                
-                reset();
-            }
-            
-            mCurrentTIme = 0;
-            mCurrentTimeDelta = 0;
-            mCurrentWaitTime = 0;
+            mInterpolationAlpha = interpolationAlpha;
         }
     }
 }
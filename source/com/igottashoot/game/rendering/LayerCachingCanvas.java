@@ -0,0 +1,33 @@
+package com.igottashoot.game.rendering;
+
+/**
+ * A canvas that can draw a layer into an offscreen image once and then draw
+ * that image, as a single quad, in place of the layer's sprites. Layers are
+ * known by a slot number, given out by the renderer. Coordinates are the same
+ * as the vertices of {@link DrawableObjectInfo}, i.e. already scaled to the
+ * render surface.
+ *
+ * Only used on the render thread, between start() and end().
+ */
+public interface LayerCachingCanvas
+{
+    /**
+     * Everything drawn until {@link #endLayer(int)} goes into the slot's image,
+     * which covers the given box and starts out transparent.
+     *
+     * @return false when the canvas can't cache this layer (too large, no
+     *         offscreen rendering); nothing was changed and the layer has to
+     *         be drawn as usual.
+     */
+    public boolean beginLayer( int slot, float left, float bottom, float right, float top );
+
+    public void endLayer( int slot );
+
+    /**
+     * Draws the slot's image where it was captured.
+     *
+     * @return false when there is no usable image (never captured, lost with
+     *         the context, captured at another scale), nothing was drawn.
+     */
+    public boolean drawLayer( int slot );
+}
@@ -0,0 +1,106 @@
+package com.igottashoot.game.rendering;
+
+import com.igottashoot.game.core.CameraViewInfo;
+import com.igottashoot.game.primitives.BaseObject;
+import com.igottashoot.game.primitives.Texture;
+
+/**
+ * A canvas that draws nothing, for running the game without a display. It
+ * also stands in for the texture loader: textures are marked as loaded without
+ * their images ever being read.
+ */
+public class NullDrawingCanvas extends BaseObject implements DrawingCanvas, TextureLoadingHandler
+{
+    private long mFrameCount;
+    private long mDrawCount;
+    
+    public NullDrawingCanvas()
+    {
+        reset();
+    }
+    
+    @Override
+    public void reset()
+    {
+        mFrameCount = 0;
+        mDrawCount = 0;
+    }
+    
+    @Override
+    public void start( CameraViewInfo cameraViewInfo )
+    {
+        
+    }
+
+    @Override
+    public void end()
+    {
+        mFrameCount++;
+    }
+
+    @Override
+    public void clear()
+    {
+        
+    }
+
+    @Override
+    public void draw( Texture texture, DrawableObjectInfo drawableObjectInfo )
+    {
+        mDrawCount++;
+    }
+    
+    @Override
+    public void draw( int textureResourceId, DrawableObjectInfo drawableObjectInfo )
+    {
+        mDrawCount++;
+    }
+
+    /**
+     * Executed on the IoThread
+     */
+    @Override
+    public Object[] loadTextures( Texture[] textures )
+    {
+        Object[] result = new Object[ textures.length ];
+        for ( int index = 0; index < textures.length; index++ )
+        {
+            final Texture texture = textures[ index ];
+            if ( ! texture.isLoaded() && texture.getResourceId() != -1 )
+                result[ index ] = texture;
+        }
+        
+        return result;
+    }
+    
+    @Override
+    public void handleLoadedTextures( Object[] loadTextures )
+    {
+        for ( int index = 0; index < loadTextures.length; index++ )
+        {
+            if ( loadTextures[ index ] == null )
+                continue;
+            
+            Texture texture = (Texture) loadTextures[ index ];
+            // every texture is its own allocation
+            texture.setBindingName( texture.getResourceId() );
+            texture.setSize( 1, 1 );
+            texture.setLoaded( true );
+        }
+    }
+    
+    @Override
+    public void releaseTexture( int textureResourceId )
+    {
+    }
+    
+    public long getFrameCount()
+    {
+        return mFrameCount;
+    }
+    
+    public long getDrawCount()
+    {
+        return mDrawCount;
+    }
+}
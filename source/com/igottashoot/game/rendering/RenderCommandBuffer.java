@@ -0,0 +1,257 @@
+package com.igottashoot.game.rendering;
+
+import java.util.Arrays;
+
+import com.igottashoot.game.primitives.BaseObject;
+import com.igottashoot.game.rendering.bitmap.DefaultDrawableObjectInfo;
+
+/**
+ * The draw data of one frame, copied out of the drawables when they're
+ * scheduled. The game thread is free to move its sprites around while the
+ * render thread draws an older frame: the render thread only ever reads these
+ * arrays, never a live object.
+ * 
+ * Every command is a texture (by resource id), a sort key and a flat run of
+ * floats: the quad in world units (x, y, width, height), where it was the step
+ * before (previous x, y), its texture coordinates (u1, v1, u2, v2, already
+ * mapped into an atlas region) and its opacity. The quad is drawn between its
+ * previous and current position, by the frame's interpolation alpha, so
+ * motion stays smooth when the simulation steps slower than the display.
+ * The buffer belongs to a {@link RenderFrame}, and so to whichever thread
+ * owns that frame; several threads can fill it at once through buffers
+ * writing into disjoint ranges of it, see {@link #writeInto}.
+ */
+public class RenderCommandBuffer extends BaseObject
+{
+    public static final int NO_COMMAND = -1;
+    
+    /**
+     * The floats {@link #resolve(int, float, float[], int)} writes per
+     * command: texture, x, y, width, height, u1, v1, u2, v2 and opacity.
+     */
+    public static final int RESOLVED_STRIDE = 10;
+    
+    private static final int X = 0;
+    private static final int Y = 1;
+    private static final int WIDTH = 2;
+    private static final int HEIGHT = 3;
+    private static final int U1 = 4;
+    private static final int V1 = 5;
+    private static final int U2 = 6;
+    private static final int V2 = 7;
+    private static final int OPACITY = 8;
+    private static final int PREVIOUS_X = 9;
+    private static final int PREVIOUS_Y = 10;
+    private static final int STRIDE = 11;
+    
+    // Only used on the render thread
+    private static final DefaultDrawableObjectInfo DRAWABLE_INFO = new DefaultDrawableObjectInfo();
+    
+    private float[] mData;
+    private int[] mTextures;
+    private long[] mSortKeys;
+    private int mCount;
+    
+    // the end of the range written into, -1 when the arrays are our own
+    private int mLimit;
+    
+    public RenderCommandBuffer( int initialCapacity )
+    {
+        final int capacity = Math.max( 1, initialCapacity );
+        mData = new float[ capacity * STRIDE ];
+        mTextures = new int[ capacity ];
+        mSortKeys = new long[ capacity ];
+        mCount = 0;
+        mLimit = -1;
+    }
+    
+    @Override
+    public void reset()
+    {
+        mCount = 0;
+    }
+    
+    /**
+     * Sets commands aside, to be written through {@link #writeInto}. Until
+     * they are, they hold whatever was there before and mustn't be drawn.
+     * 
+     * @return the index of the first one.
+     */
+    public int reserve( int count )
+    {
+        if ( mLimit != -1 )
+            throw new IllegalStateException( "Can't reserve in a range of another buffer" );
+        
+        while ( mCount + count > mTextures.length )
+            grow();
+        
+        final int start = mCount;
+        mCount += count;
+        return start;
+    }
+    
+    /**
+     * From now on, this buffer adds its commands to the target's reserved
+     * range, with the target's indices, and fails once the range is full.
+     * The target mustn't grow meanwhile.
+     */
+    public void writeInto( RenderCommandBuffer target, int start, int count )
+    {
+        if ( start < 0 || start + count > target.mCount )
+            throw new IllegalArgumentException( "The range isn't reserved" );
+        
+        mData = target.mData;
+        mTextures = target.mTextures;
+        mSortKeys = target.mSortKeys;
+        mCount = start;
+        mLimit = start + count;
+    }
+    
+    /**
+     * @return the index of the new command.
+     */
+    public int add( int textureResourceId,
+                    long sortKey,
+                    float x,
+                    float y,
+                    float previousX,
+                    float previousY,
+                    float width,
+                    float height,
+                    float u1,
+                    float v1,
+                    float u2,
+                    float v2,
+                    float opacity )
+    {
+        if ( mCount == mTextures.length || mCount == mLimit )
+            grow();
+        
+        final int command = mCount++;
+        final int offset = command * STRIDE;
+        final float[] data = mData;
+        data[ offset + X ] = x;
+        data[ offset + Y ] = y;
+        data[ offset + WIDTH ] = width;
+        data[ offset + HEIGHT ] = height;
+        data[ offset + U1 ] = u1;
+        data[ offset + V1 ] = v1;
+        data[ offset + U2 ] = u2;
+        data[ offset + V2 ] = v2;
+        data[ offset + OPACITY ] = opacity;
+        data[ offset + PREVIOUS_X ] = previousX;
+        data[ offset + PREVIOUS_Y ] = previousY;
+        mTextures[ command ] = textureResourceId;
+        mSortKeys[ command ] = sortKey;
+        
+        return command;
+    }
+    
+    /**
+     * Appends a command of another buffer.
+     * 
+     * @return the index of the new command.
+     */
+    public int copy( RenderCommandBuffer source, int command )
+    {
+        if ( mCount == mTextures.length || mCount == mLimit )
+            grow();
+        
+        final int copy = mCount++;
+        System.arraycopy( source.mData, command * STRIDE, mData, copy * STRIDE, STRIDE );
+        mTextures[ copy ] = source.mTextures[ command ];
+        mSortKeys[ copy ] = source.mSortKeys[ command ];
+        
+        return copy;
+    }
+    
+    public int getCount()
+    {
+        return mCount;
+    }
+    
+    public int getTexture( int command )
+    {
+        return mTextures[ command ];
+    }
+    
+    public long getSortKey( int command )
+    {
+        return mSortKeys[ command ];
+    }
+    
+    /**
+     * Executed on the render thread. The quad is interpolated and scaled from
+     * world units to the render surface here, with the alpha and scale of the
+     * frame being drawn.
+     */
+    public void draw( DrawingCanvas canvas, int command, RendererInfo rendererInfo )
+    {
+        final int offset = command * STRIDE;
+        final float[] data = mData;
+        final float scaleX = rendererInfo.getScaleX();
+        final float scaleY = rendererInfo.getScaleY();
+        final float alpha = rendererInfo.getInterpolationAlpha();
+        
+        final float x = interpolate( data[ offset + PREVIOUS_X ], data[ offset + X ], alpha );
+        final float y = interpolate( data[ offset + PREVIOUS_Y ], data[ offset + Y ], alpha );
+        
+        DRAWABLE_INFO.set( x * scaleX,
+                           y * scaleY,
+                           data[ offset + WIDTH ] * scaleX,
+                           data[ offset + HEIGHT ] * scaleY,
+                           data[ offset + U1 ], data[ offset + V1 ], data[ offset + U2 ], data[ offset + V2 ],
+                           data[ offset + OPACITY ] );
+        
+        canvas.draw( mTextures[ command ], DRAWABLE_INFO );
+    }
+    
+    /**
+     * Writes what {@link #draw(DrawingCanvas, int, RendererInfo)} would draw
+     * with the given alpha, in world units. Two commands that resolve to the
+     * same values draw the same pixels.
+     */
+    public void resolve( int command, float interpolationAlpha, float[] resolved, int resolvedOffset )
+    {
+        final int offset = command * STRIDE;
+        final float[] data = mData;
+        
+        resolved[ resolvedOffset ] = mTextures[ command ];
+        resolved[ resolvedOffset + 1 ] = interpolate( data[ offset + PREVIOUS_X ], data[ offset + X ], interpolationAlpha );
+        resolved[ resolvedOffset + 2 ] = interpolate( data[ offset + PREVIOUS_Y ], data[ offset + Y ], interpolationAlpha );
+        resolved[ resolvedOffset + 3 ] = data[ offset + WIDTH ];
+        resolved[ resolvedOffset + 4 ] = data[ offset + HEIGHT ];
+        resolved[ resolvedOffset + 5 ] = data[ offset + U1 ];
+        resolved[ resolvedOffset + 6 ] = data[ offset + V1 ];
+        resolved[ resolvedOffset + 7 ] = data[ offset + U2 ];
+        resolved[ resolvedOffset + 8 ] = data[ offset + V2 ];
+        resolved[ resolvedOffset + 9 ] = data[ offset + OPACITY ];
+    }
+    
+    /** Whether the command's quad is somewhere else the step before. */
+    public boolean isMoving( int command )
+    {
+        final int offset = command * STRIDE;
+        return mData[ offset + PREVIOUS_X ] != mData[ offset + X ] || mData[ offset + PREVIOUS_Y ] != mData[ offset + Y ];
+    }
+    
+    /**
+     * Snapped to whole world units after interpolating, as DrawableBitmap
+     * always did, so sprites don't shimmer.
+     */
+    private static float interpolate( float previous, float current, float alpha )
+    {
+        return (int) ( previous + ( current - previous ) * alpha );
+    }
+    
+    private void grow()
+    {
+        if ( mLimit != -1 )
+            throw new IllegalStateException( "The command range is full" );
+        
+        final int capacity = mTextures.length * 2;
+        mData = Arrays.copyOf( mData, capacity * STRIDE );
+        mTextures = Arrays.copyOf( mTextures, capacity );
+        mSortKeys = Arrays.copyOf( mSortKeys, capacity );
+    }
+}
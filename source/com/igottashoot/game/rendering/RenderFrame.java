@@ -0,0 +1,113 @@
+package com.igottashoot.game.rendering;
+
+import com.igottashoot.game.core.CameraViewInfo;
+import com.igottashoot.game.managers.RenderQueue;
+import com.igottashoot.game.primitives.BaseObject;
+
+/**
+ * Everything the render thread needs to draw one frame: the draw queue, the
+ * draw commands it points into and the camera it was built for, along with
+ * the camera of the step before, to blend with. Frames are handed between the
+ * game thread and the render thread through a {@link RenderFrameExchange},
+ * and are only ever touched by the thread that currently owns them.
+ */
+public class RenderFrame extends BaseObject
+{
+    private final RenderQueue mRenderQueue;
+    private final RenderCommandBuffer mCommandBuffer;
+    private final CameraViewInfo mCameraViewInfo;
+    private final CameraViewInfo mPreviousCameraViewInfo;
+    
+    private int mIndex;
+    private long mSequence;
+    private float mInterpolationAlpha;
+    private long mLayerVersion;
+    
+    public RenderFrame( RenderQueue renderQueue, RenderCommandBuffer commandBuffer )
+    {
+        mRenderQueue = renderQueue;
+        mCommandBuffer = commandBuffer;
+        mCameraViewInfo = new CameraViewInfo();
+        mPreviousCameraViewInfo = new CameraViewInfo();
+        mIndex = -1;
+        
+        reset();
+    }
+    
+    @Override
+    public void reset()
+    {
+        mCameraViewInfo.reset();
+        mPreviousCameraViewInfo.reset();
+        mSequence = 0;
+        mInterpolationAlpha = 1.0f;
+        mLayerVersion = 0;
+    }
+    
+    public RenderQueue getRenderQueue()
+    {
+        return mRenderQueue;
+    }
+    
+    /** The draw data the queue's elements point into. */
+    public RenderCommandBuffer getCommandBuffer()
+    {
+        return mCommandBuffer;
+    }
+    
+    public CameraViewInfo getCameraViewInfo()
+    {
+        return mCameraViewInfo;
+    }
+    
+    /** The camera as it was before the frame's step. */
+    public CameraViewInfo getPreviousCameraViewInfo()
+    {
+        return mPreviousCameraViewInfo;
+    }
+    
+    public float getInterpolationAlpha()
+    {
+        return mInterpolationAlpha;
+    }
+    
+    public void setInterpolationAlpha( float interpolationAlpha )
+    {
+        mInterpolationAlpha = interpolationAlpha;
+    }
+    
+    /**
+     * Changes whenever the game thread marked the cached layers dirty, the
+     * render thread redraws their images when it sees a new one.
+     */
+    public long getLayerVersion()
+    {
+        return mLayerVersion;
+    }
+    
+    public void setLayerVersion( long layerVersion )
+    {
+        mLayerVersion = layerVersion;
+    }
+    
+    /** The order in which this frame was published by the game thread. */
+    public long getSequence()
+    {
+        return mSequence;
+    }
+    
+    void setSequence( long sequence )
+    {
+        mSequence = sequence;
+    }
+    
+    int getIndex()
+    {
+        return mIndex;
+    }
+    
+    void setIndex( int index )
+    {
+        mIndex = index;
+    }
+}
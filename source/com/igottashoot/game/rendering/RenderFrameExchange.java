@@ -0,0 +1,300 @@
+package com.igottashoot.game.rendering;
+
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.igottashoot.game.primitives.BaseObject;
+
+/**
+ * Hands {@link RenderFrame}s from the game thread to the render thread without
+ * either of them ever waiting on the other.
+ * 
+ * Every frame is in one of four states and moves between them with a
+ * compare-and-set:
+ * <ul>
+ * <li>FREE: owned by nobody, the game thread may fill it.
+ * <li>WRITING: being filled by the game thread.
+ * <li>READY: published, waiting to be drawn.
+ * <li>READING: being drawn by the render thread.
+ * </ul>
+ * With N frames, the render thread holds one, the game thread holds one, and
+ * up to N - 2 published frames can be waiting ("frames in flight"). Three
+ * frames gives classic triple buffering. If the game thread wants a new frame
+ * and none is FREE, it takes back the oldest READY one (a dropped frame). The
+ * render thread always draws the newest READY frame and frees any older ones
+ * still waiting (skipped frames), so a backlog never adds latency. If it
+ * wants a frame and none is READY, it draws the one it already has again (a
+ * stale frame).
+ * 
+ * Between two frames the game thread can move the newest one's interpolation
+ * alpha on with {@link #publishInterpolationAlpha(float)}, so a frame drawn
+ * again still moves when the display runs faster than the simulation.
+ */
+public class RenderFrameExchange extends BaseObject
+{
+    private static final int FREE = 0;
+    private static final int WRITING = 1;
+    private static final int READY = 2;
+    private static final int READING = 3;
+    
+    private final RenderFrame[] mFrames;
+    private final AtomicIntegerArray mStates;
+    
+    // Only written by the game thread
+    private long mNextSequence;
+    private volatile long mPublishedFrameCount;
+    private volatile long mDroppedFrameCount;
+    
+    // the low 32 bits of a frame's sequence and the float bits of its newer
+    // alpha, as one value so they're always read together
+    private final AtomicLong mAlphaUpdate;
+    
+    // Only written by the render thread
+    private RenderFrame mReadingFrame;
+    private long mReadingSequence;
+    private volatile long mSkippedFrameCount;
+    private volatile long mDrawnFrameCount;
+    private volatile long mStaleFrameCount;
+    
+    /**
+     * @return the number of frames needed so that framesInFlight published
+     *         frames can be waiting for the render thread.
+     */
+    public static int getFrameCount( int framesInFlight )
+    {
+        if ( framesInFlight < 1 )
+            throw new IllegalArgumentException( "At least one frame has to be in flight" );
+        
+        return framesInFlight + 2;
+    }
+    
+    public RenderFrameExchange( RenderFrame[] frames )
+    {
+        if ( frames.length < 3 )
+            throw new IllegalArgumentException( "A frame exchange needs at least three frames" );
+        
+        mFrames = frames;
+        mStates = new AtomicIntegerArray( frames.length );
+        for ( int index = 0; index < frames.length; index++ )
+            mFrames[index].setIndex( index );
+        
+        mNextSequence = 0;
+        mPublishedFrameCount = 0;
+        mDroppedFrameCount = 0;
+        mReadingFrame = null;
+        mReadingSequence = -1;
+        mSkippedFrameCount = 0;
+        mDrawnFrameCount = 0;
+        mStaleFrameCount = 0;
+        mAlphaUpdate = new AtomicLong( packAlphaUpdate( -1, 1.0f ) );
+    }
+    
+    /**
+     * Game thread only. The returned frame may still hold the contents of an
+     * older frame, which is up to the caller to clear.
+     */
+    public RenderFrame acquireForWriting()
+    {
+        while ( true )
+        {
+            for ( int index = 0; index < mFrames.length; index++ )
+            {
+                if ( mStates.compareAndSet( index, FREE, WRITING ) )
+                    return mFrames[index];
+            }
+            
+            final int oldest = findOldestReadyFrame();
+            if ( oldest != -1 && mStates.compareAndSet( oldest, READY, WRITING ) )
+            {
+                mDroppedFrameCount++;
+                return mFrames[oldest];
+            }
+            
+            // The render thread swapped frames between our two scans, try
+            // again, there is now guaranteed to be a FREE or READY frame.
+        }
+    }
+    
+    /** Game thread only. */
+    public void publish( RenderFrame frame )
+    {
+        final int index = frame.getIndex();
+        if ( mStates.get( index ) != WRITING )
+            throw new IllegalStateException( "Only a frame acquired for writing can be published" );
+        
+        frame.setSequence( mNextSequence++ );
+        mPublishedFrameCount++;
+        mStates.set( index, READY );
+    }
+    
+    /**
+     * Game thread only. Replaces the interpolation alpha of the frame
+     * published last, without publishing another one. Does nothing before the
+     * first frame was published.
+     */
+    public void publishInterpolationAlpha( float interpolationAlpha )
+    {
+        if ( mNextSequence == 0 )
+            return;
+        
+        mAlphaUpdate.set( packAlphaUpdate( mNextSequence - 1, interpolationAlpha ) );
+    }
+    
+    /**
+     * Render thread only, for the frame it's reading.
+     * 
+     * @return the alpha last published for the frame, or the one it was
+     *         published with.
+     */
+    public float getInterpolationAlpha( RenderFrame frame )
+    {
+        final long update = mAlphaUpdate.get();
+        if ( (int) ( update >>> 32 ) == (int) frame.getSequence() )
+            return Float.intBitsToFloat( (int) update );
+        
+        return frame.getInterpolationAlpha();
+    }
+    
+    /**
+     * Render thread only. Never blocks.
+     * 
+     * @return the newest published frame, the older ones that weren't drawn
+     *         are freed; or the last frame drawn if there is none (may be
+     *         null if nothing was ever published).
+     */
+    public RenderFrame acquireForReading()
+    {
+        while ( true )
+        {
+            final int newest = findNewestReadyFrame();
+            if ( newest == -1 )
+            {
+                if ( mReadingFrame != null )
+                    mStaleFrameCount++;
+                
+                return mReadingFrame;
+            }
+            
+            if ( ! mStates.compareAndSet( newest, READY, READING ) )
+                continue; // The game thread took that frame back, look again.
+            
+            final RenderFrame frame = mFrames[newest];
+            
+            // Our scan isn't atomic, so a frame published while we were
+            // scanning can be older than one we already drew. Never go back
+            // in time, just recycle it.
+            if ( frame.getSequence() < mReadingSequence )
+            {
+                mSkippedFrameCount++;
+                mStates.set( newest, FREE );
+                continue;
+            }
+            
+            if ( mReadingFrame != null )
+                mStates.set( mReadingFrame.getIndex(), FREE );
+            
+            mReadingFrame = frame;
+            mReadingSequence = frame.getSequence();
+            mDrawnFrameCount++;
+            
+            freeOlderReadyFrames( mReadingSequence );
+            return mReadingFrame;
+        }
+    }
+    
+    public int getFramesInFlight()
+    {
+        return mFrames.length - 2;
+    }
+    
+    public long getPublishedFrameCount()
+    {
+        return mPublishedFrameCount;
+    }
+    
+    /** Frames published by the game thread and replaced before being drawn. */
+    public long getDroppedFrameCount()
+    {
+        return mDroppedFrameCount + mSkippedFrameCount;
+    }
+    
+    public long getDrawnFrameCount()
+    {
+        return mDrawnFrameCount;
+    }
+    
+    /** Render passes that had no new frame and redrew the previous one. */
+    public long getStaleFrameCount()
+    {
+        return mStaleFrameCount;
+    }
+    
+    /**
+     * A frame is held as READING while its sequence is checked, the game
+     * thread could otherwise take it back and publish it again in between.
+     * Frames the game thread takes back first are its to count as dropped.
+     */
+    private void freeOlderReadyFrames( long sequence )
+    {
+        for ( int index = 0; index < mFrames.length; index++ )
+        {
+            if ( ! mStates.compareAndSet( index, READY, READING ) )
+                continue;
+            
+            if ( mFrames[index].getSequence() < sequence )
+            {
+                mSkippedFrameCount++;
+                mStates.set( index, FREE );
+            }
+            else
+            {
+                mStates.set( index, READY );
+            }
+        }
+    }
+    
+    private static long packAlphaUpdate( long sequence, float interpolationAlpha )
+    {
+        return ( sequence << 32 ) | ( Float.floatToIntBits( interpolationAlpha ) & 0xFFFFFFFFL );
+    }
+    
+    private int findNewestReadyFrame()
+    {
+        int newest = -1;
+        long newestSequence = Long.MIN_VALUE;
+        for ( int index = 0; index < mFrames.length; index++ )
+        {
+            if ( mStates.get( index ) != READY )
+                continue;
+            
+            final long sequence = mFrames[index].getSequence();
+            if ( sequence > newestSequence )
+            {
+                newest = index;
+                newestSequence = sequence;
+            }
+        }
+        
+        return newest;
+    }
+    
+    private int findOldestReadyFrame()
+    {
+        int oldest = -1;
+        long oldestSequence = Long.MAX_VALUE;
+        for ( int index = 0; index < mFrames.length; index++ )
+        {
+            if ( mStates.get( index ) != READY )
+                continue;
+            
+            final long sequence = mFrames[index].getSequence();
+            if ( sequence < oldestSequence )
+            {
+                oldest = index;
+                oldestSequence = sequence;
+            }
+        }
+        
+        return oldest;
+    }
+}
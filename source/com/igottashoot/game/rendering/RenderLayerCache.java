@@ -0,0 +1,217 @@
+package com.igottashoot.game.rendering;
+
+import java.util.Arrays;
+
+import com.igottashoot.game.managers.RenderQueue;
+import com.igottashoot.game.primitives.BaseObject;
+
+/**
+ * Keeps one layer of the draw queue (every element of one render priority) as
+ * an offscreen image, for scenery that rarely changes. The image is in world
+ * space, it covers the layer's sprites wherever the camera is, so scrolling
+ * doesn't invalidate it.
+ *
+ * The image is drawn again when the game thread marked the cached layers
+ * dirty (see
+ * {@link com.igottashoot.game.managers.RenderingBufferManager#markCachedLayersDirty()}),
+ * when the render surface's scale changed, when a sprite joins or leaves the
+ * layer or when any of its commands resolves (interpolated and snapped)
+ * differently; otherwise it is drawn as one quad. Those are checked in that
+ * order, cheapest first. Commands are only compared for a frame not seen
+ * before, or for a new alpha when some of them move, and the comparison stops
+ * at the first difference.
+ *
+ * A layer the canvas refused to capture (too large, say) is drawn as usual,
+ * without trying again until one of the above changes.
+ *
+ * Only used on the render thread.
+ */
+public class RenderLayerCache extends BaseObject
+{
+    private final int mLayer;
+    private final int mSlot;
+
+    // the resolved commands the image was drawn from, or that the canvas
+    // refused to capture
+    private float[] mCaptured;
+    private int mCapturedCount;
+    private long mCapturedVersion;
+    private long mCapturedSequence;
+    private float mCapturedAlpha;
+    private float mCapturedScaleX;
+    private float mCapturedScaleY;
+    private boolean mIsMoving;
+    private boolean mHasCaptured;
+    private boolean mIsCaptured;
+
+    private final float[] mResolved;
+
+    private volatile int mCaptureCount;
+    private volatile int mHitCount;
+
+    public RenderLayerCache( int layer, int slot )
+    {
+        mLayer = layer;
+        mSlot = slot;
+        mCaptured = new float[ RenderCommandBuffer.RESOLVED_STRIDE ];
+        mResolved = new float[ RenderCommandBuffer.RESOLVED_STRIDE ];
+
+        reset();
+    }
+
+    @Override
+    public void reset()
+    {
+        mCapturedCount = 0;
+        mCapturedVersion = 0;
+        mCapturedSequence = -1;
+        mCapturedAlpha = 0f;
+        mCapturedScaleX = 0f;
+        mCapturedScaleY = 0f;
+        mIsMoving = false;
+        mHasCaptured = false;
+        mIsCaptured = false;
+        mCaptureCount = 0;
+        mHitCount = 0;
+    }
+
+    public int getLayer()
+    {
+        return mLayer;
+    }
+
+    /**
+     * Draws the queue's elements from start (inclusive) to end (exclusive),
+     * all of this layer, from the image when it is still current.
+     */
+    public void draw( LayerCachingCanvas layerCanvas,
+                      DrawingCanvas canvas,
+                      RenderFrame frame,
+                      int start,
+                      int end,
+                      RendererInfo rendererInfo )
+    {
+        final boolean isCurrent = isCurrent( frame, start, end, rendererInfo );
+        if ( isCurrent && mIsCaptured && layerCanvas.drawLayer( mSlot ) )
+        {
+            mHitCount++;
+            return;
+        }
+
+        // a layer the canvas refused stays refused until it changes, a lost
+        // image is captured again
+        if ( ! isCurrent || mIsCaptured )
+            capture( layerCanvas, canvas, frame, start, end, rendererInfo );
+
+        if ( ! mIsCaptured || ! layerCanvas.drawLayer( mSlot ) )
+        {
+            final RenderQueue queue = frame.getRenderQueue();
+            final RenderCommandBuffer commands = frame.getCommandBuffer();
+            for ( int index = start; index < end; index++ )
+                commands.draw( canvas, queue.get( index ).getCommandIndex(), rendererInfo );
+        }
+    }
+
+    /** Times the layer was drawn into its image. */
+    public int getCaptureCount()
+    {
+        return mCaptureCount;
+    }
+
+    /** Times the layer was drawn from its image. */
+    public int getHitCount()
+    {
+        return mHitCount;
+    }
+
+    /** Whether the layer still looks the way it did at the last capture. */
+    private boolean isCurrent( RenderFrame frame, int start, int end, RendererInfo rendererInfo )
+    {
+        final float alpha = rendererInfo.getInterpolationAlpha();
+        if ( ! mHasCaptured
+             || frame.getLayerVersion() != mCapturedVersion
+             || rendererInfo.getScaleX() != mCapturedScaleX
+             || rendererInfo.getScaleY() != mCapturedScaleY
+             || end - start != mCapturedCount )
+            return false;
+
+        // the same commands, and where they are doesn't depend on the alpha
+        if ( frame.getSequence() == mCapturedSequence && ( alpha == mCapturedAlpha || ! mIsMoving ) )
+            return true;
+
+        final RenderQueue queue = frame.getRenderQueue();
+        final RenderCommandBuffer commands = frame.getCommandBuffer();
+        for ( int index = start; index < end; index++ )
+        {
+            commands.resolve( queue.get( index ).getCommandIndex(), alpha, mResolved, 0 );
+
+            final int offset = ( index - start ) * RenderCommandBuffer.RESOLVED_STRIDE;
+            for ( int value = 0; value < RenderCommandBuffer.RESOLVED_STRIDE; value++ )
+            {
+                if ( mCaptured[ offset + value ] != mResolved[ value ] )
+                    return false;
+            }
+        }
+
+        // still the image of this frame, don't compare again
+        mCapturedSequence = frame.getSequence();
+        mCapturedAlpha = alpha;
+        return true;
+    }
+
+    private void capture( LayerCachingCanvas layerCanvas,
+                          DrawingCanvas canvas,
+                          RenderFrame frame,
+                          int start,
+                          int end,
+                          RendererInfo rendererInfo )
+    {
+        final RenderQueue queue = frame.getRenderQueue();
+        final RenderCommandBuffer commands = frame.getCommandBuffer();
+        final float alpha = rendererInfo.getInterpolationAlpha();
+        final int count = end - start;
+        final int size = count * RenderCommandBuffer.RESOLVED_STRIDE;
+        if ( mCaptured.length < size )
+            mCaptured = Arrays.copyOf( mCaptured, size );
+
+        mIsMoving = false;
+        for ( int index = 0; index < count; index++ )
+        {
+            final int command = queue.get( start + index ).getCommandIndex();
+            commands.resolve( command, alpha, mCaptured, index * RenderCommandBuffer.RESOLVED_STRIDE );
+            mIsMoving |= commands.isMoving( command );
+        }
+
+        mCapturedCount = count;
+        mCapturedVersion = frame.getLayerVersion();
+        mCapturedSequence = frame.getSequence();
+        mCapturedAlpha = alpha;
+        mCapturedScaleX = rendererInfo.getScaleX();
+        mCapturedScaleY = rendererInfo.getScaleY();
+        mHasCaptured = true;
+
+        float left = Float.MAX_VALUE;
+        float bottom = Float.MAX_VALUE;
+        float right = -Float.MAX_VALUE;
+        float top = -Float.MAX_VALUE;
+        for ( int offset = 0; offset < size; offset += RenderCommandBuffer.RESOLVED_STRIDE )
+        {
+            left = Math.min( left, mCaptured[ offset + 1 ] );
+            bottom = Math.min( bottom, mCaptured[ offset + 2 ] );
+            right = Math.max( right, mCaptured[ offset + 1 ] + mCaptured[ offset + 3 ] );
+            top = Math.max( top, mCaptured[ offset + 2 ] + mCaptured[ offset + 4 ] );
+        }
+
+        final float scaleX = rendererInfo.getScaleX();
+        final float scaleY = rendererInfo.getScaleY();
+        mIsCaptured = layerCanvas.beginLayer( mSlot, left * scaleX, bottom * scaleY, right * scaleX, top * scaleY );
+        if ( ! mIsCaptured )
+            return;
+
+        for ( int index = start; index < end; index++ )
+            commands.draw( canvas, queue.get( index ).getCommandIndex(), rendererInfo );
+
+        layerCanvas.endLayer( mSlot );
+        mCaptureCount++;
+    }
+}
@@ -0,0 +1,75 @@
+package com.igottashoot.game.rendering;
+
+/**
+ * Render elements are drawn in the order of a 64 bit key, compared unsigned:
+ * 
+ * <pre>
+ * | 63 - 48 layer | 47 - 44 blend | 43 - 24 texture | 23 - 0 sequence |
+ * </pre>
+ * 
+ * The layer is the render priority, biased so negative priorities sort first.
+ * Within a layer, draws sharing a blend mode and a texture (or an atlas page)
+ * end up next to each other, so they can be batched. The sequence is the
+ * order the element was scheduled in, it keeps the sort stable and is filled
+ * in by the queue.
+ */
+public final class RenderSortKey
+{
+    public static final int BLEND_PREMULTIPLIED_ALPHA = 0;
+    
+    public static final int LAYER_BITS = 16;
+    public static final int BLEND_BITS = 4;
+    public static final int TEXTURE_BITS = 20;
+    public static final int SEQUENCE_BITS = 24;
+    
+    private static final int SEQUENCE_SHIFT = 0;
+    private static final int TEXTURE_SHIFT = SEQUENCE_SHIFT + SEQUENCE_BITS;
+    private static final int BLEND_SHIFT = TEXTURE_SHIFT + TEXTURE_BITS;
+    private static final int LAYER_SHIFT = BLEND_SHIFT + BLEND_BITS;
+    
+    private static final int LAYER_BIAS = 1 << ( LAYER_BITS - 1 );
+    private static final long LAYER_MASK = ( 1L << LAYER_BITS ) - 1;
+    private static final long BLEND_MASK = ( 1L << BLEND_BITS ) - 1;
+    private static final long TEXTURE_MASK = ( 1L << TEXTURE_BITS ) - 1;
+    
+    public static final long SEQUENCE_MASK = ( 1L << SEQUENCE_BITS ) - 1;
+    
+    private RenderSortKey()
+    {
+    }
+    
+    /**
+     * @param layer
+     *            Between -32768 and 32767.
+     * @param texture
+     *            The binding name of the texture, textures that aren't loaded
+     *            (-1) sort last in their layer.
+     * @return a key with an empty sequence.
+     */
+    public static long pack( int layer, int blendMode, int texture )
+    {
+        return ( ( ( layer + LAYER_BIAS ) & LAYER_MASK ) << LAYER_SHIFT )
+               | ( ( blendMode & BLEND_MASK ) << BLEND_SHIFT )
+               | ( ( texture & TEXTURE_MASK ) << TEXTURE_SHIFT );
+    }
+    
+    public static int getLayer( long key )
+    {
+        return (int) ( ( key >>> LAYER_SHIFT ) & LAYER_MASK ) - LAYER_BIAS;
+    }
+    
+    public static int getBlendMode( long key )
+    {
+        return (int) ( ( key >>> BLEND_SHIFT ) & BLEND_MASK );
+    }
+    
+    public static int getTexture( long key )
+    {
+        return (int) ( ( key >>> TEXTURE_SHIFT ) & TEXTURE_MASK );
+    }
+    
+    public static long withSequence( long key, int sequence )
+    {
+        return ( key & ~SEQUENCE_MASK ) | ( sequence & SEQUENCE_MASK );
+    }
+}
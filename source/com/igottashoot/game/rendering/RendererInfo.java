@@ -17,4 +17,10 @@ public interface RendererInfo
     public int getHalfWidth();
     
     public CameraViewInfo getCameraViewInfo();
+    
+    /**
+     * How far (0 to 1) real time had moved past the last simulation step when
+     * the current draw queue was submitted.
+     */
+    public float getInterpolationAlpha();
 }
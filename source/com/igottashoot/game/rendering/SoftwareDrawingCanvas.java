@@ -0,0 +1,460 @@
+package com.igottashoot.game.rendering;
+
+import java.util.Arrays;
+
+import com.igottashoot.game.core.CameraViewInfo;
+import com.igottashoot.game.primitives.BaseObject;
+import com.igottashoot.game.primitives.Texture;
+
+/**
+ * Draws into an int[] framebuffer instead of a GL surface, so the render path
+ * can be benchmarked and checked on machines without a display. It follows
+ * what the OpenGL canvas asks of GL: the camera's world box is mapped onto the
+ * whole buffer (y up), textures are sampled nearest, modulated by the opacity,
+ * and blended with (GL_ONE, GL_ONE_MINUS_SRC_ALPHA). The buffer is cleared to
+ * transparent black.
+ *
+ * Pixels are ARGB, the first row is the top of the image. Texture pixels have
+ * to be handed over with {@link #putTexture(int, int[], int, int)} before the
+ * textures using them are loaded; this class doesn't read any files.
+ *
+ * Cached layers are kept in int[] images of their own, at the scale they were
+ * drawn with.
+ *
+ * Only used on the render thread.
+ */
+public class SoftwareDrawingCanvas extends BaseObject implements DrawingCanvas, LayerCachingCanvas, TextureLoadingHandler
+{
+    private static final int MAX_LAYER_SIZE = 2048;
+
+    private final int mWidth;
+    private final int mHeight;
+    private final int[] mPixels;
+
+    // what is drawn into, the framebuffer or a layer's image
+    private int[] mTarget;
+    private int mTargetWidth;
+    private int mTargetHeight;
+
+    // the texel column of every target column the current quad covers
+    private int[] mTexelColumns;
+
+    private int[][] mLayerPixels;
+    private int[] mLayerWidths;
+    private int[] mLayerHeights;
+    // left, bottom and the scale every image was drawn at
+    private float[] mLayerPlacements;
+    private int mCapturingSlot;
+    private float mSavedViewLeft;
+    private float mSavedViewBottom;
+
+    private int[][] mTexturePixels;
+    private int[] mTextureWidths;
+    private int[] mTextureHeights;
+
+    private float mViewLeft;
+    private float mViewBottom;
+    private float mScaleX;
+    private float mScaleY;
+
+    private long mFrameCount;
+    private long mDrawCount;
+
+    public SoftwareDrawingCanvas( int width, int height, int textureCapacity )
+    {
+        if ( width <= 0 || height <= 0 )
+            throw new IllegalArgumentException( "The canvas can't be empty" );
+
+        mWidth = width;
+        mHeight = height;
+        mPixels = new int[ width * height ];
+        mTexelColumns = new int[ width ];
+
+        mLayerPixels = new int[ 0 ][];
+        mLayerWidths = new int[ 0 ];
+        mLayerHeights = new int[ 0 ];
+        mLayerPlacements = new float[ 0 ];
+
+        final int capacity = Math.max( 1, textureCapacity );
+        mTexturePixels = new int[ capacity ][];
+        mTextureWidths = new int[ capacity ];
+        mTextureHeights = new int[ capacity ];
+
+        reset();
+    }
+
+    @Override
+    public void reset()
+    {
+        mFrameCount = 0;
+        mDrawCount = 0;
+
+        mViewLeft = 0f;
+        mViewBottom = 0f;
+        mScaleX = 1f;
+        mScaleY = 1f;
+
+        mTarget = mPixels;
+        mTargetWidth = mWidth;
+        mTargetHeight = mHeight;
+        mCapturingSlot = -1;
+    }
+
+    /**
+     * The pixels (ARGB, not premultiplied, first row at the top) of a
+     * resource. Textures of that resource are drawn with them once loaded.
+     */
+    public void putTexture( int resourceId, int[] pixels, int width, int height )
+    {
+        if ( resourceId < 0 )
+            throw new IllegalArgumentException( "Invalid resource id " + resourceId );
+
+        if ( width <= 0 || height <= 0 || pixels.length < width * height )
+            throw new IllegalArgumentException( "The pixels don't match the size " + width + "x" + height );
+
+        if ( resourceId >= mTexturePixels.length )
+        {
+            final int capacity = Math.max( resourceId + 1, mTexturePixels.length * 2 );
+            mTexturePixels = Arrays.copyOf( mTexturePixels, capacity );
+            mTextureWidths = Arrays.copyOf( mTextureWidths, capacity );
+            mTextureHeights = Arrays.copyOf( mTextureHeights, capacity );
+        }
+
+        mTexturePixels[ resourceId ] = pixels;
+        mTextureWidths[ resourceId ] = width;
+        mTextureHeights[ resourceId ] = height;
+    }
+
+    @Override
+    public void start( CameraViewInfo cameraViewInfo )
+    {
+        // Without a view the buffer is drawn 1:1, the same as an identity
+        // projection over the surface
+        if ( cameraViewInfo.getWidth() > 0 && cameraViewInfo.getHeight() > 0 )
+        {
+            mViewLeft = cameraViewInfo.getCameraWorldLeft();
+            mViewBottom = cameraViewInfo.getCameraWorldBottom();
+            mScaleX = (float) mWidth / cameraViewInfo.getWidth();
+            mScaleY = (float) mHeight / cameraViewInfo.getHeight();
+        }
+        else
+        {
+            mViewLeft = 0f;
+            mViewBottom = 0f;
+            mScaleX = 1f;
+            mScaleY = 1f;
+        }
+    }
+
+    @Override
+    public boolean beginLayer( int slot, float left, float bottom, float right, float top )
+    {
+        if ( mCapturingSlot != -1 )
+            throw new IllegalStateException( "Layer " + mCapturingSlot + " is still being drawn" );
+
+        final int width = (int) Math.ceil( ( right - left ) * mScaleX );
+        final int height = (int) Math.ceil( ( top - bottom ) * mScaleY );
+        if ( width <= 0 || height <= 0 || width > MAX_LAYER_SIZE || height > MAX_LAYER_SIZE )
+            return false;
+
+        if ( slot >= mLayerPixels.length )
+        {
+            mLayerPixels = Arrays.copyOf( mLayerPixels, slot + 1 );
+            mLayerWidths = Arrays.copyOf( mLayerWidths, slot + 1 );
+            mLayerHeights = Arrays.copyOf( mLayerHeights, slot + 1 );
+            mLayerPlacements = Arrays.copyOf( mLayerPlacements, ( slot + 1 ) * 4 );
+        }
+
+        if ( mLayerPixels[ slot ] == null || mLayerPixels[ slot ].length < width * height )
+            mLayerPixels[ slot ] = new int[ width * height ];
+        else
+            Arrays.fill( mLayerPixels[ slot ], 0, width * height, 0 );
+
+        if ( mTexelColumns.length < width )
+            mTexelColumns = new int[ width ];
+
+        mLayerWidths[ slot ] = width;
+        mLayerHeights[ slot ] = height;
+        mLayerPlacements[ slot * 4 ] = left;
+        mLayerPlacements[ slot * 4 + 1 ] = bottom;
+        mLayerPlacements[ slot * 4 + 2 ] = mScaleX;
+        mLayerPlacements[ slot * 4 + 3 ] = mScaleY;
+
+        // draw as if the camera showed exactly the layer's box
+        mSavedViewLeft = mViewLeft;
+        mSavedViewBottom = mViewBottom;
+        mViewLeft = left;
+        mViewBottom = bottom;
+        mTarget = mLayerPixels[ slot ];
+        mTargetWidth = width;
+        mTargetHeight = height;
+        mCapturingSlot = slot;
+
+        return true;
+    }
+
+    @Override
+    public void endLayer( int slot )
+    {
+        if ( slot != mCapturingSlot )
+            throw new IllegalStateException( "Layer " + slot + " isn't being drawn" );
+
+        mViewLeft = mSavedViewLeft;
+        mViewBottom = mSavedViewBottom;
+        mTarget = mPixels;
+        mTargetWidth = mWidth;
+        mTargetHeight = mHeight;
+        mCapturingSlot = -1;
+    }
+
+    /**
+     * The image is blended over the framebuffer as any texture would be, one
+     * image pixel per framebuffer pixel.
+     */
+    @Override
+    public boolean drawLayer( int slot )
+    {
+        if ( slot >= mLayerPixels.length || mLayerPixels[ slot ] == null || mCapturingSlot != -1 )
+            return false;
+
+        if ( mLayerPlacements[ slot * 4 + 2 ] != mScaleX || mLayerPlacements[ slot * 4 + 3 ] != mScaleY )
+            return false;
+
+        final int[] layer = mLayerPixels[ slot ];
+        final int layerWidth = mLayerWidths[ slot ];
+        final int layerHeight = mLayerHeights[ slot ];
+
+        // framebuffer column + offset = image column, the same for rows (y up)
+        final int offsetX = (int) Math.floor( 0.5f + ( mViewLeft - mLayerPlacements[ slot * 4 ] ) * mScaleX );
+        final int offsetY = (int) Math.floor( 0.5f + ( mViewBottom - mLayerPlacements[ slot * 4 + 1 ] ) * mScaleY );
+
+        final int firstColumn = Math.max( 0, -offsetX );
+        final int endColumn = Math.min( mWidth, layerWidth - offsetX );
+        final int firstRow = Math.max( 0, -offsetY );
+        final int endRow = Math.min( mHeight, layerHeight - offsetY );
+
+        for ( int row = firstRow; row < endRow; row++ )
+        {
+            final int layerRow = ( layerHeight - 1 - ( row + offsetY ) ) * layerWidth + offsetX;
+            final int pixelRow = ( mHeight - 1 - row ) * mWidth;
+
+            for ( int column = firstColumn; column < endColumn; column++ )
+            {
+                final int source = layer[ layerRow + column ];
+                if ( source == 0 )
+                    continue;
+
+                final int index = pixelRow + column;
+                mPixels[ index ] = blend( source, mPixels[ index ], 255 );
+            }
+        }
+
+        return true;
+    }
+
+    @Override
+    public void end()
+    {
+        mFrameCount++;
+    }
+
+    @Override
+    public void clear()
+    {
+        Arrays.fill( mPixels, 0 );
+    }
+
+    @Override
+    public void draw( Texture texture, DrawableObjectInfo drawableObjectInfo )
+    {
+        if ( ! texture.isLoaded() )
+            return;
+
+        draw( texture.getResourceId(), drawableObjectInfo );
+    }
+
+    @Override
+    public void draw( int textureResourceId, DrawableObjectInfo info )
+    {
+        if ( textureResourceId < 0 || textureResourceId >= mTexturePixels.length )
+            return;
+
+        final int[] texels = mTexturePixels[ textureResourceId ];
+        if ( texels == null )
+            return;
+
+        mDrawCount++;
+
+        final int textureWidth = mTextureWidths[ textureResourceId ];
+        final int textureHeight = mTextureHeights[ textureResourceId ];
+        final int opacity = (int) ( clamp( info.getOpacity() ) * 255f + 0.5f );
+        if ( opacity == 0 )
+            return;
+
+        // The quad in target pixels, y up
+        final float left = ( info.getVertexPositionX() - mViewLeft ) * mScaleX;
+        final float right = left + info.getVertexWidth() * mScaleX;
+        final float bottom = ( info.getVertexPositionY() - mViewBottom ) * mScaleY;
+        final float top = bottom + info.getVertexHeight() * mScaleY;
+        if ( right <= left || top <= bottom )
+            return;
+
+        // A pixel is covered when its center is
+        final int firstColumn = Math.max( 0, (int) Math.ceil( left - 0.5f ) );
+        final int endColumn = Math.min( mTargetWidth, (int) Math.ceil( right - 0.5f ) );
+        final int firstRow = Math.max( 0, (int) Math.ceil( bottom - 0.5f ) );
+        final int endRow = Math.min( mTargetHeight, (int) Math.ceil( top - 0.5f ) );
+        if ( firstColumn >= endColumn || firstRow >= endRow )
+            return;
+
+        final float u1 = info.getTexturePositionX1();
+        final float u2 = info.getTexturePositionX2();
+        final float v1 = info.getTexturePositionY1();
+        final float v2 = info.getTexturePositionY2();
+
+        final float uStep = ( u2 - u1 ) / ( right - left );
+        for ( int column = firstColumn; column < endColumn; column++ )
+        {
+            final float u = u1 + ( column + 0.5f - left ) * uStep;
+            mTexelColumns[ column ] = texel( u, textureWidth );
+        }
+
+        // v1 is at the top of the quad
+        final float vStep = ( v2 - v1 ) / ( top - bottom );
+        for ( int row = firstRow; row < endRow; row++ )
+        {
+            final float v = v1 + ( top - ( row + 0.5f ) ) * vStep;
+            final int texelRow = texel( v, textureHeight ) * textureWidth;
+            final int pixelRow = ( mTargetHeight - 1 - row ) * mTargetWidth;
+
+            for ( int column = firstColumn; column < endColumn; column++ )
+            {
+                final int source = texels[ texelRow + mTexelColumns[ column ] ];
+                if ( source == 0 )
+                    continue;
+
+                final int index = pixelRow + column;
+                mTarget[ index ] = blend( source, mTarget[ index ], opacity );
+            }
+        }
+    }
+
+    /**
+     * Executed on the IoThread. Nothing is read, the pixels were put already.
+     */
+    @Override
+    public Object[] loadTextures( Texture[] textures )
+    {
+        Object[] result = new Object[ textures.length ];
+        for ( int index = 0; index < textures.length; index++ )
+        {
+            final Texture texture = textures[ index ];
+            if ( ! texture.isLoaded() && texture.getResourceId() != -1 )
+                result[ index ] = texture;
+        }
+
+        return result;
+    }
+
+    @Override
+    public void handleLoadedTextures( Object[] loadTextures )
+    {
+        for ( int index = 0; index < loadTextures.length; index++ )
+        {
+            if ( loadTextures[ index ] == null )
+                continue;
+
+            Texture texture = (Texture) loadTextures[ index ];
+            final int resourceId = texture.getResourceId();
+            if ( resourceId < 0 || resourceId >= mTexturePixels.length || mTexturePixels[ resourceId ] == null )
+            {
+                texture.setLoaded( false );
+                continue;
+            }
+
+            // Every resource is its own texture, its id makes as good a name
+            // as any for sorting
+            texture.setBindingName( resourceId );
+            texture.setSize( mTextureWidths[ resourceId ], mTextureHeights[ resourceId ] );
+            texture.setRegion( 0f, 0f, 1f, 1f );
+            texture.setLoaded( true );
+        }
+    }
+
+    /**
+     * The pixels stay, they were put by the owner and there is nothing to
+     * load them from again.
+     */
+    @Override
+    public void releaseTexture( int textureResourceId )
+    {
+    }
+
+    /** ARGB, the first row is the top of the image. */
+    public int[] getPixels()
+    {
+        return mPixels;
+    }
+
+    public int getWidth()
+    {
+        return mWidth;
+    }
+
+    public int getHeight()
+    {
+        return mHeight;
+    }
+
+    public long getFrameCount()
+    {
+        return mFrameCount;
+    }
+
+    /** Quads drawn with a known texture, whether or not they were on screen. */
+    public long getDrawCount()
+    {
+        return mDrawCount;
+    }
+
+    private static int texel( float coordinate, int size )
+    {
+        final int texel = (int) Math.floor( coordinate * size );
+        return texel < 0 ? 0 : ( texel >= size ? size - 1 : texel );
+    }
+
+    private static float clamp( float value )
+    {
+        return value < 0f ? 0f : ( value > 1f ? 1f : value );
+    }
+
+    /**
+     * GL_MODULATE with (opacity, opacity, opacity, opacity), then
+     * (GL_ONE, GL_ONE_MINUS_SRC_ALPHA). Every channel is 0 to 255.
+     */
+    private static int blend( int source, int destination, int opacity )
+    {
+        final int sourceAlpha = multiply( source >>> 24, opacity );
+        final int sourceRed = multiply( ( source >> 16 ) & 0xff, opacity );
+        final int sourceGreen = multiply( ( source >> 8 ) & 0xff, opacity );
+        final int sourceBlue = multiply( source & 0xff, opacity );
+
+        if ( sourceAlpha == 255 )
+            return ( sourceAlpha << 24 ) | ( sourceRed << 16 ) | ( sourceGreen << 8 ) | sourceBlue;
+
+        final int inverse = 255 - sourceAlpha;
+        final int alpha = Math.min( 255, sourceAlpha + multiply( destination >>> 24, inverse ) );
+        final int red = Math.min( 255, sourceRed + multiply( ( destination >> 16 ) & 0xff, inverse ) );
+        final int green = Math.min( 255, sourceGreen + multiply( ( destination >> 8 ) & 0xff, inverse ) );
+        final int blue = Math.min( 255, sourceBlue + multiply( destination & 0xff, inverse ) );
+
+        return ( alpha << 24 ) | ( red << 16 ) | ( green << 8 ) | blue;
+    }
+
+    /** a * b / 255, rounded */
+    private static int multiply( int a, int b )
+    {
+        final int product = a * b + 128;
+        return ( product + ( product >> 8 ) ) >> 8;
+    }
+}
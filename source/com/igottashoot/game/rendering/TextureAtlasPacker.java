@@ -0,0 +1,232 @@
+package com.igottashoot.game.rendering;
+
+import java.util.Arrays;
+
+import com.igottashoot.game.primitives.BaseObject;
+
+/**
+ * Packs rectangles into as few square-bounded pages as it can, using shelves:
+ * the rectangles are placed tallest first, left to right, and a new shelf is
+ * opened under the last one when a row is full. Every rectangle is surrounded
+ * by padding pixels so filtering never samples a neighbour.
+ *
+ * Rectangles that can't fit on a page even on their own are left unplaced
+ * ({@link #getPage(int)} returns -1), the caller has to load them standalone.
+ * Page sizes are rounded up to powers of two.
+ */
+public class TextureAtlasPacker extends BaseObject
+{
+    public static final int NOT_PACKED = -1;
+
+    private final int mMaxPageSize;
+    private final int mPadding;
+
+    // per rectangle
+    private int[] mWidths;
+    private int[] mHeights;
+    private int[] mPages;
+    private int[] mX;
+    private int[] mY;
+    private int[] mOrder;
+    private int mCount;
+
+    // per page
+    private int[] mPageWidths;
+    private int[] mPageHeights;
+    private int mPageCount;
+
+    public TextureAtlasPacker( int maxPageSize, int padding, int initialCapacity )
+    {
+        if ( maxPageSize <= 2 * padding )
+            throw new IllegalArgumentException( "maxPageSize must be larger than the padding" );
+
+        mMaxPageSize = maxPageSize;
+        mPadding = padding;
+
+        final int capacity = Math.max( 1, initialCapacity );
+        mWidths = new int[ capacity ];
+        mHeights = new int[ capacity ];
+        mPages = new int[ capacity ];
+        mX = new int[ capacity ];
+        mY = new int[ capacity ];
+        mOrder = new int[ capacity ];
+        mPageWidths = new int[ 1 ];
+        mPageHeights = new int[ 1 ];
+
+        reset();
+    }
+
+    @Override
+    public void reset()
+    {
+        mCount = 0;
+        mPageCount = 0;
+    }
+
+    /**
+     * @return the index the rectangle's placement can be queried with.
+     */
+    public int add( int width, int height )
+    {
+        if ( width <= 0 || height <= 0 )
+            throw new IllegalArgumentException( "Can't pack an empty rectangle" );
+
+        if ( mCount == mWidths.length )
+            grow();
+
+        mWidths[ mCount ] = width;
+        mHeights[ mCount ] = height;
+        mPages[ mCount ] = NOT_PACKED;
+        return mCount++;
+    }
+
+    public void pack()
+    {
+        sortByHeight();
+        mPageCount = 0;
+
+        final int padding = mPadding;
+        int shelfX = 0;
+        int shelfY = 0;
+        int shelfHeight = 0;
+        int page = -1;
+
+        for ( int index = 0; index < mCount; index++ )
+        {
+            final int rectangle = mOrder[ index ];
+            final int width = mWidths[ rectangle ] + 2 * padding;
+            final int height = mHeights[ rectangle ] + 2 * padding;
+
+            if ( width > mMaxPageSize || height > mMaxPageSize )
+                continue;
+
+            if ( page == -1 || shelfX + width > mMaxPageSize )
+            {
+                // next shelf
+                shelfY += shelfHeight;
+                shelfX = 0;
+                shelfHeight = 0;
+            }
+
+            if ( page == -1 || shelfY + height > mMaxPageSize )
+            {
+                page = addPage();
+                shelfX = 0;
+                shelfY = 0;
+                shelfHeight = 0;
+            }
+
+            mPages[ rectangle ] = page;
+            mX[ rectangle ] = shelfX + padding;
+            mY[ rectangle ] = shelfY + padding;
+
+            shelfX += width;
+            shelfHeight = Math.max( shelfHeight, height );
+            mPageWidths[ page ] = Math.max( mPageWidths[ page ], shelfX );
+            mPageHeights[ page ] = Math.max( mPageHeights[ page ], shelfY + shelfHeight );
+        }
+
+        for ( int index = 0; index < mPageCount; index++ )
+        {
+            mPageWidths[ index ] = nextPowerOfTwo( mPageWidths[ index ] );
+            mPageHeights[ index ] = nextPowerOfTwo( mPageHeights[ index ] );
+        }
+    }
+
+    public int getCount()
+    {
+        return mCount;
+    }
+
+    public int getPage( int index )
+    {
+        return mPages[ index ];
+    }
+
+    /** Left edge of the rectangle on its page, padding excluded. */
+    public int getX( int index )
+    {
+        return mX[ index ];
+    }
+
+    /** Top edge of the rectangle on its page, padding excluded. */
+    public int getY( int index )
+    {
+        return mY[ index ];
+    }
+
+    public int getPadding()
+    {
+        return mPadding;
+    }
+
+    public int getPageCount()
+    {
+        return mPageCount;
+    }
+
+    public int getPageWidth( int page )
+    {
+        return mPageWidths[ page ];
+    }
+
+    public int getPageHeight( int page )
+    {
+        return mPageHeights[ page ];
+    }
+
+    private int addPage()
+    {
+        if ( mPageCount == mPageWidths.length )
+        {
+            mPageWidths = Arrays.copyOf( mPageWidths, mPageCount * 2 );
+            mPageHeights = Arrays.copyOf( mPageHeights, mPageCount * 2 );
+        }
+
+        mPageWidths[ mPageCount ] = 0;
+        mPageHeights[ mPageCount ] = 0;
+        return mPageCount++;
+    }
+
+    /**
+     * Insertion sort, tallest first. Ties keep the order they were added in so
+     * the same textures always produce the same pages.
+     */
+    private void sortByHeight()
+    {
+        for ( int index = 0; index < mCount; index++ )
+        {
+            final int rectangle = index;
+            final int height = mHeights[ rectangle ];
+
+            int position = index - 1;
+            while ( position >= 0 && mHeights[ mOrder[ position ] ] < height )
+            {
+                mOrder[ position + 1 ] = mOrder[ position ];
+                position--;
+            }
+
+            mOrder[ position + 1 ] = rectangle;
+        }
+    }
+
+    private void grow()
+    {
+        final int capacity = mWidths.length * 2;
+        mWidths = Arrays.copyOf( mWidths, capacity );
+        mHeights = Arrays.copyOf( mHeights, capacity );
+        mPages = Arrays.copyOf( mPages, capacity );
+        mX = Arrays.copyOf( mX, capacity );
+        mY = Arrays.copyOf( mY, capacity );
+        mOrder = Arrays.copyOf( mOrder, capacity );
+    }
+
+    private static int nextPowerOfTwo( int value )
+    {
+        int result = 1;
+        while ( result < value )
+            result <<= 1;
+
+        return result;
+    }
+}
@@ -0,0 +1,38 @@
+package com.igottashoot.game.rendering;
+
+/**
+ * Textures read by {@link TextureLoadingHandler#loadTextures}, waiting to be
+ * handed to the canvas. The renderer's {@link TextureUploadScheduler} may
+ * spread them over several frames; the callback runs on the render thread
+ * once the last of them was uploaded.
+ */
+public class TextureUpload implements TextureLoader
+{
+    private final Object[] mLoadedTextures;
+    private final Runnable mOnUploaded;
+
+    public TextureUpload( Object[] loadedTextures, Runnable onUploaded )
+    {
+        mLoadedTextures = loadedTextures;
+        mOnUploaded = onUploaded;
+    }
+
+    public Object[] getLoadedTextures()
+    {
+        return mLoadedTextures;
+    }
+
+    /** Uploads everything at once. */
+    @Override
+    public void load( DrawingCanvas canvas )
+    {
+        canvas.handleLoadedTextures( mLoadedTextures );
+        onUploaded();
+    }
+
+    public void onUploaded()
+    {
+        if ( mOnUploaded != null )
+            mOnUploaded.run();
+    }
+}
@@ -0,0 +1,162 @@
+package com.igottashoot.game.rendering;
+
+import java.util.ArrayDeque;
+import java.util.Queue;
+
+import com.igottashoot.game.primitives.BaseObject;
+import com.igottashoot.game.utilities.GameUtilities;
+
+/**
+ * Hands the texture loads the renderer received to the canvas, a few every
+ * frame. A {@link TextureUpload} going to a {@link TextureUploadingCanvas}
+ * is uploaded piece by piece, as long as the next piece fits the frame's byte
+ * budget and the time budget isn't used up; the rest waits for the next
+ * frame. At least one piece is uploaded per frame, however large. Everything
+ * else, and uploads to other canvases, are handled in one go.
+ *
+ * The loads are handled in the order they were received, a load never
+ * overtakes an upload still in progress.
+ *
+ * Used on the render thread, the progress can be read from any thread.
+ */
+public class TextureUploadScheduler extends BaseObject
+{
+    private final Queue<TextureLoader> mPending;
+
+    private long mBytesPerFrame;
+    private long mNanosPerFrame;
+
+    // the upload in progress, if any
+    private TextureUpload mCurrent;
+    private int mCurrentIndex;
+
+    // since the scheduler was last idle
+    private volatile long mScheduledBytes;
+    private volatile long mUploadedBytes;
+
+    public TextureUploadScheduler()
+    {
+        mPending = new ArrayDeque<TextureLoader>();
+        mBytesPerFrame = Long.MAX_VALUE;
+        mNanosPerFrame = Long.MAX_VALUE;
+
+        reset();
+    }
+
+    @Override
+    public void reset()
+    {
+        mPending.clear();
+        mCurrent = null;
+        mCurrentIndex = 0;
+        mScheduledBytes = 0;
+        mUploadedBytes = 0;
+    }
+
+    /**
+     * Long.MAX_VALUE for either one means no limit, which is the default:
+     * everything is uploaded in the frame it arrives.
+     */
+    public void setBudget( long bytesPerFrame, long nanosPerFrame )
+    {
+        if ( bytesPerFrame <= 0 || nanosPerFrame <= 0 )
+            throw new IllegalArgumentException( "The upload budget must be positive" );
+
+        mBytesPerFrame = bytesPerFrame;
+        mNanosPerFrame = nanosPerFrame;
+    }
+
+    public void add( TextureLoader loader, DrawingCanvas canvas )
+    {
+        if ( loader instanceof TextureUpload && canvas instanceof TextureUploadingCanvas )
+        {
+            final TextureUploadingCanvas uploader = (TextureUploadingCanvas) canvas;
+            final Object[] loadedTextures = ( (TextureUpload) loader ).getLoadedTextures();
+            final int count = uploader.getUploadCount( loadedTextures );
+
+            long bytes = 0;
+            for ( int index = 0; index < count; index++ )
+                bytes += uploader.getUploadSize( loadedTextures, index );
+
+            mScheduledBytes += bytes;
+        }
+
+        mPending.add( loader );
+    }
+
+    /** Called once a frame, with the canvas the loads were added with. */
+    public void update( DrawingCanvas canvas )
+    {
+        final long start = GameUtilities.getCurrentTimeInNanos();
+        long bytes = 0;
+
+        while ( mCurrent != null || ! mPending.isEmpty() )
+        {
+            if ( mCurrent == null )
+            {
+                final TextureLoader loader = mPending.poll();
+                if ( ! ( loader instanceof TextureUpload ) || ! ( canvas instanceof TextureUploadingCanvas ) )
+                {
+                    loader.load( canvas );
+                    continue;
+                }
+
+                mCurrent = (TextureUpload) loader;
+                mCurrentIndex = 0;
+            }
+
+            final TextureUploadingCanvas uploader = (TextureUploadingCanvas) canvas;
+            final Object[] loadedTextures = mCurrent.getLoadedTextures();
+            final int count = uploader.getUploadCount( loadedTextures );
+
+            while ( mCurrentIndex < count )
+            {
+                final long size = uploader.getUploadSize( loadedTextures, mCurrentIndex );
+                final boolean overBudget = bytes + size > mBytesPerFrame
+                        || GameUtilities.getCurrentTimeInNanos() - start >= mNanosPerFrame;
+                if ( overBudget && bytes > 0 )
+                    return;
+
+                uploader.upload( loadedTextures, mCurrentIndex++ );
+                bytes += size;
+                mUploadedBytes += size;
+            }
+
+            final TextureUpload finished = mCurrent;
+            mCurrent = null;
+            finished.onUploaded();
+        }
+
+        mScheduledBytes = 0;
+        mUploadedBytes = 0;
+    }
+
+    public boolean isIdle()
+    {
+        return mCurrent == null && mPending.isEmpty();
+    }
+
+    /**
+     * How much of what was scheduled since the scheduler was last idle is
+     * uploaded, from 0 to 1; 1 when it is idle.
+     */
+    public float getProgress()
+    {
+        final long scheduled = mScheduledBytes;
+        final long uploaded = mUploadedBytes;
+        if ( scheduled == 0 )
+            return 1f;
+
+        return Math.min( 1f, (float) uploaded / scheduled );
+    }
+
+    public long getScheduledBytes()
+    {
+        return mScheduledBytes;
+    }
+
+    public long getUploadedBytes()
+    {
+        return mUploadedBytes;
+    }
+}
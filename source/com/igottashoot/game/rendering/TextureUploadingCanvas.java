@@ -0,0 +1,21 @@
+package com.igottashoot.game.rendering;
+
+/**
+ * A canvas that can upload the result of
+ * {@link TextureLoadingHandler#loadTextures} a piece at a time, so a level's
+ * textures can be spread over several frames. The pieces are uploaded in
+ * order, from 0 to {@link #getUploadCount(Object[])}, and once all of them are
+ * the result counts as handled, the same as after
+ * {@link DrawingCanvas#handleLoadedTextures(Object[])}.
+ *
+ * Only used on the render thread.
+ */
+public interface TextureUploadingCanvas
+{
+    public int getUploadCount( Object[] loadedTextures );
+
+    /** The number of bytes the piece uploads, an estimate. */
+    public long getUploadSize( Object[] loadedTextures, int index );
+
+    public void upload( Object[] loadedTextures, int index );
+}
@@ -0,0 +1,98 @@
+package com.igottashoot.game.rendering;
+
+import com.igottashoot.game.primitives.BaseObject;
+import com.igottashoot.game.primitives.Texture;
+
+/**
+ * A texture cut into a grid of equally sized tiles, numbered row by row from
+ * the top left. The texture coordinates of every tile are worked out once,
+ * the first time they're asked for after the texture was loaded, and looked
+ * up from then on; they're only worked out again if the sheet is used with
+ * another texture or the texture's size changed (reloaded into an atlas page,
+ * say). The {@link com.igottashoot.game.managers.TextureManager} hands out
+ * one sheet per texture and grid, for the sprites using it to share.
+ *
+ * Tiles are a whole number of pixels, any pixels left over on the right or
+ * at the bottom aren't part of a tile.
+ *
+ * Only used on the game thread.
+ */
+public class TileSheet extends BaseObject
+{
+    /** The floats per tile in {@link #getTextureVertices(Texture)}. */
+    public static final int VERTEX_STRIDE = 4;
+
+    private final int mRowCount;
+    private final int mColumnCount;
+    private final float[] mTextureVertices;
+
+    // what the table was worked out for
+    private Texture mTexture;
+    private int mWidth;
+    private int mHeight;
+
+    public TileSheet( int rowCount, int columnCount )
+    {
+        if ( rowCount <= 0 || columnCount <= 0 )
+            throw new IllegalArgumentException( "A tile sheet needs at least one row and column" );
+
+        mRowCount = rowCount;
+        mColumnCount = columnCount;
+        mTextureVertices = new float[ rowCount * columnCount * VERTEX_STRIDE ];
+
+        reset();
+    }
+
+    @Override
+    public void reset()
+    {
+        mTexture = null;
+        mWidth = 0;
+        mHeight = 0;
+    }
+
+    public int getTileCount()
+    {
+        return mRowCount * mColumnCount;
+    }
+
+    /**
+     * @return x1, y1, x2, y2 of every tile, at tile index * 4. Shared, don't
+     *         change it.
+     */
+    public float[] getTextureVertices( Texture texture )
+    {
+        if ( texture == null || ! texture.isLoaded() )
+            throw new IllegalStateException( "The tile sheet's texture isn't loaded" );
+
+        if ( texture != mTexture || texture.getWidth() != mWidth || texture.getHeight() != mHeight )
+            update( texture );
+
+        return mTextureVertices;
+    }
+
+    private void update( Texture texture )
+    {
+        mTexture = texture;
+        mWidth = texture.getWidth();
+        mHeight = texture.getHeight();
+
+        final float tileWidth = mWidth / mColumnCount;
+        final float tileHeight = mHeight / mRowCount;
+
+        int offset = 0;
+        for ( int row = 0; row < mRowCount; row++ )
+        {
+            for ( int column = 0; column < mColumnCount; column++ )
+            {
+                final float x1 = tileWidth * column;
+                final float y1 = tileHeight * row;
+
+                mTextureVertices[ offset++ ] = x1 / mWidth;
+                mTextureVertices[ offset++ ] = y1 / mHeight;
+                mTextureVertices[ offset++ ] = ( x1 + tileWidth ) / mWidth;
+                mTextureVertices[ offset++ ] = ( y1 + tileHeight ) / mHeight;
+            }
+        }
+    }
+}
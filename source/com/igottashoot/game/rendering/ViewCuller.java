@@ -0,0 +1,138 @@
+package com.igottashoot.game.rendering;
+
+import com.igottashoot.game.core.CameraViewInfo;
+import com.igottashoot.game.primitives.BaseObject;
+import com.igottashoot.game.primitives.DrawableObject;
+
+/**
+ * Decides, on the game thread, whether a drawable is worth scheduling at all.
+ * Drawables are tested against the world rectangle of the last frame handed
+ * to the renderer, grown by a margin: the camera is only updated after the
+ * game objects, so the margin has to cover how far it can move in one step.
+ * 
+ * Counts what it culled and let through; the counts of the last submitted
+ * frame can be read from any thread.
+ */
+public class ViewCuller extends BaseObject
+{
+    public static final float DEFAULT_MARGIN = 32.0f;
+    
+    private final CameraViewInfo mView;
+    private float mMargin;
+    private boolean mIsEnabled;
+    private boolean mHasView;
+    private int mCulledCount;
+    private int mDrawnCount;
+    private volatile int mLastFrameCulledCount;
+    private volatile int mLastFrameDrawnCount;
+    
+    public ViewCuller()
+    {
+        mView = new CameraViewInfo();
+        mMargin = DEFAULT_MARGIN;
+        mIsEnabled = true;
+        reset();
+    }
+    
+    @Override
+    public void reset()
+    {
+        mView.reset();
+        mHasView = false;
+        mCulledCount = 0;
+        mDrawnCount = 0;
+        mLastFrameCulledCount = 0;
+        mLastFrameDrawnCount = 0;
+    }
+    
+    /**
+     * @return true when the drawable is entirely outside the view, and
+     *         shouldn't be scheduled.
+     */
+    public boolean cull( DrawableObject drawable )
+    {
+        if ( isCulled( drawable ) )
+        {
+            mCulledCount++;
+            return true;
+        }
+        
+        mDrawnCount++;
+        return false;
+    }
+    
+    /**
+     * Same as {@link #cull(DrawableObject)}, without counting. Can be called
+     * from several threads at once, as long as the game thread isn't changing
+     * the view meanwhile.
+     */
+    public boolean isCulled( DrawableObject drawable )
+    {
+        return mIsEnabled && mHasView && drawable.isCulled( mView, mMargin );
+    }
+    
+    /** For drawables that were culled with {@link #isCulled(DrawableObject)}. */
+    public void addCounts( int culled, int drawn )
+    {
+        mCulledCount += culled;
+        mDrawnCount += drawn;
+    }
+    
+    /** In world units, added on every side of the view. */
+    public void setMargin( float margin )
+    {
+        if ( margin < 0f )
+            throw new IllegalArgumentException( "The margin can't be negative" );
+        
+        mMargin = margin;
+    }
+    
+    public float getMargin()
+    {
+        return mMargin;
+    }
+    
+    public void setEnabled( boolean enabled )
+    {
+        mIsEnabled = enabled;
+    }
+    
+    public boolean isEnabled()
+    {
+        return mIsEnabled;
+    }
+    
+    /**
+     * Ends the frame that was culled so far and moves the view to the one
+     * that frame was submitted with.
+     */
+    public void commitFrame( CameraViewInfo view )
+    {
+        mLastFrameCulledCount = mCulledCount;
+        mLastFrameDrawnCount = mDrawnCount;
+        discardFrame();
+        
+        if ( view != null && view.getWidth() > 0 && view.getHeight() > 0 )
+        {
+            mView.updateInfo( view );
+            mHasView = true;
+        }
+    }
+    
+    /** Forgets the counts of a frame that won't be drawn. */
+    public void discardFrame()
+    {
+        mCulledCount = 0;
+        mDrawnCount = 0;
+    }
+    
+    public int getLastFrameCulledCount()
+    {
+        return mLastFrameCulledCount;
+    }
+    
+    public int getLastFrameDrawnCount()
+    {
+        return mLastFrameDrawnCount;
+    }
+}
@@ -2,7 +2,7 @@ package com.igottashoot.game.rendering.bitmap;
 
 import com.igottashoot.game.rendering.DrawableObjectInfo;
 
-class DefaultDrawableObjectInfo implements DrawableObjectInfo
+public class DefaultDrawableObjectInfo implements DrawableObjectInfo
 {
     private float mVertexXPosition;
     private float mVertexYPosition;
@@ -1,10 +1,12 @@
 package com.igottashoot.game.rendering.bitmap;
 
+import com.igottashoot.game.core.CameraViewInfo;
 import com.igottashoot.game.primitives.BaseObject;
 import com.igottashoot.game.primitives.DrawableObject;
 import com.igottashoot.game.primitives.Texture;
 import com.igottashoot.game.rendering.DrawableObjectInfo;
 import com.igottashoot.game.rendering.DrawingCanvas;
+import com.igottashoot.game.rendering.RenderCommandBuffer;
 import com.igottashoot.game.rendering.RendererInfo;
 
 public class DrawableBitmap extends BaseObject implements DrawableObject
@@ -13,12 +15,19 @@ public class DrawableBitmap extends BaseObject implements DrawableObject
     // Give the GC a break!
     private static final DefaultDrawableObjectInfo DRAWABLE_INFO = new DefaultDrawableObjectInfo();
     
+    // A move further than this in one step is a jump (a respawn, a wrap
+    // around), it isn't interpolated.
+    private static final float MAX_INTERPOLATED_DISTANCE = 128.0f;
+    
     private Texture mTexture;
     private float[] mTextureVertex;
 
     // Vertex information
     private float mPositionX;
     private float mPositionY;
+    private float mPreviousPositionX;
+    private float mPreviousPositionY;
+    private boolean mHasPreviousPosition;
     private int mHeight;
     private int mWidth;
 
@@ -41,6 +50,7 @@ public class DrawableBitmap extends BaseObject implements DrawableObject
     public void reset()
     {
         mOpacity = 1.0f;
+        mHasPreviousPosition = false;
         
         mTextureVertex[0] = 0f;
         mTextureVertex[1] = 0f;
@@ -54,9 +64,6 @@ public class DrawableBitmap extends BaseObject implements DrawableObject
         if ( mTexture == null || ! mTexture.isLoaded() )
             return;
         
-        if ( isCulled( rendererInfo ) )
-            return;
-        
 //      float x = element.x;
 //      float y = element.y;
 //      if (element.cameraRelative) {
@@ -67,6 +74,25 @@ public class DrawableBitmap extends BaseObject implements DrawableObject
         canvas.draw( mTexture, getDrawableObjectInfo( rendererInfo ) );
     }
 
+    @Override
+    public int writeCommand( RenderCommandBuffer buffer, long sortKey )
+    {
+        if ( mTexture == null || ! mTexture.isLoaded() )
+            return RenderCommandBuffer.NO_COMMAND;
+        
+        return buffer.add( mTexture.getResourceId(),
+                           sortKey,
+                           mPositionX,
+                           mPositionY,
+                           mPreviousPositionX,
+                           mPreviousPositionY,
+                           mWidth,
+                           mHeight,
+                           mTexture.mapU( mTextureVertex[0] ), mTexture.mapV( mTextureVertex[1] ),
+                           mTexture.mapU( mTextureVertex[2] ), mTexture.mapV( mTextureVertex[3] ),
+                           mOpacity );
+    }
+    
     public void setTextureVertex( float tx1, float ty1, float tx2, float ty2 )
     {
         mTextureVertex[0] = tx1;
@@ -75,10 +101,28 @@ public class DrawableBitmap extends BaseObject implements DrawableObject
         mTextureVertex[3] = ty2;        
     }
     
+    /**
+     * Called once per simulation step, the position it replaces is kept so the
+     * renderer can draw in between.
+     */
     public void setPosition( float x, float y )
     {
+        if ( mHasPreviousPosition
+             && Math.abs( x - mPositionX ) <= MAX_INTERPOLATED_DISTANCE
+             && Math.abs( y - mPositionY ) <= MAX_INTERPOLATED_DISTANCE )
+        {
+            mPreviousPositionX = mPositionX;
+            mPreviousPositionY = mPositionY;
+        }
+        else
+        {
+            mPreviousPositionX = x;
+            mPreviousPositionY = y;
+        }
+        
         mPositionX = x;
         mPositionY = y;
+        mHasPreviousPosition = true;
     }
     
     public void setSize( int width, int height )
@@ -117,20 +161,16 @@ public class DrawableBitmap extends BaseObject implements DrawableObject
         return mOpacity;
     }
     
-    private boolean isCulled( RendererInfo rendererInfo )
-    {
-        // TODO: view width and height are equal to the game width and height
-//      if ( viewWidth > 0)
-//      {
-//          if ( xPosition + width < 0.0f || xPosition > viewWidth || 
-//               yPosition + height < 0.0f || yPosition > viewHeight || 
-//               opacity == 0.0f )
-//          {
-//              return true;
-//          }
-//      }
+    @Override
+    public boolean isCulled( CameraViewInfo view, float margin )
+    {
+        if ( mOpacity <= 0.0f )
+            return true;
         
-        return false;
+        return mPositionX + mWidth < view.getCameraWorldLeft() - margin
+               || mPositionX > view.getCameraWorldRight() + margin
+               || mPositionY + mHeight < view.getCameraWorldBottom() - margin
+               || mPositionY > view.getCameraWorldTop() + margin;
     }
     
     private DrawableObjectInfo getDrawableObjectInfo( RendererInfo rendererInfo )
@@ -142,7 +182,8 @@ public class DrawableBitmap extends BaseObject implements DrawableObject
                            snappedY * rendererInfo.getScaleY(),
                            mWidth * rendererInfo.getScaleX(),
                            mHeight * rendererInfo.getScaleY(),
-                           mTextureVertex[0], mTextureVertex[1], mTextureVertex[2], mTextureVertex[3],
+                           mTexture.mapU( mTextureVertex[0] ), mTexture.mapV( mTextureVertex[1] ),
+                           mTexture.mapU( mTextureVertex[2] ), mTexture.mapV( mTextureVertex[3] ),
                            mOpacity );
         
         return DRAWABLE_INFO;
@@ -0,0 +1,123 @@
+package com.igottashoot.game.utilities;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.igottashoot.game.primitives.BaseObject;
+
+/**
+ * Direct byte buffers, kept for reuse once they're released. Capacities are
+ * rounded up to a power of two so buffers of similar sizes can stand in for
+ * each other; an acquire takes the smallest free buffer that is large enough.
+ * Released buffers beyond the retained size are left to the collector.
+ *
+ * Can be used from any thread.
+ */
+public class DirectBufferPool extends BaseObject
+{
+    private static final int MIN_CAPACITY = 4096;
+
+    private final long mMaxRetainedBytes;
+    private final List<ByteBuffer> mFreeBuffers;
+    private long mRetainedBytes;
+
+    private int mAllocationCount;
+    private int mReuseCount;
+
+    public DirectBufferPool( long maxRetainedBytes )
+    {
+        if ( maxRetainedBytes < 0 )
+            throw new IllegalArgumentException( "The retained size can't be negative" );
+
+        mMaxRetainedBytes = maxRetainedBytes;
+        mFreeBuffers = new ArrayList<ByteBuffer>();
+
+        reset();
+    }
+
+    @Override
+    public synchronized void reset()
+    {
+        mFreeBuffers.clear();
+        mRetainedBytes = 0;
+        mAllocationCount = 0;
+        mReuseCount = 0;
+    }
+
+    /**
+     * @return a buffer in native byte order, positioned at 0 and limited to
+     *         the requested size.
+     */
+    public synchronized ByteBuffer acquire( int size )
+    {
+        if ( size < 0 )
+            throw new IllegalArgumentException( "Invalid buffer size " + size );
+
+        int best = -1;
+        for ( int index = 0; index < mFreeBuffers.size(); index++ )
+        {
+            final int capacity = mFreeBuffers.get( index ).capacity();
+            if ( capacity >= size && ( best == -1 || capacity < mFreeBuffers.get( best ).capacity() ) )
+                best = index;
+        }
+
+        ByteBuffer buffer;
+        if ( best == -1 )
+        {
+            buffer = ByteBuffer.allocateDirect( getCapacity( size ) );
+            mAllocationCount++;
+        }
+        else
+        {
+            buffer = mFreeBuffers.remove( best );
+            mRetainedBytes -= buffer.capacity();
+            mReuseCount++;
+        }
+
+        buffer.clear();
+        buffer.limit( size );
+        buffer.order( ByteOrder.nativeOrder() );
+        return buffer;
+    }
+
+    /** The buffer mustn't be used by the caller anymore. */
+    public synchronized void release( ByteBuffer buffer )
+    {
+        if ( buffer == null || ! buffer.isDirect() )
+            return;
+
+        if ( mRetainedBytes + buffer.capacity() > mMaxRetainedBytes )
+            return;
+
+        mFreeBuffers.add( buffer );
+        mRetainedBytes += buffer.capacity();
+    }
+
+    public synchronized long getRetainedBytes()
+    {
+        return mRetainedBytes;
+    }
+
+    /** Acquires that had to allocate a new buffer. */
+    public synchronized int getAllocationCount()
+    {
+        return mAllocationCount;
+    }
+
+    /** Acquires served by a released buffer. */
+    public synchronized int getReuseCount()
+    {
+        return mReuseCount;
+    }
+
+    private static int getCapacity( int size )
+    {
+        if ( size <= MIN_CAPACITY )
+            return MIN_CAPACITY;
+
+        final int capacity = Integer.highestOneBit( size );
+        return ( capacity == size || capacity == ( 1 << 30 ) ) ? Math.max( capacity, size ) : capacity << 1;
+    }
+}
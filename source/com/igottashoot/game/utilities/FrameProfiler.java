@@ -0,0 +1,163 @@
+package com.igottashoot.game.utilities;
+
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import com.igottashoot.game.primitives.BaseObject;
+
+/**
+ * A tree of {@link ProfilerScope}s timed by a single thread, one frame at a
+ * time. Scopes are entered with {@link #begin(ProfilerScope)} and left with
+ * {@link #end(ProfilerScope)}; while a scope is open it is the current scope,
+ * which lets nested code hang its own scopes under whatever called it.
+ * 
+ * Timing is done by the owning thread only, the scopes and their histograms
+ * can be queried from any thread.
+ */
+public class FrameProfiler extends BaseObject
+{
+    private static final double NANOS_TO_MICROS = 1.0e-3;
+    
+    private final ProfilerScope mRootScope;
+    private final CopyOnWriteArrayList<ProfilerScope> mScopes;
+    
+    private ProfilerScope mCurrentScope;
+    private volatile boolean mIsEnabled;
+    private volatile long mFrameCount;
+    
+    public FrameProfiler( String name )
+    {
+        mScopes = new CopyOnWriteArrayList<ProfilerScope>();
+        mRootScope = new ProfilerScope( this, null, name, -1, null );
+        mScopes.add( mRootScope );
+        
+        mCurrentScope = mRootScope;
+        mIsEnabled = true;
+        mFrameCount = 0;
+    }
+    
+    public boolean isEnabled()
+    {
+        return mIsEnabled;
+    }
+    
+    public void setEnabled( boolean enabled )
+    {
+        mIsEnabled = enabled;
+    }
+    
+    /** The scope covering a whole frame. */
+    public ProfilerScope getRootScope()
+    {
+        return mRootScope;
+    }
+    
+    /** The innermost scope that is open, on the owning thread. */
+    public ProfilerScope getCurrentScope()
+    {
+        return mCurrentScope;
+    }
+    
+    public void beginFrame()
+    {
+        begin( mRootScope );
+    }
+    
+    public void endFrame()
+    {
+        if ( ! mIsEnabled )
+            return;
+        
+        end( mRootScope );
+        
+        final int count = mScopes.size();
+        for ( int index = 0; index < count; index++ )
+            mScopes.get( index ).commitFrame();
+        
+        mCurrentScope = mRootScope;
+        mFrameCount++;
+    }
+    
+    public void begin( ProfilerScope scope )
+    {
+        if ( ! mIsEnabled )
+            return;
+        
+        scope.begin( GameUtilities.getCurrentTimeInNanos() );
+        mCurrentScope = scope;
+    }
+    
+    public void end( ProfilerScope scope )
+    {
+        if ( ! mIsEnabled )
+            return;
+        
+        scope.end( GameUtilities.getCurrentTimeInNanos() );
+        mCurrentScope = ( scope.getParent() != null ) ? scope.getParent() : mRootScope;
+    }
+    
+    /** Adds a duration that was measured some other way. */
+    public void record( ProfilerScope scope, long durationInNanos )
+    {
+        if ( ! mIsEnabled )
+            return;
+        
+        scope.add( durationInNanos );
+    }
+    
+    public long getFrameCount()
+    {
+        return mFrameCount;
+    }
+    
+    /** Every scope, parents before their children. */
+    public int getScopeCount()
+    {
+        return mScopes.size();
+    }
+    
+    public ProfilerScope getScope( int index )
+    {
+        return mScopes.get( index );
+    }
+    
+    /**
+     * One line per scope, indented by depth, with the per frame p50, p95,
+     * p99 and max (in microseconds). Allocates, meant for logs and tools.
+     */
+    public String getReport()
+    {
+        StringBuilder report = new StringBuilder();
+        report.append( "frames: " ).append( mFrameCount ).append( '\n' );
+        appendScope( report, mRootScope );
+        return report.toString();
+    }
+    
+    void register( ProfilerScope scope )
+    {
+        mScopes.add( scope );
+    }
+    
+    private static void appendScope( StringBuilder report, ProfilerScope scope )
+    {
+        final LatencyHistogram histogram = scope.getHistogram();
+        for ( int depth = 0; depth < scope.getDepth(); depth++ )
+            report.append( "  " );
+        
+        report.append( scope.getName() )
+              .append( " p50: " ).append( toMicros( histogram.getPercentile( 50 ) ) )
+              .append( " p95: " ).append( toMicros( histogram.getPercentile( 95 ) ) )
+              .append( " p99: " ).append( toMicros( histogram.getPercentile( 99 ) ) )
+              .append( " max: " ).append( toMicros( histogram.getMax() ) )
+              .append( " frames: " ).append( histogram.getCount() )
+              .append( '\n' );
+        
+        final int count = scope.getChildCount();
+        for ( int index = 0; index < count; index++ )
+            appendScope( report, scope.getChild( index ) );
+    }
+    
+    private static long toMicros( long nanos )
+    {
+        return (long) ( nanos * NANOS_TO_MICROS );
+    }
+}
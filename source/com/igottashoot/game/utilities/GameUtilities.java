@@ -6,6 +6,15 @@ public class GameUtilities
     {
         return System.currentTimeMillis();
     }
+    
+    /**
+     * A monotonic time stamp, only meaningful when compared to another value
+     * returned by this method.
+     */
+    public static long getCurrentTimeInNanos()
+    {
+        return System.nanoTime();
+    }
 
     public static void print( String source, int printLevel, String message )
     {
@@ -0,0 +1,131 @@
+package com.igottashoot.game.utilities;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import com.igottashoot.game.primitives.BaseObject;
+
+/**
+ * A log-linear histogram of durations (in nanoseconds). Every power of two is
+ * split into {@link #SUB_BUCKET_COUNT} buckets, so a percentile is never more
+ * than 12.5% off, whatever its magnitude, and recording is a couple of shifts.
+ * 
+ * One thread records, any thread can query.
+ */
+public class LatencyHistogram extends BaseObject
+{
+    private static final int SUB_BUCKET_BITS = 3;
+    private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+    private static final int SUB_BUCKET_MASK = SUB_BUCKET_COUNT - 1;
+    private static final int BUCKET_COUNT = ( 64 - SUB_BUCKET_BITS ) * SUB_BUCKET_COUNT;
+    
+    private final AtomicLongArray mCounts;
+    
+    private volatile long mCount;
+    private volatile long mTotal;
+    private volatile long mMax;
+    
+    public LatencyHistogram()
+    {
+        mCounts = new AtomicLongArray( BUCKET_COUNT );
+        reset();
+    }
+    
+    /** Only from the recording thread. */
+    @Override
+    public void reset()
+    {
+        for ( int index = 0; index < BUCKET_COUNT; index++ )
+            mCounts.set( index, 0 );
+        
+        mCount = 0;
+        mTotal = 0;
+        mMax = 0;
+    }
+    
+    /** Only from the recording thread. */
+    public void record( long value )
+    {
+        if ( value < 0 )
+            value = 0;
+        
+        // single writer, no need for a read-modify-write
+        final int index = getBucketIndex( value );
+        mCounts.lazySet( index, mCounts.get( index ) + 1 );
+        
+        mTotal += value;
+        if ( value > mMax )
+            mMax = value;
+        mCount++;
+    }
+    
+    public long getCount()
+    {
+        return mCount;
+    }
+    
+    public long getMax()
+    {
+        return mMax;
+    }
+    
+    public long getMean()
+    {
+        final long count = mCount;
+        return ( count == 0 ) ? 0 : mTotal / count;
+    }
+    
+    /**
+     * @param percentile
+     *            Between 0 and 100.
+     * @return the upper bound of the bucket the percentile falls in, never
+     *         more than the max.
+     */
+    public long getPercentile( double percentile )
+    {
+        if ( percentile < 0 || percentile > 100 )
+            throw new IllegalArgumentException( "percentile must be between 0 and 100" );
+        
+        long total = 0;
+        for ( int index = 0; index < BUCKET_COUNT; index++ )
+            total += mCounts.get( index );
+        
+        if ( total == 0 )
+            return 0;
+        
+        long rank = (long) Math.ceil( total * percentile / 100.0 );
+        if ( rank < 1 )
+            rank = 1;
+        
+        long seen = 0;
+        for ( int index = 0; index < BUCKET_COUNT; index++ )
+        {
+            seen += mCounts.get( index );
+            if ( seen >= rank )
+                return Math.min( getBucketUpperBound( index ), mMax );
+        }
+        
+        return mMax;
+    }
+    
+    static int getBucketIndex( long value )
+    {
+        if ( value < SUB_BUCKET_COUNT )
+            return (int) value;
+        
+        final int exponent = 63 - Long.numberOfLeadingZeros( value );
+        final int shift = exponent - SUB_BUCKET_BITS;
+        final int subBucket = (int) ( value >>> shift ) & SUB_BUCKET_MASK;
+        return ( shift + 1 ) * SUB_BUCKET_COUNT + subBucket;
+    }
+    
+    static long getBucketUpperBound( int index )
+    {
+        if ( index < SUB_BUCKET_COUNT )
+            return index;
+        
+        final int shift = index / SUB_BUCKET_COUNT - 1;
+        final long subBucket = index & SUB_BUCKET_MASK;
+        final long lowerBound = ( SUB_BUCKET_COUNT + subBucket ) << shift;
+        return lowerBound + ( 1L << shift ) - 1;
+    }
+}
@@ -1,36 +1,89 @@
 package com.igottashoot.game.utilities;
 
+import java.util.Arrays;
+
 import com.igottashoot.game.primitives.BaseObject;
 
+/**
+ * The available objects are kept in fixed size chunks. When the pool runs dry
+ * it acts on its {@link OverflowPolicy}: by default it fails, when growing it
+ * creates another chunk of objects, the existing ones are never copied.
+ */
 public abstract class ObjectPool<T> extends BaseObject
 {
-    private final FixedSizeArray<T> mAvailable;
+    private final int mChunkSize;
     
-    public ObjectPool( int size )
-    {
-        this( new FixedSizeArray<T>( size ) );
-    }
+    private Object[][] mChunks;
+    private int mChunkCount;
+    private int mAvailableCount;
+    private int mHighWaterMark;
+    private OverflowPolicy mOverflowPolicy;
     
-    public ObjectPool( FixedSizeArray<T> available )
+    public ObjectPool( int size )
     {
-        mAvailable = available;
-        fill( mAvailable );
+        mChunkSize = Math.max( 1, size );
+        mChunks = new Object[ 1 ][];
+        mChunkCount = 0;
+        mAvailableCount = 0;
+        mHighWaterMark = 0;
+        mOverflowPolicy = OverflowPolicy.FAIL;
+        
+        addChunk();
     }
     
     protected abstract T create();
     
+    /**
+     * @return an object, or null when the pool is empty and its policy is to
+     *         drop.
+     */
+    @SuppressWarnings( "unchecked" )
     public T allocate()
     {
-        T last = mAvailable.removeLast();
-        if ( last == null )
-            throw new IllegalStateException();
+        if ( mAvailableCount == 0 )
+        {
+            switch ( mOverflowPolicy )
+            {
+                case GROW:
+                    addChunk();
+                    break;
+                case DROP_LOWEST_LAYER:
+                    return null;
+                default:
+                    throw new IllegalStateException( "Pool exhausted!" );
+            }
+        }
+        
+        mAvailableCount--;
+        final Object[] chunk = mChunks[ mAvailableCount / mChunkSize ];
+        final int offset = mAvailableCount % mChunkSize;
+        T last = (T) chunk[ offset ];
+        chunk[ offset ] = null;
+        
+        final int allocated = getAllocatedCount();
+        if ( allocated > mHighWaterMark )
+            mHighWaterMark = allocated;
         
         return last;
     }
     
     public void release( T entry )
     {
-        mAvailable.add( entry );
+        if ( mAvailableCount == getCapacity() )
+            throw new IllegalStateException( "Released more than was allocated!" );
+        
+        mChunks[ mAvailableCount / mChunkSize ][ mAvailableCount % mChunkSize ] = entry;
+        mAvailableCount++;
+    }
+    
+    public void setOverflowPolicy( OverflowPolicy overflowPolicy )
+    {
+        mOverflowPolicy = overflowPolicy;
+    }
+    
+    public OverflowPolicy getOverflowPolicy()
+    {
+        return mOverflowPolicy;
     }
     
     /**
@@ -39,17 +92,36 @@ public abstract class ObjectPool<T> extends BaseObject
      */
     public int getAllocatedCount()
     {
-        return mAvailable.getCapacity() - mAvailable.getCount();
+        return getCapacity() - mAvailableCount;
     }
-
-    private void fill( final FixedSizeArray<T> available )
+    
+    /** The most objects that were ever allocated at the same time. */
+    public int getHighWaterMark()
+    {
+        return mHighWaterMark;
+    }
+    
+    public int getCapacity()
     {
-        for ( int x = 0; x < getSize(); x++ )
-            available.add( create() );
+        return mChunkCount * mChunkSize;
     }
     
-    private int getSize()
+    /**
+     * Only called when nothing is available: every slot is free, the new
+     * objects simply take the first ones, and the new chunk makes room for
+     * them to be released into.
+     */
+    private void addChunk()
     {
-        return mAvailable.getCapacity();
-    }    
+        if ( mChunkCount == mChunks.length )
+            mChunks = Arrays.copyOf( mChunks, mChunkCount * 2 );
+        
+        mChunks[ mChunkCount++ ] = new Object[ mChunkSize ];
+        
+        final Object[] first = mChunks[ 0 ];
+        for ( int index = 0; index < mChunkSize; index++ )
+            first[ index ] = create();
+        
+        mAvailableCount = mChunkSize;
+    }
 }
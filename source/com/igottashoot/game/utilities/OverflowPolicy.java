@@ -0,0 +1,11 @@
+package com.igottashoot.game.utilities;
+
+/**
+ * What a pool or a queue does when it is full.
+ */
+public enum OverflowPolicy
+{
+    GROW,               // add another chunk, nothing is copied
+    DROP_LOWEST_LAYER,  // drop what matters least (for pools: allocate returns null)
+    FAIL                // throw an IllegalStateException
+}
@@ -0,0 +1,162 @@
+package com.igottashoot.game.utilities;
+
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import com.igottashoot.game.primitives.BaseObject;
+
+/**
+ * A node of a {@link FrameProfiler}. Everything measured against a scope
+ * during a frame is summed, and the sum goes into the scope's histogram when
+ * the frame ends, so the histogram answers "how much of a frame does this
+ * take".
+ * 
+ * Children are found either by name, by a numeric id (e.g. an execution
+ * phase) or by class (e.g. a property type), the last two without allocating.
+ */
+public class ProfilerScope extends BaseObject
+{
+    private final FrameProfiler mProfiler;
+    private final ProfilerScope mParent;
+    private final String mName;
+    private final int mId;
+    private final Class<?> mType;
+    private final int mDepth;
+    private final CopyOnWriteArrayList<ProfilerScope> mChildren;
+    private final LatencyHistogram mHistogram;
+    
+    private long mStartTime;
+    private long mFrameTime;
+    private int mFrameCalls;
+    
+    ProfilerScope( FrameProfiler profiler, ProfilerScope parent, String name, int id, Class<?> type )
+    {
+        mProfiler = profiler;
+        mParent = parent;
+        mName = name;
+        mId = id;
+        mType = type;
+        mDepth = ( parent == null ) ? 0 : parent.mDepth + 1;
+        mChildren = new CopyOnWriteArrayList<ProfilerScope>();
+        mHistogram = new LatencyHistogram();
+        
+        mStartTime = 0;
+        mFrameTime = 0;
+        mFrameCalls = 0;
+    }
+    
+    public String getName()
+    {
+        return mName;
+    }
+    
+    public ProfilerScope getParent()
+    {
+        return mParent;
+    }
+    
+    public int getDepth()
+    {
+        return mDepth;
+    }
+    
+    public LatencyHistogram getHistogram()
+    {
+        return mHistogram;
+    }
+    
+    public int getChildCount()
+    {
+        return mChildren.size();
+    }
+    
+    public ProfilerScope getChild( int index )
+    {
+        return mChildren.get( index );
+    }
+    
+    /** Finds or creates the child with the given name. */
+    public ProfilerScope getChild( String name )
+    {
+        final int count = mChildren.size();
+        for ( int index = 0; index < count; index++ )
+        {
+            ProfilerScope child = mChildren.get( index );
+            if ( child.mName.equals( name ) )
+                return child;
+        }
+        
+        return addChild( new ProfilerScope( mProfiler, this, name, -1, null ) );
+    }
+    
+    /** @return the child added with {@link #addChild(int, String)}, or null */
+    public ProfilerScope findChild( int id )
+    {
+        final int count = mChildren.size();
+        for ( int index = 0; index < count; index++ )
+        {
+            ProfilerScope child = mChildren.get( index );
+            if ( child.mType == null && child.mId == id )
+                return child;
+        }
+        
+        return null;
+    }
+    
+    public ProfilerScope addChild( int id, String name )
+    {
+        return addChild( new ProfilerScope( mProfiler, this, name, id, null ) );
+    }
+    
+    /** @return the child added with {@link #addChild(Class)}, or null */
+    public ProfilerScope findChild( Class<?> type )
+    {
+        final int count = mChildren.size();
+        for ( int index = 0; index < count; index++ )
+        {
+            ProfilerScope child = mChildren.get( index );
+            if ( child.mType == type )
+                return child;
+        }
+        
+        return null;
+    }
+    
+    public ProfilerScope addChild( Class<?> type )
+    {
+        return addChild( new ProfilerScope( mProfiler, this, type.getSimpleName(), -1, type ) );
+    }
+    
+    private ProfilerScope addChild( ProfilerScope child )
+    {
+        mChildren.add( child );
+        mProfiler.register( child );
+        return child;
+    }
+    
+    void begin( long time )
+    {
+        mStartTime = time;
+    }
+    
+    void end( long time )
+    {
+        add( time - mStartTime );
+    }
+    
+    void add( long duration )
+    {
+        mFrameTime += duration;
+        mFrameCalls++;
+    }
+    
+    /** Moves this frame's total into the histogram, if the scope ran at all. */
+    void commitFrame()
+    {
+        if ( mFrameCalls == 0 )
+            return;
+        
+        mHistogram.record( mFrameTime );
+        mFrameTime = 0;
+        mFrameCalls = 0;
+    }
+}
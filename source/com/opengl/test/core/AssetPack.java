@@ -0,0 +1,172 @@
+package com.opengl.test.core;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+import com.igottashoot.game.utilities.GameUtilities;
+
+/**
+ * The drawables, decoded ahead of time by {@link AssetPackBuilder} and mapped
+ * into memory. A texture's pixels are a slice of the mapping, which is handed
+ * to GL as is: nothing is read or decoded at load time.
+ *
+ * Layout, big endian:
+ * <pre>
+ * int magic, int version, int entry count
+ * per entry: int resource id, int width, int height,
+ *            long source length, long source modification time,
+ *            long offset, int length
+ * pixel data: RGBA bytes, top row first, every entry 4 byte aligned
+ * </pre>
+ * An entry whose source file changed since it was packed is ignored, the
+ * drawable is decoded from the file as usual.
+ *
+ * Immutable once opened, can be used from any thread.
+ */
+public class AssetPack
+{
+    public static final int MAGIC = 0x49475350; // "IGSP"
+    public static final int VERSION = 1;
+    public static final String DEFAULT_PATH = "res/assets.pack";
+
+    static final int HEADER_SIZE = 12;
+    static final int ENTRY_SIZE = 40;
+
+    private final ByteBuffer mMapping;
+
+    // by resource id, length 0 when the pack doesn't have a usable entry
+    private final int[] mWidths;
+    private final int[] mHeights;
+    private final int[] mOffsets;
+    private final int[] mLengths;
+
+    private AssetPack( ByteBuffer mapping, int capacity )
+    {
+        mMapping = mapping;
+        mWidths = new int[ capacity ];
+        mHeights = new int[ capacity ];
+        mOffsets = new int[ capacity ];
+        mLengths = new int[ capacity ];
+    }
+
+    /**
+     * @return the pack, or null when there is no such file or it can't be
+     *         read (the drawables are decoded from their files then).
+     */
+    public static AssetPack openIfPresent( String path )
+    {
+        final File file = new File( path );
+        if ( ! file.isFile() )
+            return null;
+
+        try
+        {
+            return open( file );
+        }
+        catch ( IOException ioe )
+        {
+            GameUtilities.print( "AssetPack", 0, "Ignoring " + path + ": " + ioe.getMessage() );
+            return null;
+        }
+    }
+
+    public static AssetPack open( File file ) throws IOException
+    {
+        final RandomAccessFile input = new RandomAccessFile( file, "r" );
+        try
+        {
+            final FileChannel channel = input.getChannel();
+            final MappedByteBuffer mapping = channel.map( FileChannel.MapMode.READ_ONLY, 0, channel.size() );
+            mapping.order( ByteOrder.BIG_ENDIAN );
+
+            // the mapping stays valid once the channel is closed
+            return read( mapping );
+        }
+        finally
+        {
+            input.close();
+        }
+    }
+
+    public boolean contains( int resourceId )
+    {
+        return resourceId >= 0 && resourceId < mLengths.length && mLengths[ resourceId ] > 0;
+    }
+
+    public int getWidth( int resourceId )
+    {
+        return contains( resourceId ) ? mWidths[ resourceId ] : 0;
+    }
+
+    public int getHeight( int resourceId )
+    {
+        return contains( resourceId ) ? mHeights[ resourceId ] : 0;
+    }
+
+    /**
+     * @return the RGBA pixels, top row first, as a read only slice of the
+     *         mapping; null when the pack doesn't have them.
+     */
+    public ByteBuffer getPixels( int resourceId )
+    {
+        if ( ! contains( resourceId ) )
+            return null;
+
+        final ByteBuffer pixels = mMapping.duplicate();
+        pixels.limit( mOffsets[ resourceId ] + mLengths[ resourceId ] );
+        pixels.position( mOffsets[ resourceId ] );
+        return pixels.slice();
+    }
+
+    private static AssetPack read( ByteBuffer mapping ) throws IOException
+    {
+        if ( mapping.capacity() < HEADER_SIZE || mapping.getInt( 0 ) != MAGIC )
+            throw new IOException( "Not an asset pack" );
+
+        if ( mapping.getInt( 4 ) != VERSION )
+            throw new IOException( "Unsupported asset pack version " + mapping.getInt( 4 ) );
+
+        final int count = mapping.getInt( 8 );
+        if ( count < 0 || HEADER_SIZE + (long) count * ENTRY_SIZE > mapping.capacity() )
+            throw new IOException( "Truncated asset pack index" );
+
+        final AssetPack pack = new AssetPack( mapping.asReadOnlyBuffer(), Resources.values().length );
+        for ( int entry = 0; entry < count; entry++ )
+        {
+            final int position = HEADER_SIZE + entry * ENTRY_SIZE;
+            final int resourceId = mapping.getInt( position );
+            final int width = mapping.getInt( position + 4 );
+            final int height = mapping.getInt( position + 8 );
+            final long sourceLength = mapping.getLong( position + 12 );
+            final long sourceModified = mapping.getLong( position + 20 );
+            final long offset = mapping.getLong( position + 28 );
+            final int length = mapping.getInt( position + 36 );
+
+            if ( length != width * height * 4 || offset < 0 || offset + length > mapping.capacity() )
+                throw new IOException( "Corrupt asset pack entry " + resourceId );
+
+            final Resources resource = Resources.getResource( resourceId );
+            if ( resource == null || resourceId >= pack.mLengths.length )
+                continue;
+
+            final File source = new File( resource.getDrawablePath() );
+            if ( source.length() != sourceLength || source.lastModified() != sourceModified )
+            {
+                GameUtilities.print( "AssetPack", 0, resource.getDrawablePath() + " changed since it was packed" );
+                continue;
+            }
+
+            pack.mWidths[ resourceId ] = width;
+            pack.mHeights[ resourceId ] = height;
+            pack.mOffsets[ resourceId ] = (int) offset;
+            pack.mLengths[ resourceId ] = length;
+        }
+
+        return pack;
+    }
+}
@@ -0,0 +1,85 @@
+package com.opengl.test.core;
+
+import java.awt.image.BufferedImage;
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import javax.imageio.ImageIO;
+
+import com.igottashoot.game.utilities.GameUtilities;
+
+/**
+ * Decodes every drawable in {@link Resources} and writes them into an
+ * {@link AssetPack}. Run it again after changing a drawable; until then the
+ * changed one is decoded from its file at load time.
+ *
+ * Usage: AssetPackBuilder [pack file]
+ */
+public class AssetPackBuilder
+{
+    public static void main( String[] args ) throws IOException
+    {
+        final File output = new File( args.length > 0 ? args[0] : AssetPack.DEFAULT_PATH );
+        final Resources[] resources = Resources.values();
+        final BufferedImage[] images = new BufferedImage[ resources.length ];
+
+        final int count = resources.length;
+        for ( int index = 0; index < count; index++ )
+        {
+            images[ index ] = ImageIO.read( new File( resources[ index ].getDrawablePath() ) );
+            if ( images[ index ] == null )
+                throw new IOException( "Can't decode " + resources[ index ].getDrawablePath() );
+        }
+
+        final DataOutputStream out = new DataOutputStream( new BufferedOutputStream( new FileOutputStream( output ) ) );
+        try
+        {
+            out.writeInt( AssetPack.MAGIC );
+            out.writeInt( AssetPack.VERSION );
+            out.writeInt( count );
+
+            long offset = AssetPack.HEADER_SIZE + (long) count * AssetPack.ENTRY_SIZE;
+            for ( int index = 0; index < count; index++ )
+            {
+                final File source = new File( resources[ index ].getDrawablePath() );
+                final int length = images[ index ].getWidth() * images[ index ].getHeight() * 4;
+
+                out.writeInt( resources[ index ].getId() );
+                out.writeInt( images[ index ].getWidth() );
+                out.writeInt( images[ index ].getHeight() );
+                out.writeLong( source.length() );
+                out.writeLong( source.lastModified() );
+                out.writeLong( offset );
+                out.writeInt( length );
+
+                offset += length;
+            }
+
+            // every entry is a multiple of 4 bytes long, so all stay aligned
+            for ( int index = 0; index < count; index++ )
+                writePixels( out, images[ index ] );
+        }
+        finally
+        {
+            out.close();
+        }
+
+        GameUtilities.print( "AssetPackBuilder", 0, "Packed " + count + " drawables into " + output
+                                                    + " (" + output.length() + " bytes)" );
+    }
+
+    private static void writePixels( DataOutputStream out, BufferedImage image ) throws IOException
+    {
+        final int width = image.getWidth();
+        final int[] row = new int[ width ];
+        for ( int y = 0; y < image.getHeight(); y++ )
+        {
+            image.getRGB( 0, y, width, 1, row, 0, width );
+            for ( int x = 0; x < width; x++ )
+                out.writeInt( ( row[ x ] << 8 ) | ( row[ x ] >>> 24 ) );
+        }
+    }
+}
@@ -0,0 +1,81 @@
+package com.opengl.test.core;
+
+import javax.media.opengl.GLAutoDrawable;
+
+import com.igottashoot.game.core.FrameClock;
+import com.igottashoot.game.core.FramePacer;
+
+/**
+ * Replaces the JOGL FPSAnimator. Instead of a java.util.Timer with its own
+ * (millisecond) idea of when a frame starts, the drawable is displayed on the
+ * deadlines of the same {@link FrameClock} the game thread uses.
+ */
+public class FrameClockAnimator
+{
+    private final GLAutoDrawable mDrawable;
+    private final FrameClock mFrameClock;
+    
+    // a new thread, with its own pacer, every time the animator is started;
+    // a thread stops once it isn't the current one anymore
+    private volatile Thread mThread;
+    private volatile FramePacer mFramePacer;
+    
+    public FrameClockAnimator( GLAutoDrawable drawable, FrameClock frameClock )
+    {
+        mDrawable = drawable;
+        mFrameClock = frameClock;
+        mThread = null;
+        mFramePacer = frameClock.newPacer();
+    }
+    
+    public synchronized void start()
+    {
+        if ( mThread != null )
+            return;
+        
+        final FramePacer framePacer = mFrameClock.newPacer();
+        mFramePacer = framePacer;
+        mThread = new Thread( new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                animate( framePacer );
+            }
+        } );
+        mThread.setName( "Render Pacing Thread" );
+        mThread.setDaemon( true );
+        mThread.start();
+    }
+    
+    public synchronized void stop()
+    {
+        mThread = null;
+    }
+    
+    public boolean isAnimating()
+    {
+        return mThread != null;
+    }
+    
+    /**
+     * The number of frames the render thread did not present on time, since
+     * the animator was last started.
+     */
+    public long getMissedDeadlineCount()
+    {
+        return mFramePacer.getMissedDeadlineCount();
+    }
+    
+    private void animate( FramePacer framePacer )
+    {
+        framePacer.reset();
+        
+        final Thread thread = Thread.currentThread();
+        while ( mThread == thread )
+        {
+            framePacer.awaitNextFrame();
+            mDrawable.display();
+        }
+    }
+}
@@ -0,0 +1,500 @@
+package com.opengl.test.core;
+
+import com.igottashoot.game.core.CancellationToken;
+import com.igottashoot.game.core.FixedTimeStep;
+import com.igottashoot.game.core.FrameClock;
+import com.igottashoot.game.core.GameCamera;
+import com.igottashoot.game.core.GameCollisionHandler;
+import com.igottashoot.game.core.GameEvent;
+import com.igottashoot.game.core.GameRunnable;
+import com.igottashoot.game.core.IoJob;
+import com.igottashoot.game.core.IoJob.IoJobPriority;
+import com.igottashoot.game.core.IoThread;
+import com.igottashoot.game.core.MainLoop;
+import com.igottashoot.game.core.MessageBus.MessageHandler;
+import com.igottashoot.game.core.MessageType;
+import com.igottashoot.game.core.SystemRegistry;
+import com.igottashoot.game.core.TimeSystem;
+import com.igottashoot.game.input.InputInterface;
+import com.igottashoot.game.input.InputRecorder;
+import com.igottashoot.game.input.InputReplayer;
+import com.igottashoot.game.input.TouchScreenLocation;
+import com.igottashoot.game.managers.GameObject;
+import com.igottashoot.game.managers.GameObjectManager;
+import com.igottashoot.game.managers.GameObjectPool;
+import com.igottashoot.game.managers.GameObjectPropertyPool;
+import com.igottashoot.game.managers.PropertyPoolDescriptor;
+import com.igottashoot.game.managers.RenderingBufferManager;
+import com.igottashoot.game.managers.TextureManager;
+import com.igottashoot.game.primitives.DrawableObject;
+import com.igottashoot.game.primitives.Texture;
+import com.igottashoot.game.properties.RenderingProperty;
+import com.igottashoot.game.properties.RenderingProperty.RenderPropertyPriority;
+import com.igottashoot.game.rendering.DrawingCanvas;
+import com.igottashoot.game.rendering.GameRenderer;
+import com.igottashoot.game.rendering.RendererInfo;
+import com.igottashoot.game.rendering.TextureLoader;
+import com.igottashoot.game.rendering.TextureLoadingHandler;
+import com.igottashoot.game.rendering.TextureUpload;
+import com.igottashoot.game.rendering.TileSheet;
+import com.igottashoot.game.rendering.ViewCuller;
+import com.igottashoot.game.utilities.FrameProfiler;
+import com.igottashoot.game.utilities.GameUtilities;
+import com.igottashoot.game.utilities.RenderElementPool;
+
+/**
+ * Everything a running game is made of apart from its display: the main loop
+ * and its game thread, the object managers, the draw queues and renderer, the
+ * textures and the I/O workers that load them, and the loading of levels.
+ * {@link Game} puts it in a window, {@link HeadlessGame} runs it without one;
+ * both only add what is drawn onto and the thread that draws it.
+ */
+public class GameSession implements LevelLoader
+{
+    private final static int FRAMES_IN_FLIGHT = 1;
+    private final static int DRAW_QUEUE_COUNT = RenderingBufferManager.getQueueCount( FRAMES_IN_FLIGHT );
+    private final static int RENDER_OBJECTS_PER_FRAME = RenderingBufferManager.RENDER_QUEUE_CHUNK_SIZE;
+    private final static int INITIAL_RENDER_OBJECTS = RENDER_OBJECTS_PER_FRAME * DRAW_QUEUE_COUNT;
+
+    private static final int MAX_NUMBER_OF_MAIN_LOOP_OBJECTS = 4;
+    private static final int MAX_NUMBER_OF_GAME_OBJECTS = 2;
+    private static final int MAX_TEXTURE_COUNT = 8;
+    // estimated at 4 bytes a pixel; textures still in use don't count against it
+    private static final long TEXTURE_BUDGET_IN_BYTES = Long.getLong( "igottashoot.textureBudgetBytes", 16L * 1024 * 1024 );
+    // what the render thread uploads per frame while a level loads, a level
+    // with more textures than that takes a few frames
+    private static final long TEXTURE_UPLOAD_BYTES_PER_FRAME = Long.getLong( "igottashoot.uploadBytesPerFrame", 1024L * 1024 );
+    private static final long TEXTURE_UPLOAD_NANOS_PER_FRAME = Long.getLong( "igottashoot.uploadMillisPerFrame", 4L ) * 1000000L;
+    private static final int MAX_GAME_OBJECT_COUNT = 2;
+    private static final int MAX_GAME_OBJECT_PROPERTY_COUNT = 21;
+    private static final int MAX_COLLISION_OBJECTS = 5;
+    // The renderer interpolates between steps, so this can be lower than the
+    // frame rate (-Digottashoot.ticksPerSecond=30) and motion stays smooth.
+    private static final int GAME_TICKS_PER_SECOND = Integer.getInteger( "igottashoot.ticksPerSecond", 60 );
+    private static final int MAX_CATCH_UP_STEPS = 5;
+    private static final int IO_WORKER_COUNT = 2;
+    // the game and render threads are busy already
+    private static final int RENDER_BUILDER_WORKER_COUNT = Math.max( 1, Runtime.getRuntime().availableProcessors() - 2 );
+
+    private final GameRunnable mGameRunnable;
+    private final Thread mGameThread;
+    private final IoThread mIoThread;
+    private final TextureLoadingHandler mTextureLoadingHandler;
+
+    private final RenderingBufferManager mRenderingBufferManager;
+    private final GameObjectManager mGameObjectManager;
+    private final RenderElementPool mRenderPool;
+    private final GameRenderer mGameRenderer;
+    private final TextureManager mTextureManager;
+    private final GameObjectPool mGameObjectPool;
+    private final GameObjectPropertyPool mPropertyPool;
+    private final GameCollisionHandler mCollisionHandler;
+    private final InputInterface mInputInterface;
+    private final TimeSystem mTimeSystem;
+    private final GameCamera mCamera;
+    private final SystemRegistry mRegistry;
+
+    private GameEvent mEvent;
+    private IoJob mLevelLoadJob;
+    private InputRecorder mInputRecorder;
+    private InputReplayer mInputReplayer;
+
+    /**
+     * @param frameClock
+     *            Paces the game thread, null to run one fixed step after the
+     *            other without waiting, i.e. faster than real time.
+     * @param textureLoadingHandler
+     *            Reads a level's textures, on the I/O workers.
+     */
+    public GameSession( int desiredWidth,
+                        int desiredHeight,
+                        int actualScreenWidth,
+                        int actualScreenHeight,
+                        FrameClock frameClock,
+                        TextureLoadingHandler textureLoadingHandler )
+    {
+        mRenderPool = new RenderElementPool( INITIAL_RENDER_OBJECTS );
+        mRenderingBufferManager = new RenderingBufferManager( mRenderPool, FRAMES_IN_FLIGHT );
+        mRenderingBufferManager.setWorkerCount( RENDER_BUILDER_WORKER_COUNT );
+        mGameObjectManager = new GameObjectManager( MAX_NUMBER_OF_GAME_OBJECTS );
+        mTextureManager = new TextureManager( MAX_TEXTURE_COUNT, TEXTURE_BUDGET_IN_BYTES );
+        mGameObjectPool = new GameObjectPool( MAX_GAME_OBJECT_COUNT );
+        mPropertyPool = new GameObjectPropertyPool( createPoolDescriptors() );
+        mTextureLoadingHandler = textureLoadingHandler;
+
+        mTimeSystem = new TimeSystem();
+        MainLoop loop = new MainLoop( MAX_NUMBER_OF_MAIN_LOOP_OBJECTS, mTimeSystem );
+        mCamera = new GameCamera();
+        mGameRenderer = new GameRenderer( desiredWidth,
+                                          desiredHeight,
+                                          actualScreenWidth,
+                                          actualScreenHeight,
+                                          mRenderingBufferManager.getFrameExchange() );
+        // the splash background and the platforms hardly ever change
+        mGameRenderer.addCachedLayer( RenderPropertyPriority.BACKGROUND_START.getPriority() );
+        mGameRenderer.setTextureUploadBudget( TEXTURE_UPLOAD_BYTES_PER_FRAME, TEXTURE_UPLOAD_NANOS_PER_FRAME );
+        mInputInterface = new InputInterface( mTimeSystem );
+        mCollisionHandler = new GameCollisionHandler( MAX_COLLISION_OBJECTS );
+
+        mRegistry = createGameRegistry();
+
+        mGameRunnable = new GameRunnable( loop,
+                                          mCamera,
+                                          mRegistry,
+                                          mRenderingBufferManager,
+                                          new FixedTimeStep( GAME_TICKS_PER_SECOND, MAX_CATCH_UP_STEPS ),
+                                          frameClock );
+        mGameRunnable.setMessageHandler( createMessageHandler() );
+        mGameThread = new Thread( mGameRunnable );
+        mGameThread.setName( "Game Thread" );
+        mIoThread = new IoThread( IO_WORKER_COUNT, mGameRunnable );
+
+        loop.addUpdateableObject( mInputInterface );
+        loop.addUpdateableObject( mGameObjectManager );
+        loop.addUpdateableObject( mCamera );
+        loop.addUpdateableObject( mCollisionHandler );
+
+        mEvent = GameEvent.NULL_EVENT;
+        mInputRecorder = null;
+        mInputReplayer = null;
+    }
+
+    public void start()
+    {
+        mGameThread.start();
+    }
+
+    /**
+     * Stops the game thread first, then whatever it left loading and the
+     * threads working for it.
+     */
+    public void stop() throws InterruptedException
+    {
+        mGameRunnable.stopGame();
+        mGameThread.join();
+
+        if ( mLevelLoadJob != null )
+            mLevelLoadJob.cancel();
+
+        mIoThread.stop();
+        mRenderingBufferManager.shutdown();
+    }
+
+    /**
+     * Records every tick of input from the moment the first level is live, so
+     * a replay starts on the same tick regardless of how long loading took.
+     * Must be called before {@link #start()}, the log can be written out once
+     * the game has been stopped.
+     */
+    public InputRecorder recordInput()
+    {
+        mInputRecorder = new InputRecorder( mInputInterface.getInputCount(), 1.0f / GAME_TICKS_PER_SECOND );
+        return mInputRecorder;
+    }
+
+    /**
+     * Replays the log from the moment the first level is live, the same tick
+     * {@link #recordInput()} starts recording on. Must be called before
+     * {@link #start()}.
+     */
+    public void replayInput( InputReplayer replayer )
+    {
+        mInputReplayer = replayer;
+    }
+
+    public void load( GameEvent event )
+    {
+        mGameRunnable.postMessage( MessageType.LOAD_LEVEL, event );
+    }
+
+    public int getTicksPerSecond()
+    {
+        return GAME_TICKS_PER_SECOND;
+    }
+
+    public long getTickCount()
+    {
+        return mGameRunnable.getTickCount();
+    }
+
+    public GameRenderer getGameRenderer()
+    {
+        return mGameRenderer;
+    }
+
+    public InputInterface getInputInterface()
+    {
+        return mInputInterface;
+    }
+
+    public RenderingBufferManager getRenderingBufferManager()
+    {
+        return mRenderingBufferManager;
+    }
+
+    public TextureManager getTextureManager()
+    {
+        return mTextureManager;
+    }
+
+    public FrameProfiler getGameProfiler()
+    {
+        return mGameRunnable.getFrameProfiler();
+    }
+
+    public FrameProfiler getRenderProfiler()
+    {
+        return mGameRenderer.getFrameProfiler();
+    }
+
+    private MessageHandler createMessageHandler()
+    {
+        return new MessageHandler()
+        {
+            @Override
+            public void handleMessage( MessageType type, Object payload )
+            {
+                switch ( type )
+                {
+                    case LOAD_LEVEL:
+                        loadLevel( (GameEvent) payload );
+                        break;
+                    default:
+                        throw new IllegalStateException( "The game thread can't handle message " + type );
+                }
+            }
+        };
+    }
+
+    /**
+     * This is my super complex solution to loading a new level.
+     * <ul>
+     * <li>On the game thread, unload any created objects by the previous level
+     * and create all objects required for new state ({@link GameObject}) and
+     * identify any textures that are required by the level (by allocating for
+     * them in the {@link TextureManager}).
+     * <li>Schedule textures to be loaded on the I/O thread
+     * <li>Once the textures are in memory, notify the rendering thread that
+     * these textures are necessary for rendering
+     * <li>Return to the game thread to load the game objects to the main loop.
+     * </ul>
+     */
+    private void loadLevel( final GameEvent event )
+    {
+        // enable the loading screen gameObject
+        // mLoadingGameObject.enabled();
+
+        // previous event unload
+        mEvent.unload( this );
+
+        // load new event
+        mEvent = event;
+        mEvent.create( this );
+
+        // the new level holds its textures now, whatever else is left over
+        // can go if it doesn't fit
+        evictTextures();
+        final Texture[] texturesToLoad = mTextureManager.getTexturesToLoad();
+
+        // a level that is still loading is of no use anymore
+        if ( mLevelLoadJob != null )
+            mLevelLoadJob.cancel();
+
+        mLevelLoadJob = new IoJob( IoJobPriority.LEVEL_LOAD, null )
+        {
+            @Override
+            protected void execute( final CancellationToken cancellationToken )
+            {
+                final Object[] loadedTextures = mTextureLoadingHandler.loadTextures( texturesToLoad );
+                if ( cancellationToken.isCancelled() )
+                    return;
+
+                // spread over as many frames as the upload budget needs,
+                // the level is loaded after the last of them
+                Runnable onUploaded = new Runnable()
+                {
+                    @Override
+                    public void run()
+                    {
+                        if ( cancellationToken.isCancelled() )
+                            return;
+
+                        Runnable runOnGameThread = new Runnable()
+                        {
+                            @Override
+                            public void run()
+                            {
+                                onLevelLoaded();
+                            }
+                        };
+
+                        mGameRunnable.addMessage( runOnGameThread );
+                    }
+                };
+
+                mGameRenderer.scheduleTextureLoad( new TextureUpload( loadedTextures, onUploaded ) );
+            }
+        };
+
+        mIoThread.submit( mLevelLoadJob );
+    }
+
+    /** Back on the game thread, once the last of the level's textures is up. */
+    private void onLevelLoaded()
+    {
+        mEvent.load( this );
+        evictTextures();
+        GameUtilities.print( "GameSession", 0, "Textures resident: " + mTextureManager.getResidentBytes()
+                                               + "B Hits: " + mTextureManager.getHitCount()
+                                               + " Misses: " + mTextureManager.getMissCount()
+                                               + " Evictions: " + mTextureManager.getEvictionCount() );
+
+        if ( mInputRecorder != null )
+            mInputInterface.setRecorder( mInputRecorder );
+
+        if ( mInputReplayer != null )
+            mInputInterface.setReplayer( mInputReplayer );
+    }
+
+    @Override
+    public void addGameObject( GameObject object )
+    {
+        mGameObjectManager.addGameObject( object );
+    }
+
+    @Override
+    public Texture allocateTexture( int resourceId )
+    {
+        return mTextureManager.allocateTexture( resourceId );
+    }
+
+    @Override
+    public void removeGameObject( GameObject backgroundObject )
+    {
+        mGameObjectManager.removeGameObject( backgroundObject );
+    }
+
+    @Override
+    public void releaseTexture( Texture texture )
+    {
+        mTextureManager.releaseTexture( texture );
+    }
+
+    @Override
+    public TileSheet getTileSheet( int resourceId, int rowCount, int columnCount )
+    {
+        return mTextureManager.getTileSheet( resourceId, rowCount, columnCount );
+    }
+
+    /**
+     * Evicts what doesn't fit the texture budget anymore, the renderer frees
+     * them after the frames already queued.
+     */
+    private void evictTextures()
+    {
+        final int[] evicted = mTextureManager.evictTextures();
+        if ( evicted.length == 0 )
+            return;
+
+        mGameRenderer.scheduleTextureLoad( new TextureLoader()
+        {
+            @Override
+            public void load( DrawingCanvas canvas )
+            {
+                for ( int index = 0; index < evicted.length; index++ )
+                    canvas.releaseTexture( evicted[ index ] );
+            }
+        } );
+    }
+
+    @Override
+    public GameObject allocateGameObject()
+    {
+        GameObject object = mGameObjectPool.allocate();
+        object.setMaximumNumberOfPropertyObjects( MAX_GAME_OBJECT_PROPERTY_COUNT );
+
+        return object;
+    }
+
+    @Override
+    public void releaseGameObject( GameObject gameObject )
+    {
+        mGameObjectPool.release( gameObject );
+    }
+
+    @Override
+    public void setCameraTarget( GameObject target )
+    {
+        mCamera.setTarget( target );
+    }
+
+    private SystemRegistry createGameRegistry()
+    {
+        return new SystemRegistry()
+        {
+            @Override
+            public TimeSystem getTimeSystem()
+            {
+                return mTimeSystem;
+            }
+
+            @Override
+            public void scheduleForDraw( DrawableObject drawable, long sortKey )
+            {
+                mRenderingBufferManager.scheduleForDraw( drawable, sortKey );
+            }
+
+            @Override
+            public void markCachedLayersDirty()
+            {
+                mRenderingBufferManager.markCachedLayersDirty();
+            }
+
+            @Override
+            public RendererInfo getRenderInfo()
+            {
+                return mGameRenderer.getRenderInfo();
+            }
+
+            @Override
+            public ViewCuller getViewCuller()
+            {
+                return mRenderingBufferManager.getViewCuller();
+            }
+
+            @Override
+            public TouchScreenLocation getTouchScreenLocation()
+            {
+                return mInputInterface;
+            }
+
+            @Override
+            public void load( GameEvent event )
+            {
+                GameSession.this.load( event );
+            }
+
+            @Override
+            public GameCollisionHandler getCollisionHandler()
+            {
+                return mCollisionHandler;
+            }
+
+            @Override
+            public FrameProfiler getFrameProfiler()
+            {
+                return mGameRunnable.getFrameProfiler();
+            }
+        };
+    }
+
+    private static PropertyPoolDescriptor[] createPoolDescriptors()
+    {
+        PropertyPoolDescriptor[] descriptor =
+        {
+             new PropertyPoolDescriptor( RenderingProperty.class, 10 )
+        };
+
+        return descriptor;
+    }
+}
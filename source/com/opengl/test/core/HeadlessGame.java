@@ -0,0 +1,237 @@
+package com.opengl.test.core;
+
+import java.io.BufferedInputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import com.igottashoot.game.core.FrameClock;
+import com.igottashoot.game.core.FramePacer;
+import com.igottashoot.game.core.GameEvent;
+import com.igottashoot.game.events.CanabaltLoadEvent;
+import com.igottashoot.game.input.InputReplayer;
+import com.igottashoot.game.managers.RenderingBufferManager;
+import com.igottashoot.game.managers.TextureManager;
+import com.igottashoot.game.rendering.DrawResizer;
+import com.igottashoot.game.rendering.GameRenderer;
+import com.igottashoot.game.rendering.NullDrawingCanvas;
+import com.igottashoot.game.rendering.ViewCuller;
+import com.igottashoot.game.utilities.FrameProfiler;
+import com.igottashoot.game.utilities.GameUtilities;
+
+/**
+ * Runs the game without JOGL, Swing or a window: the same {@link GameSession}
+ * as {@link Game}, but the renderer draws onto a {@link NullDrawingCanvas}.
+ * Meant for build servers and for measuring how fast the game thread alone
+ * can go.
+ * 
+ * Usage: HeadlessGame [seconds] [capped|uncapped] [input log]
+ * 
+ * With an input log (recorded with -Digottashoot.recordInput, see
+ * {@link Main}) the session is replayed and the run ends when the log does,
+ * the number of seconds then only being a time out.
+ */
+public class HeadlessGame
+{
+    private static final int FRAMES_PER_SECOND = 60;
+    
+    private static final int SCREEN_WIDTH = 480;
+    private static final int SCREEN_HEIGHT = 320;
+    private static final int DEFAULT_RUN_TIME_IN_SECONDS = 10;
+    private static final long REPLAY_POLL_TIME_IN_MILLIS = 10;
+    
+    private final GameSession mSession;
+    private final Thread mDrawThread;
+    private final NullDrawingCanvas mCanvas;
+    
+    private volatile boolean mIsRunning;
+    
+    /**
+     * @param uncapped
+     *            When true the game thread runs one fixed step after the
+     *            other without waiting for the frame clock, i.e. faster than
+     *            real time.
+     */
+    public HeadlessGame( int screenWidth, int screenHeight, boolean uncapped )
+    {
+        FrameClock frameClock = new FrameClock( FRAMES_PER_SECOND );
+        
+        mCanvas = new NullDrawingCanvas();
+        mSession = new GameSession( screenWidth,
+                                    screenHeight,
+                                    screenWidth,
+                                    screenHeight,
+                                    uncapped ? null : frameClock,
+                                    mCanvas );
+        
+        mDrawThread = new Thread( createDrawLoop( frameClock.newPacer() ) );
+        mDrawThread.setName( "Headless Draw Thread" );
+        
+        mIsRunning = false;
+    }
+    
+    /** See {@link GameSession#replayInput(InputReplayer)}. */
+    public void replayInput( InputReplayer replayer )
+    {
+        mSession.replayInput( replayer );
+    }
+    
+    public void start()
+    {
+        final GameRenderer renderer = mSession.getGameRenderer();
+        renderer.onSurfaceChanged( new DrawResizer()
+        {
+            @Override
+            public void resize( int width, int height )
+            {
+                
+            }
+        }, renderer.getRenderInfo().getRenderWidth(), renderer.getRenderInfo().getRenderHeight() );
+        
+        mIsRunning = true;
+        mDrawThread.start();
+        mSession.start();
+    }
+    
+    public void stop() throws InterruptedException
+    {
+        mSession.stop();
+        
+        mIsRunning = false;
+        mDrawThread.join();
+    }
+    
+    public void load( GameEvent event )
+    {
+        mSession.load( event );
+    }
+    
+    public int getTicksPerSecond()
+    {
+        return mSession.getTicksPerSecond();
+    }
+    
+    public long getTickCount()
+    {
+        return mSession.getTickCount();
+    }
+    
+    public RenderingBufferManager getRenderingBufferManager()
+    {
+        return mSession.getRenderingBufferManager();
+    }
+    
+    public ViewCuller getViewCuller()
+    {
+        return mSession.getRenderingBufferManager().getViewCuller();
+    }
+    
+    public TextureManager getTextureManager()
+    {
+        return mSession.getTextureManager();
+    }
+    
+    public FrameProfiler getGameProfiler()
+    {
+        return mSession.getGameProfiler();
+    }
+    
+    public FrameProfiler getRenderProfiler()
+    {
+        return mSession.getRenderProfiler();
+    }
+    
+    /** Only accurate once the game has been stopped. */
+    public long getDrawnFrameCount()
+    {
+        return mCanvas.getFrameCount();
+    }
+    
+    /**
+     * The renderer still runs at the frame clock's rate, it has to drain its
+     * texture loads and keep the frame exchange moving.
+     */
+    private Runnable createDrawLoop( final FramePacer pacer )
+    {
+        final GameRenderer renderer = mSession.getGameRenderer();
+        return new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                pacer.reset();
+                while ( mIsRunning )
+                {
+                    renderer.onDraw( mCanvas );
+                    pacer.awaitNextFrame();
+                }
+            }
+        };
+    }
+    
+    public static void main( String[] args ) throws IOException, InterruptedException
+    {
+        final int seconds = ( args.length > 0 ) ? Integer.parseInt( args[0] ) : DEFAULT_RUN_TIME_IN_SECONDS;
+        final boolean uncapped = ( args.length > 1 ) ? ! "capped".equals( args[1] ) : true;
+        final InputReplayer replayer = ( args.length > 2 ) ? readInputLog( args[2] ) : null;
+        
+        HeadlessGame game = new HeadlessGame( SCREEN_WIDTH, SCREEN_HEIGHT, uncapped );
+        if ( replayer != null )
+            game.replayInput( replayer );
+        
+        game.start();
+        game.load( new CanabaltLoadEvent() );
+        
+        final long start = GameUtilities.getCurrentTimeInNanos();
+        final long timeOut = start + seconds * 1000000000L;
+        while ( GameUtilities.getCurrentTimeInNanos() < timeOut )
+        {
+            if ( replayer != null && replayer.isFinished() )
+                break;
+            
+            Thread.sleep( REPLAY_POLL_TIME_IN_MILLIS );
+        }
+        
+        game.stop();
+        final long elapsed = GameUtilities.getCurrentTimeInNanos() - start;
+        
+        final double elapsedSeconds = elapsed / 1.0e9;
+        final long ticks = game.getTickCount();
+        GameUtilities.print( "HeadlessGame", 0, "Ticks: " + ticks
+                                                + " Ticks/s: " + (long) ( ticks / elapsedSeconds )
+                                                + " Simulated/Real: " + ( ticks / (double) game.getTicksPerSecond() ) / elapsedSeconds
+                                                + " Frames drawn: " + game.getDrawnFrameCount()
+                                                + " Last frame culled/drawn: " + game.getViewCuller().getLastFrameCulledCount()
+                                                + "/" + game.getViewCuller().getLastFrameDrawnCount()
+                                                + " Queue high water: " + game.getRenderingBufferManager().getQueueHighWaterMark()
+                                                + " Pool high water: " + game.getRenderingBufferManager().getPoolHighWaterMark()
+                                                + " Dropped: " + game.getRenderingBufferManager().getDroppedCount() );
+        
+        GameUtilities.print( "HeadlessGame", 0, "Textures resident: " + game.getTextureManager().getResidentBytes()
+                                                + "B Hits: " + game.getTextureManager().getHitCount()
+                                                + " Misses: " + game.getTextureManager().getMissCount()
+                                                + " Evictions: " + game.getTextureManager().getEvictionCount() );
+        GameUtilities.print( "HeadlessGame", 0, game.getGameProfiler().getReport() );
+        GameUtilities.print( "HeadlessGame", 0, game.getRenderProfiler().getReport() );
+        
+        if ( replayer != null )
+        {
+            GameUtilities.print( "HeadlessGame", 0, "Replayed ticks: " + replayer.getTickCount()
+                                                    + " Finished: " + replayer.isFinished()
+                                                    + " Desyncs: " + replayer.getDesyncCount() );
+        }
+    }
+    
+    private static InputReplayer readInputLog( String fileName ) throws IOException
+    {
+        InputStream input = new BufferedInputStream( new FileInputStream( fileName ) );
+        try
+        {
+            return new InputReplayer( input );
+        }
+        finally
+        {
+            input.close();
+        }
+    }
+}
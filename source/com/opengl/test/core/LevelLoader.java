@@ -2,11 +2,13 @@ package com.opengl.test.core;
 
 import com.igottashoot.game.managers.GameObject;
 import com.igottashoot.game.primitives.Texture;
+import com.igottashoot.game.rendering.TileSheet;
 
 public interface LevelLoader
 {
     Texture allocateTexture( int resourceId );
     void releaseTexture( Texture texture );
+    TileSheet getTileSheet( int resourceId, int rowCount, int columnCount );
     
     GameObject allocateGameObject();
     void releaseGameObject( GameObject gameObject );
@@ -1,9 +1,14 @@
 package com.opengl.test.core;
 
+import java.io.BufferedOutputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
 
 import com.igottashoot.game.core.GameRunnable;
 import com.igottashoot.game.events.CanabaltLoadEvent;
+import com.igottashoot.game.input.InputRecorder;
+import com.igottashoot.game.utilities.GameUtilities;
 
 /**
  * This is executed on some Java thread. Its our main thread, and has to somehow
@@ -20,6 +25,8 @@ public class Main
     private static final int DESIRED_HEIGHT = 320;
     private static final int DESIRED_WIDTH = 480;
     
+    private static final String RECORD_INPUT_PROPERTY = "igottashoot.recordInput";
+    
     enum GameCommands
     {
         START,
@@ -37,6 +44,12 @@ public class Main
     public static void main( String[] args ) throws IOException
     {
         Game game = new Game( DESIRED_WIDTH, DESIRED_HEIGHT, ACTUAL_SCREEN_WIDTH, ACTUAL_SCREEN_HEIGHT );
+        
+        // -Digottashoot.recordInput=<file> records the session for HeadlessGame to replay
+        final String recordFile = System.getProperty( RECORD_INPUT_PROPERTY );
+        if ( recordFile != null )
+            recordInputOnExit( game, game.recordInput(), recordFile );
+        
         game.start();
 //        game.load( new LoadLevelEvent() );
         game.load( new CanabaltLoadEvent() );
@@ -67,6 +80,41 @@ public class Main
 //        }
     }
 
+    /**
+     * The window exits the VM when closed, so the recording is written from a
+     * shutdown hook once the game thread has stopped.
+     */
+    private static void recordInputOnExit( final Game game, final InputRecorder recorder, final String fileName )
+    {
+        Runtime.getRuntime().addShutdownHook( new Thread()
+        {
+            @Override
+            public void run()
+            {
+                game.stop();
+                
+                OutputStream output = null;
+                try
+                {
+                    output = new BufferedOutputStream( new FileOutputStream( fileName ) );
+                    recorder.writeTo( output );
+                    GameUtilities.print( "Main", 0, "Recorded " + recorder.getTickCount() + " ticks to " + fileName );
+                }
+                catch ( IOException e )
+                {
+                    e.printStackTrace();
+                }
+                finally
+                {
+                    if ( output != null )
+                    {
+                        try { output.close(); } catch ( IOException e ) {}
+                    }
+                }
+            }
+        } );
+    }
+
 //    private static GameCommands parse( String message )
 //    {
 //        for ( GameCommands command : GameCommands.values() )
@@ -7,8 +7,8 @@ import javax.media.opengl.GLCanvas;
 import javax.media.opengl.GLCapabilities;
 import javax.media.opengl.GLEventListener;
 
+import com.igottashoot.game.core.FrameClock;
 import com.igottashoot.game.rendering.DrawThreadInterface;
-import com.sun.opengl.util.FPSAnimator;
 
 /**
  * All methods of this class are invoked on the drawing thread (in this case,
@@ -16,10 +16,10 @@ import com.sun.opengl.util.FPSAnimator;
  */
 public class OpenGLSurfaceRenderer extends GLCanvas implements GLEventListener
 {
-    private final FPSAnimator mAnimator;
+    private final FrameClockAnimator mAnimator;
     private final DrawThreadInterface mRenderer;
 
-    public OpenGLSurfaceRenderer( DrawThreadInterface renderer, MouseListener mouseListener )
+    public OpenGLSurfaceRenderer( DrawThreadInterface renderer, MouseListener mouseListener, FrameClock frameClock )
     {
         super( initializeCapabilities() );
         
@@ -27,7 +27,7 @@ public class OpenGLSurfaceRenderer extends GLCanvas implements GLEventListener
         addGLEventListener( this );
         
         mRenderer = renderer;
-        mAnimator = new FPSAnimator( this, 60 );
+        mAnimator = new FrameClockAnimator( this, frameClock );
     }
 
     /**
@@ -1,11 +1,6 @@
 package com.opengl.test.core;
 
-import java.io.BufferedInputStream;
-import java.io.FileInputStream;
-import java.io.IOException;
-import java.io.InputStream;
-import java.util.HashMap;
-import java.util.Map;
+import java.util.Arrays;
 
 import javax.media.opengl.DebugGL;
 import javax.media.opengl.GL;
@@ -17,7 +12,13 @@ import com.igottashoot.game.rendering.DrawInitializer;
 import com.igottashoot.game.rendering.DrawResizer;
 import com.igottashoot.game.rendering.DrawableObjectInfo;
 import com.igottashoot.game.rendering.DrawingCanvas;
+import com.igottashoot.game.rendering.LayerCachingCanvas;
 import com.igottashoot.game.rendering.TextureLoadingHandler;
+import com.igottashoot.game.rendering.TextureUploadingCanvas;
+import com.igottashoot.game.rendering.bitmap.DefaultDrawableObjectInfo;
+import com.igottashoot.game.utilities.DirectBufferPool;
+import com.igottashoot.game.utilities.GameUtilities;
+import com.opengl.test.core.TextureAtlasBuilder.AtlasPage;
 import com.sun.opengl.util.texture.TextureData;
 import com.sun.opengl.util.texture.TextureIO;
 
@@ -25,12 +26,49 @@ import com.sun.opengl.util.texture.TextureIO;
  * These methods should probably not return a new object every time. Giving the
  * GC too much work to do.
  */
-public class OpenGLUtilities implements DrawInitializer, DrawResizer, DrawingCanvas, TextureLoadingHandler
+public class OpenGLUtilities implements DrawInitializer, DrawResizer, DrawingCanvas, LayerCachingCanvas, TextureLoadingHandler, TextureUploadingCanvas
 {
     private static final OpenGLUtilities INSTANCE = new OpenGLUtilities();
+    private static final int MAX_BATCHED_SPRITES = 256;
+    private static final int MAX_ATLAS_PAGE_SIZE = 1024;
+    private static final int ATLAS_PADDING = 2;
+    private static final int MAX_LAYER_SIZE = 1024;
+    private static final int DECODE_WORKER_COUNT = Integer.getInteger( "igottashoot.decodeThreads", Runtime.getRuntime().availableProcessors() );
+    private static final long MAX_STAGING_BYTES = 16L * 1024 * 1024;
+    private static final String ASSET_PACK_PATH = System.getProperty( "igottashoot.assetPack", AssetPack.DEFAULT_PATH );
+    
+    // per cached layer: left, bottom, right, top, then the pixels per unit
+    // along x and y it was drawn with
+    private static final int LAYER_PLACEMENT_STRIDE = 6;
 
-    private final Map<Integer, com.sun.opengl.util.texture.Texture> mTextureLookup = new HashMap();
+    private final RenderStateCache mStateCache = new RenderStateCache();
+    private final SpriteBatch mSpriteBatch = new SpriteBatch( MAX_BATCHED_SPRITES, mStateCache );
+    private final TextureDecoder mDecoder = new TextureDecoder( Math.max( 1, DECODE_WORKER_COUNT ),
+                                                                   new DirectBufferPool( MAX_STAGING_BYTES ),
+                                                                   AssetPack.openIfPresent( ASSET_PACK_PATH ) );
+    private final TextureAtlasBuilder mAtlasBuilder = new TextureAtlasBuilder( MAX_ATLAS_PAGE_SIZE, ATLAS_PADDING, mDecoder );
+    private com.sun.opengl.util.texture.Texture[] mTextureLookup = 
+        new com.sun.opengl.util.texture.Texture[ Resources.values().length ];
     private GLAutoDrawable mDrawable;
+    private boolean mIsBatching = true;
+    private volatile boolean mIsAtlasing = true;
+    private boolean mIsLayerCaching = true;
+    private boolean mHasFramebuffers = false;
+    
+    private int mViewportWidth;
+    private int mViewportHeight;
+    private int mViewLeft;
+    private int mViewBottom;
+    private int mViewRight;
+    private int mViewTop;
+    
+    // offscreen images of the cached layers, by slot
+    private int[] mLayerFramebuffers = new int[ 0 ];
+    private int[] mLayerTextures = new int[ 0 ];
+    private int[] mLayerTextureSizes = new int[ 0 ];
+    private float[] mLayerPlacements = new float[ 0 ];
+    private int mCapturingSlot = -1;
+    private final DefaultDrawableObjectInfo mLayerInfo = new DefaultDrawableObjectInfo();
     
     public static OpenGLUtilities getInstance( GLAutoDrawable drawable )
     {
@@ -40,12 +78,78 @@ public class OpenGLUtilities implements DrawInitializer, DrawResizer, DrawingCan
         return INSTANCE;
     }
 
+    /**
+     * When batching, sprites are collected into vertex arrays and drawn with
+     * one glDrawArrays per run of the same texture. Otherwise every sprite is
+     * drawn on its own in immediate mode. Executed on the render thread,
+     * between frames.
+     */
+    public void setBatching( boolean batching )
+    {
+        mIsBatching = batching;
+    }
+    
+    public boolean isBatching()
+    {
+        return mIsBatching;
+    }
+    
+    /**
+     * When atlasing, the textures of a load are packed into shared pages so
+     * they can be batched together. Only affects the loads started after it
+     * is set.
+     */
+    public void setAtlasing( boolean atlasing )
+    {
+        mIsAtlasing = atlasing;
+    }
+    
+    public boolean isAtlasing()
+    {
+        return mIsAtlasing;
+    }
+    
+    /**
+     * When layer caching, the layers the renderer caches are drawn into
+     * framebuffer objects and drawn from there while they don't change.
+     * Without GL_EXT_framebuffer_object they're always drawn sprite by sprite.
+     * Executed on the render thread, between frames.
+     */
+    public void setLayerCaching( boolean layerCaching )
+    {
+        mIsLayerCaching = layerCaching;
+    }
+    
+    public boolean isLayerCaching()
+    {
+        return mIsLayerCaching && mHasFramebuffers;
+    }
+    
+    public SpriteBatch getSpriteBatch()
+    {
+        return mSpriteBatch;
+    }
+    
+    /** Has the per frame counts of state changes issued and avoided. */
+    public RenderStateCache getStateCache()
+    {
+        return mStateCache;
+    }
+
     @Override
     public void initialize()
     {
         GL gl = mDrawable.getGL();
         mDrawable.setGL( new DebugGL( gl ) );
         
+        // A new context, nothing we knew about the old one holds
+        mStateCache.invalidate();
+        mLayerFramebuffers = new int[ 0 ];
+        mLayerTextures = new int[ 0 ];
+        mLayerTextureSizes = new int[ 0 ];
+        mLayerPlacements = new float[ 0 ];
+        mHasFramebuffers = gl.isExtensionAvailable( "GL_EXT_framebuffer_object" );
+        
         // We use the fastest perspective correction
         gl.glHint( GL.GL_PERSPECTIVE_CORRECTION_HINT, GL.GL_FASTEST );
         
@@ -53,9 +157,9 @@ public class OpenGLUtilities implements DrawInitializer, DrawResizer, DrawingCan
         gl.glClearColor( 0f, 0f, 0f, 0f );
         
         // Enable flat shading.
-        gl.glShadeModel( GL.GL_FLAT );
+        mStateCache.shadeModel( gl, GL.GL_FLAT );
         gl.glDisable( GL.GL_DEPTH_TEST );
-        gl.glEnable( GL.GL_TEXTURE_2D );
+        mStateCache.enable( gl, GL.GL_TEXTURE_2D );
         
         gl.glDisable( GL.GL_DITHER );
         gl.glDisable( GL.GL_LIGHTING );
@@ -75,70 +179,141 @@ public class OpenGLUtilities implements DrawInitializer, DrawResizer, DrawingCan
          * is resized.
          */
         gl.glViewport( 0, 0, width, height );
+        mViewportWidth = width;
+        mViewportHeight = height;
     }
 
     /**
-     * Executed on the IoThread
+     * Executed on the IoThread, the images are decoded on the decoder's
+     * threads meanwhile.
      */
     @Override
     public Object[] loadTextures( Texture[] textures )
     {
-        Object[] result = new Object[ textures.length * 2 ];
-        for ( int index = 0; index < textures.length; index++ )
-        {
-            final Texture texture = textures[ index ];
-            
-            // TODO: This check might not be thread safe
-            if ( ! texture.isLoaded() && texture.getResourceId() != -1 )
-            {
-                TextureData data = load( texture );
-                if ( data == null )
-                {
-                    texture.setLoaded( false );
-                    continue;
-                }
-                
-                int resultIndex = index * 2;
-                result[ resultIndex ] = texture;
-                result[ resultIndex+1 ] = data;
-            }
-        }
+        final long start = GameUtilities.getCurrentTimeInNanos();
+        final Object[] result = mIsAtlasing ? mAtlasBuilder.build( textures ) : mDecoder.decode( textures );
         
+        GameUtilities.print( "OpenGLUtilities", 0, "Decoded " + textures.length + " textures in "
+                                                   + ( GameUtilities.getCurrentTimeInNanos() - start ) / 1000000 + "ms on "
+                                                   + mDecoder.getWorkerCount() + " threads" );
         return result;
     }
     
+    public TextureDecoder getDecoder()
+    {
+        return mDecoder;
+    }
+    
     @Override
     public void handleLoadedTextures( Object[] loadTextures )
     {
-        for ( int index = 0; index < loadTextures.length; index+=2 )
+        final int count = getUploadCount( loadTextures );
+        for ( int index = 0; index < count; index++ )
+            upload( loadTextures, index );
+    }
+    
+    /** One piece per (key, TextureData) pair. */
+    @Override
+    public int getUploadCount( Object[] loadedTextures )
+    {
+        return loadedTextures.length / 2;
+    }
+    
+    @Override
+    public long getUploadSize( Object[] loadedTextures, int index )
+    {
+        final TextureData data = (TextureData) loadedTextures[ index * 2 + 1 ];
+        if ( loadedTextures[ index * 2 ] == null || data == null )
+            return 0;
+        
+        return (long) data.getWidth() * data.getHeight() * 4;
+    }
+    
+    @Override
+    public void upload( Object[] loadedTextures, int index )
+    {
+        final Object key = loadedTextures[ index * 2 ];
+        if ( key == null )
+            return;
+        
+        TextureData data = (TextureData) loadedTextures[ index * 2 + 1 ];
+        com.sun.opengl.util.texture.Texture newTexture = TextureIO.newTexture( data );
+        
+        // the pixels were uploaded, their staging buffer can be reused
+        data.flush();
+        
+        // Creating a texture binds it
+        mStateCache.invalidate();
+        
+        if ( key instanceof AtlasPage )
         {
-            if ( loadTextures[ index ] == null )
-                continue;
-            
-            Texture texture = (Texture) loadTextures[ index ];
-            TextureData data = (TextureData) loadTextures[ index+1 ];
-            com.sun.opengl.util.texture.Texture newTexture = TextureIO.newTexture( data );
-            
-            mTextureLookup.put( texture.getResourceId(), newTexture );
+            handleLoadedPage( (AtlasPage) key, newTexture );
+            return;
+        }
+        
+        Texture texture = (Texture) key;
+        putLoadedTexture( texture.getResourceId(), newTexture );
+        
+        texture.setBindingName( newTexture.getTextureObject() );
+        texture.setSize( newTexture.getWidth(), newTexture.getHeight() );
+        texture.setRegion( 0f, 0f, 1f, 1f );
+        texture.setLoaded( true );
+    }
+    
+    private void handleLoadedPage( AtlasPage page, com.sun.opengl.util.texture.Texture pageTexture )
+    {
+        final int count = page.getTextureCount();
+        for ( int index = 0; index < count; index++ )
+        {
+            Texture texture = page.getTexture( index );
+            putLoadedTexture( texture.getResourceId(), pageTexture );
             
-            texture.setBindingName( newTexture.getTextureObject() );
-            texture.setSize( newTexture.getWidth(), newTexture.getHeight() );
+            texture.setBindingName( pageTexture.getTextureObject() );
+            page.applyRegion( index, texture );
             texture.setLoaded( true );
         }
     }
     
-//    @Override
-//    public void releaseTexture( Texture texture )
-//    {
-//        com.sun.opengl.util.texture.Texture glTexture = mLoadedTextures.get( texture.getResourceId() );
-//        if ( glTexture == null )
-//            return;
-//        
-//        mLoadedTextures.remove( glTexture );
-//        glTexture.dispose();
-//        texture.setBindingName( -1 );
-//        texture.setLoaded( false );
-//    }
+    /**
+     * Atlas pages are shared by the textures packed into them, a page is only
+     * disposed once none of them is left in the lookup.
+     */
+    @Override
+    public void releaseTexture( int textureResourceId )
+    {
+        com.sun.opengl.util.texture.Texture glTexture = getLoadedTexture( textureResourceId );
+        if ( glTexture == null )
+            return;
+        
+        mTextureLookup[ textureResourceId ] = null;
+        for ( int index = 0; index < mTextureLookup.length; index++ )
+        {
+            if ( mTextureLookup[ index ] == glTexture )
+                return;
+        }
+        
+        mSpriteBatch.suspend( mDrawable.getGL() );
+        glTexture.dispose();
+        
+        // Whatever was bound may have been the texture just deleted
+        mStateCache.invalidate();
+    }
+    
+    private void putLoadedTexture( int resourceId, com.sun.opengl.util.texture.Texture loadedTexture )
+    {
+        if ( resourceId >= mTextureLookup.length )
+            mTextureLookup = Arrays.copyOf( mTextureLookup, Math.max( resourceId + 1, mTextureLookup.length * 2 ) );
+        
+        mTextureLookup[ resourceId ] = loadedTexture;
+    }
+    
+    private com.sun.opengl.util.texture.Texture getLoadedTexture( int resourceId )
+    {
+        if ( resourceId < 0 || resourceId >= mTextureLookup.length )
+            return null;
+        
+        return mTextureLookup[ resourceId ];
+    }
     
     @Override
     public void start( CameraViewInfo cameraViewInfo )
@@ -148,12 +323,19 @@ public class OpenGLUtilities implements DrawInitializer, DrawResizer, DrawingCan
         int right = cameraViewInfo.getCameraWorldRight();
         int top = cameraViewInfo.getCameraWorldTop();
         
+        mViewLeft = left;
+        mViewBottom = bottom;
+        mViewRight = right;
+        mViewTop = top;
+        
         GL gl = mDrawable.getGL();
         
-        gl.glShadeModel( GL.GL_FLAT );
-        gl.glEnable( GL.GL_BLEND );
-        gl.glBlendFunc( GL.GL_ONE, GL.GL_ONE_MINUS_SRC_ALPHA );
-        gl.glColor4i( 255, 255, 255, 255 );
+        // Blend, shading and color are left as they are between frames, the
+        // cache only lets these through when something changed them.
+        mStateCache.beginFrame();
+        mStateCache.shadeModel( gl, GL.GL_FLAT );
+        mStateCache.enable( gl, GL.GL_BLEND );
+        mStateCache.blendFunc( gl, GL.GL_ONE, GL.GL_ONE_MINUS_SRC_ALPHA );
 
         gl.glMatrixMode( GL.GL_PROJECTION );
         gl.glPushMatrix();
@@ -164,40 +346,219 @@ public class OpenGLUtilities implements DrawInitializer, DrawResizer, DrawingCan
         gl.glPushMatrix();
         gl.glLoadIdentity();
        
-        gl.glEnable( GL.GL_TEXTURE_2D );
+        mStateCache.enable( gl, GL.GL_TEXTURE_2D );
         
         // we initialize the color to white with full alpha for the background
         // texture. This is important for the GL_BLEND function which uses the
         // color and alpha to determine what the blending will be.
-        gl.glColor4f( 1.0f, 1.0f, 1.0f, 1.0f );
+        mStateCache.color( gl, 1.0f, 1.0f, 1.0f, 1.0f );
+        
+        if ( mIsBatching )
+            mSpriteBatch.begin( gl );
     }
 
     @Override
     public void draw( Texture texture, DrawableObjectInfo textureInfo )
+    {
+        if ( texture.isLoaded() == false )
+            return;
+        
+        draw( texture.getResourceId(), textureInfo );
+    }
+    
+    @Override
+    public void draw( int textureResourceId, DrawableObjectInfo textureInfo )
     {
         // Apply texture.
-        final com.sun.opengl.util.texture.Texture loadedTexture = 
-            mTextureLookup.get( texture.getResourceId() );
+        final com.sun.opengl.util.texture.Texture loadedTexture = getLoadedTexture( textureResourceId );
         
-        if ( loadedTexture == null || texture.isLoaded() == false )
+        if ( loadedTexture == null )
             return;
                 
-        final float opacity = textureInfo.getOpacity();
-        
         GL gl = mDrawable.getGL();
         
-        // TODO: Some optimization can be done here so that we don't bind the
-        // same texture two times in a row.
-        loadedTexture.enable();
-        loadedTexture.bind();
+        if ( mIsBatching )
+        {
+            mSpriteBatch.draw( gl, loadedTexture, textureInfo );
+            return;
+        }
+        
+        final float opacity = textureInfo.getOpacity();
+        
+        mStateCache.enable( gl, GL.GL_TEXTURE_2D );
+        mStateCache.bindTexture( loadedTexture );
         
         if ( opacity < 1.0f )
-            gl.glColor4f( opacity, opacity, opacity, opacity );
+            mStateCache.color( gl, opacity, opacity, opacity, opacity );
+        else
+            mStateCache.color( gl, 1.0f, 1.0f, 1.0f, 1.0f );
         
         glDrawTexture( gl, textureInfo );
+    }
+
+    @Override
+    public boolean beginLayer( int slot, float left, float bottom, float right, float top )
+    {
+        if ( ! isLayerCaching() || mCapturingSlot != -1 || mViewRight <= mViewLeft || mViewTop <= mViewBottom )
+            return false;
         
-        if ( opacity < 1.0f )
-            gl.glColor4f( 1.0f, 1.0f, 1.0f, 1.0f );
+        final float pixelsPerUnitX = (float) mViewportWidth / ( mViewRight - mViewLeft );
+        final float pixelsPerUnitY = (float) mViewportHeight / ( mViewTop - mViewBottom );
+        final int width = (int) Math.ceil( ( right - left ) * pixelsPerUnitX );
+        final int height = (int) Math.ceil( ( top - bottom ) * pixelsPerUnitY );
+        if ( width <= 0 || height <= 0 || width > MAX_LAYER_SIZE || height > MAX_LAYER_SIZE )
+            return false;
+        
+        GL gl = mDrawable.getGL();
+        if ( mIsBatching )
+            mSpriteBatch.suspend( gl );
+        
+        if ( ! prepareLayer( gl, slot, nextPowerOfTwo( width ), nextPowerOfTwo( height ) ) )
+        {
+            GameUtilities.print( "OpenGLUtilities", 0, "Incomplete framebuffer, layers won't be cached" );
+            mHasFramebuffers = false;
+            return false;
+        }
+        
+        // The image's box is widened to whole pixels, so it's drawn back
+        // pixel for pixel
+        final int placement = slot * LAYER_PLACEMENT_STRIDE;
+        mLayerPlacements[ placement ] = left;
+        mLayerPlacements[ placement + 1 ] = bottom;
+        mLayerPlacements[ placement + 2 ] = left + width / pixelsPerUnitX;
+        mLayerPlacements[ placement + 3 ] = bottom + height / pixelsPerUnitY;
+        mLayerPlacements[ placement + 4 ] = pixelsPerUnitX;
+        mLayerPlacements[ placement + 5 ] = pixelsPerUnitY;
+        
+        gl.glBindFramebufferEXT( GL.GL_FRAMEBUFFER_EXT, mLayerFramebuffers[ slot ] );
+        gl.glViewport( 0, 0, width, height );
+        setProjection( gl, left, mLayerPlacements[ placement + 2 ], bottom, mLayerPlacements[ placement + 3 ] );
+        gl.glClear( GL.GL_COLOR_BUFFER_BIT );
+        
+        mCapturingSlot = slot;
+        return true;
+    }
+    
+    @Override
+    public void endLayer( int slot )
+    {
+        if ( slot != mCapturingSlot )
+            throw new IllegalStateException( "Layer " + slot + " isn't being drawn" );
+        
+        GL gl = mDrawable.getGL();
+        if ( mIsBatching )
+            mSpriteBatch.suspend( gl );
+        
+        gl.glBindFramebufferEXT( GL.GL_FRAMEBUFFER_EXT, 0 );
+        gl.glViewport( 0, 0, mViewportWidth, mViewportHeight );
+        setProjection( gl, mViewLeft, mViewRight, mViewBottom, mViewTop );
+        
+        mCapturingSlot = -1;
+    }
+    
+    @Override
+    public boolean drawLayer( int slot )
+    {
+        if ( slot >= mLayerTextures.length || mLayerTextures[ slot ] == 0 || mCapturingSlot != -1 )
+            return false;
+        
+        // drawn at another scale (the window was resized), it would blur
+        final int placement = slot * LAYER_PLACEMENT_STRIDE;
+        if ( mViewRight <= mViewLeft
+             || mViewTop <= mViewBottom
+             || mLayerPlacements[ placement + 4 ] != (float) mViewportWidth / ( mViewRight - mViewLeft )
+             || mLayerPlacements[ placement + 5 ] != (float) mViewportHeight / ( mViewTop - mViewBottom ) )
+            return false;
+        
+        GL gl = mDrawable.getGL();
+        if ( mIsBatching )
+            mSpriteBatch.suspend( gl );
+        
+        mStateCache.enable( gl, GL.GL_TEXTURE_2D );
+        mStateCache.bindTexture( gl, mLayerTextures[ slot ] );
+        mStateCache.color( gl, 1.0f, 1.0f, 1.0f, 1.0f );
+        
+        final float left = mLayerPlacements[ placement ];
+        final float bottom = mLayerPlacements[ placement + 1 ];
+        final float right = mLayerPlacements[ placement + 2 ];
+        final float top = mLayerPlacements[ placement + 3 ];
+        final int textureWidth = mLayerTextureSizes[ slot * 2 ];
+        final int textureHeight = mLayerTextureSizes[ slot * 2 + 1 ];
+        
+        // The image was drawn y up, its top row is at the drawn height
+        mLayerInfo.set( left, bottom, right - left, top - bottom,
+                        0f, Math.round( ( top - bottom ) * mLayerPlacements[ placement + 5 ] ) / (float) textureHeight,
+                        Math.round( ( right - left ) * mLayerPlacements[ placement + 4 ] ) / (float) textureWidth, 0f,
+                        1.0f );
+        glDrawTexture( gl, mLayerInfo );
+        
+        return true;
+    }
+    
+    /**
+     * Makes sure the slot has a framebuffer with a texture of the given size
+     * attached.
+     */
+    private boolean prepareLayer( GL gl, int slot, int textureWidth, int textureHeight )
+    {
+        if ( slot >= mLayerTextures.length )
+        {
+            mLayerFramebuffers = Arrays.copyOf( mLayerFramebuffers, slot + 1 );
+            mLayerTextures = Arrays.copyOf( mLayerTextures, slot + 1 );
+            mLayerTextureSizes = Arrays.copyOf( mLayerTextureSizes, ( slot + 1 ) * 2 );
+            mLayerPlacements = Arrays.copyOf( mLayerPlacements, ( slot + 1 ) * LAYER_PLACEMENT_STRIDE );
+        }
+        
+        if ( mLayerTextures[ slot ] != 0
+             && mLayerTextureSizes[ slot * 2 ] == textureWidth
+             && mLayerTextureSizes[ slot * 2 + 1 ] == textureHeight )
+            return true;
+        
+        final int[] name = new int[ 1 ];
+        if ( mLayerTextures[ slot ] == 0 )
+        {
+            gl.glGenTextures( 1, name, 0 );
+            mLayerTextures[ slot ] = name[ 0 ];
+        }
+        
+        mStateCache.bindTexture( gl, mLayerTextures[ slot ] );
+        gl.glTexParameteri( GL.GL_TEXTURE_2D, GL.GL_TEXTURE_MIN_FILTER, GL.GL_NEAREST );
+        gl.glTexParameteri( GL.GL_TEXTURE_2D, GL.GL_TEXTURE_MAG_FILTER, GL.GL_NEAREST );
+        gl.glTexParameteri( GL.GL_TEXTURE_2D, GL.GL_TEXTURE_WRAP_S, GL.GL_CLAMP_TO_EDGE );
+        gl.glTexParameteri( GL.GL_TEXTURE_2D, GL.GL_TEXTURE_WRAP_T, GL.GL_CLAMP_TO_EDGE );
+        gl.glTexImage2D( GL.GL_TEXTURE_2D, 0, GL.GL_RGBA, textureWidth, textureHeight, 0, GL.GL_RGBA, GL.GL_UNSIGNED_BYTE, null );
+        mLayerTextureSizes[ slot * 2 ] = textureWidth;
+        mLayerTextureSizes[ slot * 2 + 1 ] = textureHeight;
+        
+        if ( mLayerFramebuffers[ slot ] == 0 )
+        {
+            gl.glGenFramebuffersEXT( 1, name, 0 );
+            mLayerFramebuffers[ slot ] = name[ 0 ];
+        }
+        
+        gl.glBindFramebufferEXT( GL.GL_FRAMEBUFFER_EXT, mLayerFramebuffers[ slot ] );
+        gl.glFramebufferTexture2DEXT( GL.GL_FRAMEBUFFER_EXT, GL.GL_COLOR_ATTACHMENT0_EXT, GL.GL_TEXTURE_2D, mLayerTextures[ slot ], 0 );
+        final int status = gl.glCheckFramebufferStatusEXT( GL.GL_FRAMEBUFFER_EXT );
+        gl.glBindFramebufferEXT( GL.GL_FRAMEBUFFER_EXT, 0 );
+        
+        return status == GL.GL_FRAMEBUFFER_COMPLETE_EXT;
+    }
+    
+    private static void setProjection( GL gl, float left, float right, float bottom, float top )
+    {
+        gl.glMatrixMode( GL.GL_PROJECTION );
+        gl.glLoadIdentity();
+        gl.glOrtho( left, right, bottom, top, 0.0f, 1.0f );
+        gl.glMatrixMode( GL.GL_MODELVIEW );
+    }
+    
+    private static int nextPowerOfTwo( int value )
+    {
+        int result = 1;
+        while ( result < value )
+            result <<= 1;
+        
+        return result;
     }
 
     /**
@@ -254,11 +615,15 @@ public class OpenGLUtilities implements DrawInitializer, DrawResizer, DrawingCan
     {
         GL gl = mDrawable.getGL();
         
-        gl.glDisable( GL.GL_BLEND );
+        if ( mIsBatching )
+            mSpriteBatch.end( gl );
+        
         gl.glMatrixMode( GL.GL_PROJECTION );
         gl.glPopMatrix();
         gl.glMatrixMode( GL.GL_MODELVIEW );
         gl.glPopMatrix();
+        
+        mStateCache.endFrame();
     }
     
     @Override
@@ -273,21 +638,4 @@ public class OpenGLUtilities implements DrawInitializer, DrawResizer, DrawingCan
     {
         mDrawable = drawable;
     }
-
-    private TextureData load( Texture texture )
-    {
-        try
-        {
-            Resources resource = Resources.getResource( texture.getResourceId() );
-            InputStream stream = new BufferedInputStream( new FileInputStream( resource.getDrawablePath() ) );
-            TextureData data = TextureIO.newTextureData( stream, false, null );
-
-            return data;
-        }
-        catch ( IOException ioe )
-        {
-            ioe.printStackTrace();
-            return null;
-        }
-    }
 }
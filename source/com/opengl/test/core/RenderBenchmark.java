@@ -0,0 +1,391 @@
+package com.opengl.test.core;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+
+import javax.imageio.ImageIO;
+
+import com.igottashoot.game.core.CameraViewInfo;
+import com.igottashoot.game.managers.RenderingBufferManager;
+import com.igottashoot.game.primitives.Texture;
+import com.igottashoot.game.rendering.DrawResizer;
+import com.igottashoot.game.rendering.GameRenderer;
+import com.igottashoot.game.rendering.RenderSortKey;
+import com.igottashoot.game.rendering.SoftwareDrawingCanvas;
+import com.igottashoot.game.rendering.bitmap.DrawableBitmap;
+import com.igottashoot.game.utilities.GameUtilities;
+import com.igottashoot.game.utilities.RenderElementPool;
+
+/**
+ * Measures the render path without a display: storms of bouncing sprites are
+ * scheduled, submitted and drawn with {@link GameRenderer#onDraw} onto a
+ * {@link SoftwareDrawingCanvas}, one frame after the other on the calling
+ * thread. Prints the sprites drawn per second of each storm. Behind the storm
+ * is a layer of static scenery, which the renderer caches.
+ *
+ * A small fixed scene is also drawn and compared, pixel for pixel, against a
+ * golden image, once with the scenery cached and once without; both have to
+ * match. After a deliberate change to what is drawn the golden images are
+ * written again with "record".
+ *
+ * The frames are built on the calling thread unless a worker count above one
+ * is given, then the {@link RenderingBufferManager} builds them with that
+ * many render builder threads.
+ *
+ * Usage: RenderBenchmark [frames] [check|record] [golden directory] [workers]
+ */
+public class RenderBenchmark
+{
+    private static final int SCREEN_WIDTH = 480;
+    private static final int SCREEN_HEIGHT = 320;
+    private static final int FRAMES_IN_FLIGHT = 1;
+
+    private static final int TEXTURE_COUNT = 4;
+    private static final int TEXTURE_SIZE = 32;
+    private static final int LAYER_COUNT = 3;
+    private static final int SCENERY_LAYER = -100;
+    private static final int SCENERY_TILE_SIZE = 32;
+    private static final long SEED = 20101017L;
+
+    private static final int[] STORM_SIZES = { 1000, 5000, 20000 };
+    private static final int DEFAULT_FRAMES = 300;
+    private static final int DEFAULT_WORKER_COUNT = 1;
+    private static final int WARM_UP_FRAMES = 30;
+
+    private static final String GOLDEN_SCENE = "sprite-storm";
+    private static final int GOLDEN_SPRITE_COUNT = 200;
+    private static final int GOLDEN_FRAMES = 10;
+    private static final String DEFAULT_GOLDEN_DIRECTORY = "res/golden/";
+
+    private final RenderingBufferManager mRenderingBufferManager;
+    private final GameRenderer mGameRenderer;
+    private final SoftwareDrawingCanvas mCanvas;
+    private final CameraViewInfo mView;
+    private final Texture[] mTextures;
+    private final DrawableBitmap[] mScenery;
+    private final long[] mSceneryKeys;
+    private final int mWorkerCount;
+
+    public RenderBenchmark( int screenWidth, int screenHeight, boolean cacheScenery, int workerCount )
+    {
+        mRenderingBufferManager = new RenderingBufferManager( new RenderElementPool( RenderingBufferManager.RENDER_QUEUE_CHUNK_SIZE ),
+                                                              FRAMES_IN_FLIGHT );
+        mRenderingBufferManager.setWorkerCount( workerCount );
+        mWorkerCount = workerCount;
+        mGameRenderer = new GameRenderer( screenWidth,
+                                          screenHeight,
+                                          screenWidth,
+                                          screenHeight,
+                                          mRenderingBufferManager.getFrameExchange() );
+        mGameRenderer.onSurfaceChanged( new DrawResizer()
+        {
+            @Override
+            public void resize( int width, int height )
+            {
+
+            }
+        }, screenWidth, screenHeight );
+        if ( cacheScenery )
+            mGameRenderer.addCachedLayer( SCENERY_LAYER );
+
+        mCanvas = new SoftwareDrawingCanvas( screenWidth, screenHeight, TEXTURE_COUNT );
+        mView = new CameraViewInfo();
+        mView.setWorldSize( 0, screenWidth, 0, screenHeight );
+
+        mTextures = new Texture[ TEXTURE_COUNT ];
+        for ( int index = 0; index < TEXTURE_COUNT; index++ )
+        {
+            mCanvas.putTexture( index, createTexturePixels( index ), TEXTURE_SIZE, TEXTURE_SIZE );
+            mTextures[ index ] = new Texture();
+            mTextures[ index ].setResourceId( index );
+        }
+
+        mCanvas.handleLoadedTextures( mCanvas.loadTextures( mTextures ) );
+
+        // a row of tiles along the top and the bottom of the view
+        final int columns = screenWidth / SCENERY_TILE_SIZE;
+        mScenery = new DrawableBitmap[ columns * 2 ];
+        mSceneryKeys = new long[ columns * 2 ];
+        for ( int index = 0; index < mScenery.length; index++ )
+        {
+            final Texture texture = mTextures[ index % TEXTURE_COUNT ];
+            final int row = index / columns;
+
+            mScenery[ index ] = new DrawableBitmap( texture );
+            mScenery[ index ].setSize( SCENERY_TILE_SIZE, SCENERY_TILE_SIZE );
+            mScenery[ index ].setPosition( ( index % columns ) * SCENERY_TILE_SIZE, row * ( screenHeight - SCENERY_TILE_SIZE ) );
+            mSceneryKeys[ index ] = RenderSortKey.pack( SCENERY_LAYER, RenderSortKey.BLEND_PREMULTIPLIED_ALPHA, texture.getBindingId() );
+        }
+    }
+
+    /**
+     * @return the number of sprites drawn per second, drawing only; building
+     *         the frames isn't counted.
+     */
+    public double runStorm( int spriteCount, int frames )
+    {
+        SpriteStorm storm = new SpriteStorm( spriteCount, mTextures, mView, new Random( SEED ) );
+
+        for ( int frame = 0; frame < WARM_UP_FRAMES; frame++ )
+            drawFrame( storm );
+
+        long buildTime = 0;
+        long drawTime = 0;
+        final long drawsBefore = mCanvas.getDrawCount();
+        for ( int frame = 0; frame < frames; frame++ )
+        {
+            final long start = GameUtilities.getCurrentTimeInNanos();
+            buildFrame( storm );
+            final long built = GameUtilities.getCurrentTimeInNanos();
+            mGameRenderer.onDraw( mCanvas );
+            final long drawn = GameUtilities.getCurrentTimeInNanos();
+
+            buildTime += built - start;
+            drawTime += drawn - built;
+        }
+
+        final long draws = mCanvas.getDrawCount() - drawsBefore;
+        final double spritesPerSecond = draws / ( drawTime / 1.0e9 );
+        GameUtilities.print( "RenderBenchmark", 0, "Sprites: " + spriteCount
+                                                   + " Workers: " + mWorkerCount
+                                                   + " Frames: " + frames
+                                                   + " Drawn/frame: " + ( draws / frames )
+                                                   + " Build ms/frame: " + ( buildTime / 1.0e6 / frames )
+                                                   + " Draw ms/frame: " + ( drawTime / 1.0e6 / frames )
+                                                   + " Sprites/s: " + (long) spritesPerSecond
+                                                   + " Layer cache hits/captures: " + mGameRenderer.getLayerCacheHitCount()
+                                                   + "/" + mGameRenderer.getLayerCacheCaptureCount() );
+
+        return spritesPerSecond;
+    }
+
+    /**
+     * Draws the golden scene and either compares it with its golden image or
+     * writes that image.
+     *
+     * @return true when the scene matched (or was recorded).
+     */
+    public boolean checkGoldenImage( File directory, boolean record ) throws IOException
+    {
+        SpriteStorm storm = new SpriteStorm( GOLDEN_SPRITE_COUNT, mTextures, mView, new Random( SEED ) );
+        for ( int frame = 0; frame < GOLDEN_FRAMES; frame++ )
+            drawFrame( storm );
+
+        final int width = mCanvas.getWidth();
+        final int height = mCanvas.getHeight();
+        final File file = new File( directory, GOLDEN_SCENE + ".png" );
+
+        if ( record )
+        {
+            BufferedImage image = new BufferedImage( width, height, BufferedImage.TYPE_INT_ARGB );
+            image.setRGB( 0, 0, width, height, mCanvas.getPixels(), 0, width );
+
+            directory.mkdirs();
+            ImageIO.write( image, "png", file );
+            GameUtilities.print( "RenderBenchmark", 0, "Recorded " + file );
+            return true;
+        }
+
+        BufferedImage golden = ImageIO.read( file );
+        if ( golden == null )
+            throw new IOException( "Can't read the golden image " + file );
+
+        if ( golden.getWidth() != width || golden.getHeight() != height )
+        {
+            GameUtilities.print( "RenderBenchmark", 0, "Golden image " + file + " is " + golden.getWidth() + "x" + golden.getHeight()
+                                                       + ", the canvas is " + width + "x" + height );
+            return false;
+        }
+
+        final int[] expected = golden.getRGB( 0, 0, width, height, null, 0, width );
+        final int[] actual = mCanvas.getPixels();
+        int mismatches = 0;
+        int firstMismatch = -1;
+        for ( int index = 0; index < expected.length; index++ )
+        {
+            if ( expected[ index ] == actual[ index ] )
+                continue;
+
+            if ( firstMismatch == -1 )
+                firstMismatch = index;
+            mismatches++;
+        }
+
+        if ( mismatches == 0 )
+        {
+            GameUtilities.print( "RenderBenchmark", 0, "Golden image " + file + " matches" );
+            return true;
+        }
+
+        GameUtilities.print( "RenderBenchmark", 0, "Golden image " + file + " differs in " + mismatches + " pixels, the first at ("
+                                                   + ( firstMismatch % width ) + ", " + ( firstMismatch / width ) + "): expected "
+                                                   + Integer.toHexString( expected[ firstMismatch ] ) + " got "
+                                                   + Integer.toHexString( actual[ firstMismatch ] ) );
+        return false;
+    }
+
+    /** Lets the render builder threads go. */
+    public void shutdown()
+    {
+        mRenderingBufferManager.shutdown();
+    }
+
+    private void drawFrame( SpriteStorm storm )
+    {
+        buildFrame( storm );
+        mGameRenderer.onDraw( mCanvas );
+    }
+
+    /** What the game thread does in a step: move, schedule and submit. */
+    private void buildFrame( SpriteStorm storm )
+    {
+        storm.step();
+        for ( int index = 0; index < mScenery.length; index++ )
+            mRenderingBufferManager.scheduleForDraw( mScenery[ index ], mSceneryKeys[ index ] );
+
+        storm.schedule( mRenderingBufferManager );
+        mRenderingBufferManager.submitCurrentQueue( mView, 1.0f );
+    }
+
+    /**
+     * A disc in one of a few colors, opaque in the middle, fading out at its
+     * rim and with a checker pattern so flipped or stretched texture
+     * coordinates show up in the golden image.
+     */
+    private static int[] createTexturePixels( int index )
+    {
+        final int[] colors = { 0xff4060, 0x40c060, 0x4080ff, 0xffd040 };
+        final int color = colors[ index % colors.length ];
+        final float radius = TEXTURE_SIZE / 2f;
+
+        int[] pixels = new int[ TEXTURE_SIZE * TEXTURE_SIZE ];
+        for ( int y = 0; y < TEXTURE_SIZE; y++ )
+        {
+            for ( int x = 0; x < TEXTURE_SIZE; x++ )
+            {
+                final float dx = x + 0.5f - radius;
+                final float dy = y + 0.5f - radius;
+                final float distance = (float) Math.sqrt( dx * dx + dy * dy ) / radius;
+                if ( distance >= 1f )
+                    continue;
+
+                final int alpha = distance < 0.75f ? 255 : (int) ( 255 * ( 1f - distance ) / 0.25f );
+                final boolean dark = ( ( x / 4 ) + ( y / 4 ) ) % 2 == 0 && y < TEXTURE_SIZE / 2;
+                pixels[ y * TEXTURE_SIZE + x ] = ( alpha << 24 ) | ( dark ? ( color >> 1 ) & 0x7f7f7f : color );
+            }
+        }
+
+        return pixels;
+    }
+
+    public static void main( String[] args ) throws IOException
+    {
+        final int frames = ( args.length > 0 ) ? Integer.parseInt( args[0] ) : DEFAULT_FRAMES;
+        final boolean record = ( args.length > 1 ) && "record".equals( args[1] );
+        final File goldenDirectory = new File( ( args.length > 2 ) ? args[2] : DEFAULT_GOLDEN_DIRECTORY );
+        final int workers = ( args.length > 3 ) ? Integer.parseInt( args[3] ) : DEFAULT_WORKER_COUNT;
+
+        RenderBenchmark benchmark = new RenderBenchmark( SCREEN_WIDTH, SCREEN_HEIGHT, false, workers );
+        boolean matches = benchmark.checkGoldenImage( goldenDirectory, record );
+        benchmark.shutdown();
+        if ( record )
+            return;
+
+        benchmark = new RenderBenchmark( SCREEN_WIDTH, SCREEN_HEIGHT, true, workers );
+        matches &= benchmark.checkGoldenImage( goldenDirectory, false );
+        benchmark.shutdown();
+
+        for ( int index = 0; index < STORM_SIZES.length; index++ )
+        {
+            benchmark = new RenderBenchmark( SCREEN_WIDTH, SCREEN_HEIGHT, true, workers );
+            benchmark.runStorm( STORM_SIZES[ index ], frames );
+            benchmark.shutdown();
+        }
+
+        if ( ! matches )
+            System.exit( 1 );
+    }
+
+    /**
+     * Sprites of every texture, size and layer, bouncing around the view and
+     * some way past it so culling has something to do.
+     */
+    private static final class SpriteStorm
+    {
+        private static final int MIN_SPRITE_SIZE = 8;
+        private static final int MAX_SPRITE_SIZE = 64;
+        private static final float MAX_SPEED = 4.0f;
+        private static final int OUTSIDE_MARGIN = 96;
+
+        private final DrawableBitmap[] mSprites;
+        private final float[] mVelocities;
+        private final long[] mSortKeys;
+        private final float mLeft;
+        private final float mRight;
+        private final float mBottom;
+        private final float mTop;
+
+        public SpriteStorm( int count, Texture[] textures, CameraViewInfo view, Random random )
+        {
+            mLeft = view.getCameraWorldLeft() - OUTSIDE_MARGIN;
+            mRight = view.getCameraWorldRight() + OUTSIDE_MARGIN;
+            mBottom = view.getCameraWorldBottom() - OUTSIDE_MARGIN;
+            mTop = view.getCameraWorldTop() + OUTSIDE_MARGIN;
+
+            mSprites = new DrawableBitmap[ count ];
+            mVelocities = new float[ count * 2 ];
+            mSortKeys = new long[ count ];
+            for ( int index = 0; index < count; index++ )
+            {
+                final Texture texture = textures[ random.nextInt( textures.length ) ];
+                final int size = MIN_SPRITE_SIZE + random.nextInt( MAX_SPRITE_SIZE - MIN_SPRITE_SIZE + 1 );
+
+                DrawableBitmap sprite = new DrawableBitmap( texture );
+                sprite.setSize( size, size );
+                sprite.setPosition( mLeft + random.nextFloat() * ( mRight - mLeft ),
+                                    mBottom + random.nextFloat() * ( mTop - mBottom ) );
+                if ( index % 5 == 0 )
+                    sprite.setOpacity( 0.5f );
+
+                mSprites[ index ] = sprite;
+                mVelocities[ index * 2 ] = ( random.nextFloat() * 2f - 1f ) * MAX_SPEED;
+                mVelocities[ index * 2 + 1 ] = ( random.nextFloat() * 2f - 1f ) * MAX_SPEED;
+                mSortKeys[ index ] = RenderSortKey.pack( random.nextInt( LAYER_COUNT ),
+                                                         RenderSortKey.BLEND_PREMULTIPLIED_ALPHA,
+                                                         texture.getBindingId() );
+            }
+        }
+
+        public void step()
+        {
+            for ( int index = 0; index < mSprites.length; index++ )
+            {
+                final DrawableBitmap sprite = mSprites[ index ];
+                float x = sprite.getPositionX() + mVelocities[ index * 2 ];
+                float y = sprite.getPositionY() + mVelocities[ index * 2 + 1 ];
+
+                if ( x < mLeft || x > mRight )
+                {
+                    mVelocities[ index * 2 ] = -mVelocities[ index * 2 ];
+                    x = Math.max( mLeft, Math.min( mRight, x ) );
+                }
+
+                if ( y < mBottom || y > mTop )
+                {
+                    mVelocities[ index * 2 + 1 ] = -mVelocities[ index * 2 + 1 ];
+                    y = Math.max( mBottom, Math.min( mTop, y ) );
+                }
+
+                sprite.setPosition( x, y );
+            }
+        }
+
+        public void schedule( RenderingBufferManager manager )
+        {
+            for ( int index = 0; index < mSprites.length; index++ )
+                manager.scheduleForDraw( mSprites[ index ], mSortKeys[ index ] );
+        }
+    }
+}
@@ -0,0 +1,203 @@
+package com.opengl.test.core;
+
+import javax.media.opengl.GL;
+
+/**
+ * Shadows the bits of fixed function state the canvas touches, so a call that
+ * wouldn't change anything never reaches the driver. Every state starts out
+ * unknown and the first call always goes through; {@link #invalidate()} has to
+ * be called whenever something else may have changed the state behind the
+ * cache's back (a new context, a push/pop of attributes).
+ *
+ * Only used on the render thread.
+ */
+public class RenderStateCache
+{
+    private static final int UNKNOWN = -1;
+    private static final int DISABLED = 0;
+    private static final int ENABLED = 1;
+
+    private int mTexture2D;
+    private int mBlend;
+    private int mBoundTexture;
+    private int mBlendSource;
+    private int mBlendDestination;
+    private int mShadeModel;
+    private boolean mIsColorKnown;
+    private float mRed;
+    private float mGreen;
+    private float mBlue;
+    private float mAlpha;
+
+    private int mIssuedCount;
+    private int mAvoidedCount;
+    private int mLastFrameIssuedCount;
+    private int mLastFrameAvoidedCount;
+
+    public RenderStateCache()
+    {
+        invalidate();
+
+        mIssuedCount = 0;
+        mAvoidedCount = 0;
+        mLastFrameIssuedCount = 0;
+        mLastFrameAvoidedCount = 0;
+    }
+
+    /** Forgets everything, the next call for every state is issued. */
+    public void invalidate()
+    {
+        mTexture2D = UNKNOWN;
+        mBlend = UNKNOWN;
+        mBoundTexture = UNKNOWN;
+        mBlendSource = UNKNOWN;
+        mBlendDestination = UNKNOWN;
+        mShadeModel = UNKNOWN;
+        mIsColorKnown = false;
+    }
+
+    /** The current color is undefined after drawing with a color array. */
+    public void invalidateColor()
+    {
+        mIsColorKnown = false;
+    }
+
+    public void beginFrame()
+    {
+        mIssuedCount = 0;
+        mAvoidedCount = 0;
+    }
+
+    public void endFrame()
+    {
+        mLastFrameIssuedCount = mIssuedCount;
+        mLastFrameAvoidedCount = mAvoidedCount;
+    }
+
+    /**
+     * Only GL_TEXTURE_2D and GL_BLEND are cached, any other capability is
+     * passed straight through.
+     */
+    public void enable( GL gl, int capability )
+    {
+        setCapability( gl, capability, ENABLED );
+    }
+
+    public void disable( GL gl, int capability )
+    {
+        setCapability( gl, capability, DISABLED );
+    }
+
+    public void bindTexture( com.sun.opengl.util.texture.Texture texture )
+    {
+        final int name = texture.getTextureObject();
+        if ( name == mBoundTexture )
+        {
+            mAvoidedCount++;
+            return;
+        }
+
+        texture.bind();
+        mBoundTexture = name;
+        mIssuedCount++;
+    }
+
+    /** For textures that aren't JOGL textures, like offscreen images. */
+    public void bindTexture( GL gl, int name )
+    {
+        if ( name == mBoundTexture )
+        {
+            mAvoidedCount++;
+            return;
+        }
+        
+        gl.glBindTexture( GL.GL_TEXTURE_2D, name );
+        mBoundTexture = name;
+        mIssuedCount++;
+    }
+    
+    public void blendFunc( GL gl, int source, int destination )
+    {
+        if ( source == mBlendSource && destination == mBlendDestination )
+        {
+            mAvoidedCount++;
+            return;
+        }
+
+        gl.glBlendFunc( source, destination );
+        mBlendSource = source;
+        mBlendDestination = destination;
+        mIssuedCount++;
+    }
+
+    public void shadeModel( GL gl, int mode )
+    {
+        if ( mode == mShadeModel )
+        {
+            mAvoidedCount++;
+            return;
+        }
+
+        gl.glShadeModel( mode );
+        mShadeModel = mode;
+        mIssuedCount++;
+    }
+
+    public void color( GL gl, float red, float green, float blue, float alpha )
+    {
+        if ( mIsColorKnown && red == mRed && green == mGreen && blue == mBlue && alpha == mAlpha )
+        {
+            mAvoidedCount++;
+            return;
+        }
+
+        gl.glColor4f( red, green, blue, alpha );
+        mRed = red;
+        mGreen = green;
+        mBlue = blue;
+        mAlpha = alpha;
+        mIsColorKnown = true;
+        mIssuedCount++;
+    }
+
+    /** State changes that reached GL during the last complete frame. */
+    public int getLastFrameIssuedCount()
+    {
+        return mLastFrameIssuedCount;
+    }
+
+    /** Redundant state changes skipped during the last complete frame. */
+    public int getLastFrameAvoidedCount()
+    {
+        return mLastFrameAvoidedCount;
+    }
+
+    private void setCapability( GL gl, int capability, int state )
+    {
+        final int current;
+        if ( capability == GL.GL_TEXTURE_2D )
+            current = mTexture2D;
+        else if ( capability == GL.GL_BLEND )
+            current = mBlend;
+        else
+            current = UNKNOWN;
+
+        if ( current == state )
+        {
+            mAvoidedCount++;
+            return;
+        }
+
+        if ( state == ENABLED )
+            gl.glEnable( capability );
+        else
+            gl.glDisable( capability );
+
+        if ( capability == GL.GL_TEXTURE_2D )
+            mTexture2D = state;
+        else if ( capability == GL.GL_BLEND )
+            mBlend = state;
+
+        mIssuedCount++;
+    }
+}
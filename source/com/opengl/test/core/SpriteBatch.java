@@ -0,0 +1,194 @@
+package com.opengl.test.core;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+
+import javax.media.opengl.GL;
+
+import com.igottashoot.game.rendering.DrawableObjectInfo;
+
+/**
+ * Collects textured quads into vertex arrays and draws each run of quads that
+ * share a texture with a single glDrawArrays, instead of a glBegin/glEnd and
+ * ten calls per sprite. A run ends when the texture changes or the arrays are
+ * full.
+ * 
+ * The buffers are only ever written with absolute puts, so their position
+ * stays at 0 and the array pointers only have to be set once per frame.
+ */
+public class SpriteBatch
+{
+    private static final int VERTICES_PER_SPRITE = 4;
+    private static final int POSITION_COMPONENTS = 2;
+    private static final int TEXTURE_COMPONENTS = 2;
+    private static final int COLOR_COMPONENTS = 4;
+    private static final int BYTES_PER_FLOAT = 4;
+    
+    private final int mMaxSprites;
+    private final RenderStateCache mStateCache;
+    private final FloatBuffer mPositions;
+    private final FloatBuffer mTextureCoordinates;
+    private final FloatBuffer mColors;
+    
+    private com.sun.opengl.util.texture.Texture mCurrentTexture;
+    private int mSpriteCount;
+    private int mDrawCallCount;
+    private int mFrameSpriteCount;
+    private int mLastFrameDrawCallCount;
+    private int mLastFrameSpriteCount;
+    
+    public SpriteBatch( int maxSprites, RenderStateCache stateCache )
+    {
+        if ( maxSprites <= 0 )
+            throw new IllegalArgumentException( "maxSprites must be positive" );
+        
+        mMaxSprites = maxSprites;
+        mStateCache = stateCache;
+        
+        final int vertices = maxSprites * VERTICES_PER_SPRITE;
+        mPositions = newFloatBuffer( vertices * POSITION_COMPONENTS );
+        mTextureCoordinates = newFloatBuffer( vertices * TEXTURE_COMPONENTS );
+        mColors = newFloatBuffer( vertices * COLOR_COMPONENTS );
+        
+        mCurrentTexture = null;
+        mSpriteCount = 0;
+        mDrawCallCount = 0;
+        mFrameSpriteCount = 0;
+        mLastFrameDrawCallCount = 0;
+        mLastFrameSpriteCount = 0;
+    }
+    
+    public void begin( GL gl )
+    {
+        mCurrentTexture = null;
+        mSpriteCount = 0;
+        mDrawCallCount = 0;
+        mFrameSpriteCount = 0;
+        
+        gl.glEnableClientState( GL.GL_VERTEX_ARRAY );
+        gl.glEnableClientState( GL.GL_TEXTURE_COORD_ARRAY );
+        gl.glEnableClientState( GL.GL_COLOR_ARRAY );
+        
+        gl.glVertexPointer( POSITION_COMPONENTS, GL.GL_FLOAT, 0, mPositions );
+        gl.glTexCoordPointer( TEXTURE_COMPONENTS, GL.GL_FLOAT, 0, mTextureCoordinates );
+        gl.glColorPointer( COLOR_COMPONENTS, GL.GL_FLOAT, 0, mColors );
+        
+        // don't count on whatever ran before to have left texturing on
+        mStateCache.enable( gl, GL.GL_TEXTURE_2D );
+    }
+    
+    /**
+     * Same layout as the immediate mode path: see
+     * {@link DrawableObjectInfo} for how the vertices map to the texture.
+     */
+    public void draw( GL gl, com.sun.opengl.util.texture.Texture texture, DrawableObjectInfo drawableInfo )
+    {
+        if ( texture != mCurrentTexture )
+        {
+            flush( gl );
+            mStateCache.enable( gl, GL.GL_TEXTURE_2D );
+            mStateCache.bindTexture( texture );
+            mCurrentTexture = texture;
+        }
+        else if ( mSpriteCount == mMaxSprites )
+        {
+            flush( gl );
+        }
+        
+        final float x = drawableInfo.getVertexPositionX();
+        final float y = drawableInfo.getVertexPositionY();
+        final float width = drawableInfo.getVertexWidth();
+        final float height = drawableInfo.getVertexHeight();
+        
+        final float tx1 = drawableInfo.getTexturePositionX1();
+        final float ty1 = drawableInfo.getTexturePositionY1();
+        final float tx2 = drawableInfo.getTexturePositionX2();
+        final float ty2 = drawableInfo.getTexturePositionY2();
+        
+        // premultiplied alpha, as with glColor4f in the immediate mode path
+        final float opacity = drawableInfo.getOpacity() < 1.0f ? drawableInfo.getOpacity() : 1.0f;
+        
+        final int vertex = mSpriteCount * VERTICES_PER_SPRITE;
+        putVertex( vertex,     x,         y + height, tx1, ty1, opacity );
+        putVertex( vertex + 1, x,         y,          tx1, ty2, opacity );
+        putVertex( vertex + 2, x + width, y,          tx2, ty2, opacity );
+        putVertex( vertex + 3, x + width, y + height, tx2, ty1, opacity );
+        
+        mSpriteCount++;
+        mFrameSpriteCount++;
+    }
+    
+    public void end( GL gl )
+    {
+        flush( gl );
+        
+        gl.glDisableClientState( GL.GL_COLOR_ARRAY );
+        gl.glDisableClientState( GL.GL_TEXTURE_COORD_ARRAY );
+        gl.glDisableClientState( GL.GL_VERTEX_ARRAY );
+        
+        // the color array leaves the current color undefined
+        mStateCache.invalidateColor();
+        mStateCache.color( gl, 1.0f, 1.0f, 1.0f, 1.0f );
+        
+        mCurrentTexture = null;
+        mLastFrameDrawCallCount = mDrawCallCount;
+        mLastFrameSpriteCount = mFrameSpriteCount;
+    }
+    
+    /**
+     * Draws what was collected so far and forgets the bound texture, before
+     * something else changes the render target or binds a texture. Sprites
+     * can be drawn again right after.
+     */
+    public void suspend( GL gl )
+    {
+        flush( gl );
+        mCurrentTexture = null;
+        
+        // the color array leaves the current color undefined
+        mStateCache.invalidateColor();
+    }
+    
+    public int getLastFrameDrawCallCount()
+    {
+        return mLastFrameDrawCallCount;
+    }
+    
+    public int getLastFrameSpriteCount()
+    {
+        return mLastFrameSpriteCount;
+    }
+    
+    private void flush( GL gl )
+    {
+        if ( mSpriteCount == 0 )
+            return;
+        
+        gl.glDrawArrays( GL.GL_QUADS, 0, mSpriteCount * VERTICES_PER_SPRITE );
+        mSpriteCount = 0;
+        mDrawCallCount++;
+    }
+    
+    private void putVertex( int vertex, float x, float y, float u, float v, float opacity )
+    {
+        final int position = vertex * POSITION_COMPONENTS;
+        mPositions.put( position, x );
+        mPositions.put( position + 1, y );
+        
+        final int textureCoordinate = vertex * TEXTURE_COMPONENTS;
+        mTextureCoordinates.put( textureCoordinate, u );
+        mTextureCoordinates.put( textureCoordinate + 1, v );
+        
+        final int color = vertex * COLOR_COMPONENTS;
+        mColors.put( color, opacity );
+        mColors.put( color + 1, opacity );
+        mColors.put( color + 2, opacity );
+        mColors.put( color + 3, opacity );
+    }
+    
+    private static FloatBuffer newFloatBuffer( int floats )
+    {
+        return ByteBuffer.allocateDirect( floats * BYTES_PER_FLOAT ).order( ByteOrder.nativeOrder() ).asFloatBuffer();
+    }
+}
@@ -0,0 +1,241 @@
+package com.opengl.test.core;
+
+import java.awt.image.BufferedImage;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+
+import com.igottashoot.game.primitives.Texture;
+import com.igottashoot.game.rendering.TextureAtlasPacker;
+import com.sun.opengl.util.texture.TextureData;
+
+/**
+ * Packs the drawables a level asks for into shared pages, so sprites from
+ * different resources can be drawn without a rebind. The images are decoded
+ * in parallel by the {@link TextureDecoder}, those in its {@link AssetPack} are
+ * copied onto the page straight from the pack. The border pixels of every image
+ * are repeated into its padding, which keeps linear filtering from bleeding
+ * the neighbours in.
+ *
+ * Executed on the IoThread, the result is handed to the render thread as
+ * (key, TextureData) pairs: the key is an {@link AtlasPage} or, for the images
+ * too large for a page, the {@link Texture} itself.
+ */
+public class TextureAtlasBuilder
+{
+    private final TextureAtlasPacker mPacker;
+    private final TextureDecoder mDecoder;
+
+    public TextureAtlasBuilder( int maxPageSize, int padding, TextureDecoder decoder )
+    {
+        mPacker = new TextureAtlasPacker( maxPageSize, padding, Resources.values().length );
+        mDecoder = decoder;
+    }
+
+    public synchronized Object[] build( Texture[] textures )
+    {
+        final Texture[] pending = new Texture[ textures.length ];
+        final BufferedImage[] images = new BufferedImage[ textures.length ];
+        final int[] packedIds = new int[ textures.length ];
+        int count = 0;
+
+        // decoded in parallel, packed in order
+        final int[] resourceIds = TextureDecoder.getPendingResourceIds( textures );
+        final BufferedImage[] decoded = mDecoder.read( textures, resourceIds );
+
+        mPacker.reset();
+        for ( int index = 0; index < textures.length; index++ )
+        {
+            final BufferedImage image = decoded[ index ];
+            if ( image != null )
+            {
+                mPacker.add( image.getWidth(), image.getHeight() );
+                packedIds[ count ] = -1;
+            }
+            else if ( resourceIds[ index ] != -1 && mDecoder.isPacked( resourceIds[ index ] ) )
+            {
+                final AssetPack pack = mDecoder.getAssetPack();
+                mPacker.add( pack.getWidth( resourceIds[ index ] ), pack.getHeight( resourceIds[ index ] ) );
+                packedIds[ count ] = resourceIds[ index ];
+            }
+            else
+            {
+                continue;
+            }
+
+            pending[ count ] = textures[ index ];
+            images[ count ] = image;
+            count++;
+        }
+
+        mPacker.pack();
+
+        final int pageCount = mPacker.getPageCount();
+        final AtlasPage[] pages = new AtlasPage[ pageCount ];
+        for ( int page = 0; page < pageCount; page++ )
+            pages[ page ] = new AtlasPage( mPacker.getPageWidth( page ), mPacker.getPageHeight( page ), count );
+
+        Object[] result = new Object[ ( pageCount + count ) * 2 ];
+        int resultIndex = 0;
+        for ( int index = 0; index < count; index++ )
+        {
+            final int page = mPacker.getPage( index );
+            if ( page == TextureAtlasPacker.NOT_PACKED )
+            {
+                result[ resultIndex++ ] = pending[ index ];
+                result[ resultIndex++ ] = ( packedIds[ index ] != -1 ) ? mDecoder.createPackedTextureData( packedIds[ index ] )
+                                                                       : mDecoder.createTextureData( images[ index ] );
+                continue;
+            }
+
+            if ( packedIds[ index ] != -1 )
+                pages[ page ].add( pending[ index ], mDecoder.getAssetPack(), packedIds[ index ], mPacker.getX( index ), mPacker.getY( index ), mPacker.getPadding() );
+            else
+                pages[ page ].add( pending[ index ], images[ index ], mPacker.getX( index ), mPacker.getY( index ), mPacker.getPadding() );
+        }
+
+        for ( int page = 0; page < pageCount; page++ )
+        {
+            result[ resultIndex++ ] = pages[ page ];
+            result[ resultIndex++ ] = pages[ page ].createTextureData( mDecoder );
+        }
+
+        return result;
+    }
+
+    /**
+     * One page of the atlas, and where each texture ended up on it.
+     */
+    public static final class AtlasPage
+    {
+        private final int mWidth;
+        private final int mHeight;
+        private final int[] mPixels;
+        private final Texture[] mTextures;
+        private final int[] mRegions;
+        private int mCount;
+
+        private AtlasPage( int width, int height, int capacity )
+        {
+            mWidth = width;
+            mHeight = height;
+            mPixels = new int[ width * height ];
+            mTextures = new Texture[ capacity ];
+            mRegions = new int[ capacity * 4 ];
+            mCount = 0;
+        }
+
+        public int getWidth()
+        {
+            return mWidth;
+        }
+
+        public int getHeight()
+        {
+            return mHeight;
+        }
+
+        public int getTextureCount()
+        {
+            return mCount;
+        }
+
+        public Texture getTexture( int index )
+        {
+            return mTextures[ index ];
+        }
+
+        public int getRegionX( int index )
+        {
+            return mRegions[ index * 4 ];
+        }
+
+        public int getRegionY( int index )
+        {
+            return mRegions[ index * 4 + 1 ];
+        }
+
+        public int getRegionWidth( int index )
+        {
+            return mRegions[ index * 4 + 2 ];
+        }
+
+        public int getRegionHeight( int index )
+        {
+            return mRegions[ index * 4 + 3 ];
+        }
+
+        /**
+         * Maps the texture's 0 to 1 coordinates onto its region of this page.
+         */
+        public void applyRegion( int index, Texture texture )
+        {
+            final float x = getRegionX( index );
+            final float y = getRegionY( index );
+
+            texture.setSize( getRegionWidth( index ), getRegionHeight( index ) );
+            texture.setRegion( x / mWidth,
+                               y / mHeight,
+                               ( x + getRegionWidth( index ) ) / mWidth,
+                               ( y + getRegionHeight( index ) ) / mHeight );
+        }
+
+        private void add( Texture texture, BufferedImage image, int x, int y, int padding )
+        {
+            final int width = image.getWidth();
+            final int height = image.getHeight();
+            final int[] source = image.getRGB( 0, 0, width, height, null, 0, width );
+
+            // Copy the image, repeating its edges into the padding around it
+            for ( int row = -padding; row < height + padding; row++ )
+            {
+                final int sourceRow = clamp( row, height ) * width;
+                final int targetRow = ( y + row ) * mWidth + x;
+                for ( int column = -padding; column < width + padding; column++ )
+                    mPixels[ targetRow + column ] = source[ sourceRow + clamp( column, width ) ];
+            }
+
+            setRegion( texture, x, y, width, height );
+        }
+
+        /** Same as above, reading the pack's RGBA pixels in place. */
+        private void add( Texture texture, AssetPack pack, int resourceId, int x, int y, int padding )
+        {
+            final int width = pack.getWidth( resourceId );
+            final int height = pack.getHeight( resourceId );
+            final IntBuffer source = pack.getPixels( resourceId ).order( ByteOrder.BIG_ENDIAN ).asIntBuffer();
+
+            for ( int row = -padding; row < height + padding; row++ )
+            {
+                final int sourceRow = clamp( row, height ) * width;
+                final int targetRow = ( y + row ) * mWidth + x;
+                for ( int column = -padding; column < width + padding; column++ )
+                {
+                    final int pixel = source.get( sourceRow + clamp( column, width ) );
+                    mPixels[ targetRow + column ] = ( pixel >>> 8 ) | ( pixel << 24 );
+                }
+            }
+
+            setRegion( texture, x, y, width, height );
+        }
+
+        private void setRegion( Texture texture, int x, int y, int width, int height )
+        {
+            final int regionIndex = mCount * 4;
+            mRegions[ regionIndex ] = x;
+            mRegions[ regionIndex + 1 ] = y;
+            mRegions[ regionIndex + 2 ] = width;
+            mRegions[ regionIndex + 3 ] = height;
+            mTextures[ mCount++ ] = texture;
+        }
+
+        private TextureData createTextureData( TextureDecoder decoder )
+        {
+            return decoder.createTextureData( mPixels, mWidth, mHeight );
+        }
+
+        private static int clamp( int value, int size )
+        {
+            return value < 0 ? 0 : ( value >= size ? size - 1 : value );
+        }
+    }
+}
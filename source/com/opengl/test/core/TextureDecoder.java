@@ -0,0 +1,349 @@
+package com.opengl.test.core;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+import javax.imageio.ImageIO;
+import javax.media.opengl.GL;
+
+import com.igottashoot.game.primitives.BaseObject;
+import com.igottashoot.game.primitives.Texture;
+import com.igottashoot.game.utilities.DirectBufferPool;
+import com.sun.opengl.util.texture.TextureData;
+
+/**
+ * Decodes drawables on a pool of threads, one image per task, so a level's
+ * textures are read in parallel. The pixels go straight from the decoded
+ * image into a direct buffer from the staging pool, which the upload reads
+ * as is; {@link TextureData#flush()} hands the buffer back to the pool, the
+ * render thread calls it once the texture was created.
+ *
+ * Drawables found in the {@link AssetPack} aren't decoded at all: their
+ * TextureData wraps the pack's mapped pixels, and {@link #read(Texture[], int[])}
+ * leaves them to the caller, who can copy them from the pack as they are.
+ *
+ * The rows are kept top first, flagged as needing a vertical flip like the
+ * images TextureIO reads itself.
+ */
+public class TextureDecoder extends BaseObject
+{
+    private static final int BYTES_PER_PIXEL = 4;
+
+    private final ExecutorService mExecutor;
+    private final DirectBufferPool mStagingPool;
+    private final AssetPack mAssetPack;
+    private final int mWorkerCount;
+
+    /**
+     * @param assetPack
+     *            Where to take the decoded drawables from, null to decode them
+     *            all from their files.
+     */
+    public TextureDecoder( int workerCount, DirectBufferPool stagingPool, AssetPack assetPack )
+    {
+        if ( workerCount < 1 )
+            throw new IllegalArgumentException( "Needs at least one worker" );
+
+        mWorkerCount = workerCount;
+        mStagingPool = stagingPool;
+        mAssetPack = assetPack;
+        mExecutor = Executors.newFixedThreadPool( workerCount, new WorkerFactory() );
+    }
+
+    public int getWorkerCount()
+    {
+        return mWorkerCount;
+    }
+
+    public DirectBufferPool getStagingPool()
+    {
+        return mStagingPool;
+    }
+
+    /**
+     * Reads the textures in parallel.
+     *
+     * @param resourceIds
+     *            From {@link #getPendingResourceIds(Texture[])}.
+     * @return one image per texture, null for those that were skipped, are in
+     *         the asset pack or couldn't be read (which are marked as not
+     *         loaded).
+     */
+    public BufferedImage[] read( Texture[] textures, int[] resourceIds )
+    {
+        final List<Callable<BufferedImage>> tasks = new ArrayList<Callable<BufferedImage>>( textures.length );
+        for ( int index = 0; index < textures.length; index++ )
+            tasks.add( new ReadTask( isPacked( resourceIds[ index ] ) ? -1 : resourceIds[ index ] ) );
+
+        final List<BufferedImage> images = run( tasks );
+        markFailures( textures, resourceIds, images );
+        return images.toArray( new BufferedImage[ images.size() ] );
+    }
+
+    /**
+     * Reads and stages the textures that aren't loaded yet, in parallel.
+     *
+     * @return (Texture, TextureData) pairs, both null for the textures that
+     *         were skipped or couldn't be read.
+     */
+    public Object[] decode( Texture[] textures )
+    {
+        final int[] resourceIds = getPendingResourceIds( textures );
+        final List<Callable<TextureData>> tasks = new ArrayList<Callable<TextureData>>( textures.length );
+        for ( int index = 0; index < textures.length; index++ )
+            tasks.add( new DecodeTask( resourceIds[ index ] ) );
+
+        final List<TextureData> data = run( tasks );
+        markFailures( textures, resourceIds, data );
+
+        Object[] result = new Object[ textures.length * 2 ];
+        for ( int index = 0; index < textures.length; index++ )
+        {
+            if ( data.get( index ) == null )
+                continue;
+
+            result[ index * 2 ] = textures[ index ];
+            result[ index * 2 + 1 ] = data.get( index );
+        }
+
+        return result;
+    }
+
+    public TextureData createTextureData( BufferedImage image )
+    {
+        final int width = image.getWidth();
+        final int height = image.getHeight();
+        final ByteBuffer buffer = mStagingPool.acquire( width * height * BYTES_PER_PIXEL );
+        final IntBuffer pixels = buffer.order( ByteOrder.BIG_ENDIAN ).asIntBuffer();
+
+        final int[] row = new int[ width ];
+        for ( int y = 0; y < height; y++ )
+        {
+            image.getRGB( 0, y, width, 1, row, 0, width );
+            putRow( pixels, row, 0, width );
+        }
+
+        return createTextureData( buffer, width, height );
+    }
+
+    /** The pixels are ARGB, top row first. */
+    public TextureData createTextureData( int[] argb, int width, int height )
+    {
+        final ByteBuffer buffer = mStagingPool.acquire( width * height * BYTES_PER_PIXEL );
+        final IntBuffer pixels = buffer.order( ByteOrder.BIG_ENDIAN ).asIntBuffer();
+
+        for ( int y = 0; y < height; y++ )
+            putRow( pixels, argb, y * width, width );
+
+        return createTextureData( buffer, width, height );
+    }
+
+    /** The pack's pixels, wrapped as they are. */
+    public TextureData createPackedTextureData( int resourceId )
+    {
+        if ( ! isPacked( resourceId ) )
+            throw new IllegalArgumentException( "Resource " + resourceId + " isn't in the asset pack" );
+
+        return createTextureData( mAssetPack.getPixels( resourceId ), mAssetPack.getWidth( resourceId ), mAssetPack.getHeight( resourceId ), null );
+    }
+
+    public boolean isPacked( int resourceId )
+    {
+        return mAssetPack != null && mAssetPack.contains( resourceId );
+    }
+
+    public AssetPack getAssetPack()
+    {
+        return mAssetPack;
+    }
+
+    /** The workers are daemons, but this lets them go right away. */
+    public void shutdown()
+    {
+        mExecutor.shutdown();
+    }
+
+    private TextureData createTextureData( ByteBuffer buffer, int width, int height )
+    {
+        buffer.rewind();
+        return createTextureData( buffer, width, height, new StagingFlusher( mStagingPool, buffer ) );
+    }
+
+    private static TextureData createTextureData( ByteBuffer buffer, int width, int height, TextureData.Flusher flusher )
+    {
+        return new TextureData( GL.GL_RGBA,
+                                width,
+                                height,
+                                0,
+                                GL.GL_RGBA,
+                                GL.GL_UNSIGNED_BYTE,
+                                false,
+                                false,
+                                true,
+                                buffer,
+                                flusher );
+    }
+
+    /**
+     * ARGB to the RGBA byte order GL_UNSIGNED_BYTE expects, through the
+     * buffer's big endian int view.
+     */
+    private static void putRow( IntBuffer pixels, int[] argb, int offset, int width )
+    {
+        for ( int index = offset; index < offset + width; index++ )
+        {
+            final int pixel = argb[ index ];
+            pixels.put( ( pixel << 8 ) | ( pixel >>> 24 ) );
+        }
+    }
+
+    private <T> List<T> run( List<Callable<T>> tasks )
+    {
+        final List<T> results = new ArrayList<T>( tasks.size() );
+        try
+        {
+            List<Future<T>> futures = mExecutor.invokeAll( tasks );
+            for ( Future<T> future : futures )
+                results.add( future.get() );
+        }
+        catch ( InterruptedException e )
+        {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException( "Interrupted while decoding textures", e );
+        }
+        catch ( ExecutionException e )
+        {
+            throw new IllegalStateException( "Decoding textures failed", e.getCause() );
+        }
+
+        return results;
+    }
+
+    /**
+     * Which textures to read is decided here, on the calling thread, before
+     * any task is submitted: the workers only get resource ids and never look
+     * at a texture, whose loaded state the render thread sets.
+     *
+     * @return the resource id of every texture, -1 for those to skip.
+     */
+    public static int[] getPendingResourceIds( Texture[] textures )
+    {
+        final int[] resourceIds = new int[ textures.length ];
+        for ( int index = 0; index < textures.length; index++ )
+            resourceIds[ index ] = textures[ index ].isLoaded() ? -1 : textures[ index ].getResourceId();
+
+        return resourceIds;
+    }
+
+    /** Back on the calling thread, the textures that couldn't be read. */
+    private void markFailures( Texture[] textures, int[] resourceIds, List<?> results )
+    {
+        for ( int index = 0; index < textures.length; index++ )
+        {
+            if ( resourceIds[ index ] != -1 && results.get( index ) == null && ! isPacked( resourceIds[ index ] ) )
+                textures[ index ].setLoaded( false );
+        }
+    }
+
+    private BufferedImage readImage( int resourceId )
+    {
+        if ( resourceId == -1 )
+            return null;
+
+        try
+        {
+            Resources resource = Resources.getResource( resourceId );
+            BufferedImage image = ImageIO.read( new File( resource.getDrawablePath() ) );
+            if ( image != null )
+                return image;
+        }
+        catch ( IOException ioe )
+        {
+            ioe.printStackTrace();
+        }
+
+        return null;
+    }
+
+    private final class ReadTask implements Callable<BufferedImage>
+    {
+        private final int mResourceId;
+
+        public ReadTask( int resourceId )
+        {
+            mResourceId = resourceId;
+        }
+
+        @Override
+        public BufferedImage call()
+        {
+            return readImage( mResourceId );
+        }
+    }
+
+    private final class DecodeTask implements Callable<TextureData>
+    {
+        private final int mResourceId;
+
+        public DecodeTask( int resourceId )
+        {
+            mResourceId = resourceId;
+        }
+
+        @Override
+        public TextureData call()
+        {
+            if ( isPacked( mResourceId ) )
+                return createPackedTextureData( mResourceId );
+
+            BufferedImage image = readImage( mResourceId );
+            return ( image == null ) ? null : createTextureData( image );
+        }
+    }
+
+    /** Hands the staging buffer back, only the first time. */
+    private static final class StagingFlusher implements TextureData.Flusher
+    {
+        private final DirectBufferPool mPool;
+        private ByteBuffer mBuffer;
+
+        public StagingFlusher( DirectBufferPool pool, ByteBuffer buffer )
+        {
+            mPool = pool;
+            mBuffer = buffer;
+        }
+
+        @Override
+        public synchronized void flush()
+        {
+            mPool.release( mBuffer );
+            mBuffer = null;
+        }
+    }
+
+    private static final class WorkerFactory implements ThreadFactory
+    {
+        private int mCount = 0;
+
+        @Override
+        public Thread newThread( Runnable runnable )
+        {
+            Thread thread = new Thread( runnable );
+            thread.setName( "Texture Decode Thread " + mCount++ );
+            thread.setDaemon( true );
+            return thread;
+        }
+    }
+}